@@ -1,30 +1,42 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
 
 public class BPAlert implements AlertStrategy {
+    private static final ThreadLocal<RecordCursor> CURSOR = ThreadLocal.withInitial(RecordCursor::new);
 
     @Override
      public Alert evaluate(Patient patient, long startTime, long endTime) {
-        
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
+        //trends are only meaningful within one bp series
+        Alert alert = evaluateTrend(
+                patient.cursor(SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, startTime, endTime, CURSOR.get()), patient, endTime);
+        if (alert == null) {
+            alert = evaluateTrend(
+                    patient.cursor(SignalCatalog.DIASTOLIC_BLOOD_PRESSURE, startTime, endTime, CURSOR.get()), patient, endTime);
+        }
+        return alert;
+    }
+
+    private Alert evaluateTrend(RecordCursor records, Patient patient, long endTime) {
         int patientID = patient.getPatientId();
 
         //make sure min 3 recs exist
-        if (records.size() < 3) {
-            return null; 
+        if (!records.next()) {
+            return null;
+        }
+        double reading3 = records.value();
+        if (!records.next()) {
+            return null;
         }
+        double reading2 = records.value();
 
-        for (int i = 2; i < records.size(); i++) {
-      //get lat 3 records of any type bp
-            double reading1 = records.get(i).getMeasurementValue();
-            double reading2 = records.get(i - 1).getMeasurementValue();
-            double reading3 = records.get(i - 2).getMeasurementValue();
-      //Assume chronological order
+        while (records.next()) {
+      //last 3 records of this bp type
+            double reading1 = records.value();
+      //cursors return records in timestamp order
             double diff1 = reading1 - reading2;
             double diff2 = reading2 - reading3;
       //check if they're increasing or decreasing consecutively
@@ -42,6 +54,8 @@ public class BPAlert implements AlertStrategy {
                     return alertTrendBP;
                 }
             }
+            reading3 = reading2;
+            reading2 = reading1;
         }
         return null;
     }
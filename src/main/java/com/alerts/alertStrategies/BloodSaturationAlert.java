@@ -1,21 +1,21 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
 
 public class BloodSaturationAlert implements AlertStrategy {
+    private static final ThreadLocal<RecordCursor> CURSOR = ThreadLocal.withInitial(RecordCursor::new);
 
     @Override
     public Alert evaluate(Patient patient, long startTime, long endTime) {
       
         int patientID = patient.getPatientId();
-        List <PatientRecord> records = patient.getRecords(startTime, endTime);
+        RecordCursor records = patient.cursor(SignalCatalog.BLOOD_OXYGEN, startTime, endTime, CURSOR.get());
 
-        for(int i = 0; i < records.size(); i++) {
-            double reading = records.get(i).getMeasurementValue();
+        while (records.next()) {
+            double reading = records.value();
             if(reading < 0.92) {  //assume records come in 0-1
                 //trigger alert
                 Alert lowBloodSatAlert = new Alert(patientID, "Low Blood Saturation Alert", endTime);
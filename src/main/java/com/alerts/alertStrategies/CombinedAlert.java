@@ -1,34 +1,32 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
+import com.data_management.AlignedCursor;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.SignalCatalog;
 
+/**
+ * Fires when a low systolic pressure and a low blood oxygen reading occur
+ * together. Each systolic reading is paired with the nearest blood oxygen
+ * reading within {@link #TOLERANCE_MILLIS}, so readings minutes apart do not
+ * count as simultaneous.
+ */
 public class CombinedAlert implements AlertStrategy {
-    
+    /** The largest gap between a systolic and a blood oxygen reading that are paired. */
+    static final long TOLERANCE_MILLIS = 60_000L;
+    private static final int[] SIGNALS = {SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, SignalCatalog.BLOOD_OXYGEN};
+    private static final ThreadLocal<AlignedCursor> CURSOR = ThreadLocal.withInitial(AlignedCursor::new);
+
 @Override
    public Alert evaluate(Patient patient, long startTime, long endTime) {
-        boolean systolicDanger = false;
-        boolean bloodOxygenDanger = false;
         int patientID = patient.getPatientId();
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
-
-        for (PatientRecord record : records) {
-            String type = record.getRecordType();
-            double value = record.getMeasurementValue();
 
-            if ("SystolicBloodPressure".equalsIgnoreCase(type) && value < 90) {
-                systolicDanger = true;
+        AlignedCursor rows = patient.align(SIGNALS, startTime, endTime, 0, TOLERANCE_MILLIS,
+                AlignedCursor.Mode.NEAREST, CURSOR.get());
+        while (rows.next()) {
+            if (rows.value(0) < 90 && rows.isPresent(1) && rows.value(1) < 0.92) {
+                return new Alert(patientID, "Hypotensive Hypoxemia alert - IMMEDIATE ATTENTION", endTime);
             }
-            if ("BloodOxygen".equalsIgnoreCase(type) && value < 0.92) {
-                bloodOxygenDanger = true;
-            }
-        }
-
-        if (systolicDanger && bloodOxygenDanger) {
-            return new Alert(patientID, "Hypotensive Hypoxemia alert - IMMEDIATE ATTENTION", endTime);
         }
         return null;
     }
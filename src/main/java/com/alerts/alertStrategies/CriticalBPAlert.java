@@ -1,30 +1,43 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
 
+/**
+ * Fires on the first systolic or diastolic reading outside its critical
+ * range. The two series are merged by timestamp, so the alert describes the
+ * earliest critical reading of either kind; on equal timestamps the systolic
+ * reading comes first, as in {@link Patient#getRecords(long, long)}.
+ */
 public class CriticalBPAlert implements AlertStrategy {
+    private static final ThreadLocal<RecordCursor> SYSTOLIC = ThreadLocal.withInitial(RecordCursor::new);
+    private static final ThreadLocal<RecordCursor> DIASTOLIC = ThreadLocal.withInitial(RecordCursor::new);
 
 @Override
     public Alert evaluate(Patient patient, long startTime, long endTime) {
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
         int patientID = patient.getPatientId();
 
-        for (PatientRecord record : records) {
-            String type = record.getRecordType();
-            double reading = record.getMeasurementValue();
-
-            if ("SystolicBloodPressure".equalsIgnoreCase(type)) {
+        RecordCursor systolic = patient.cursor(SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, startTime, endTime,
+                SYSTOLIC.get());
+        RecordCursor diastolic = patient.cursor(SignalCatalog.DIASTOLIC_BLOOD_PRESSURE, startTime, endTime,
+                DIASTOLIC.get());
+        boolean hasSystolic = systolic.next();
+        boolean hasDiastolic = diastolic.next();
+        while (hasSystolic || hasDiastolic) {
+            if (hasSystolic && (!hasDiastolic || systolic.timestamp() <= diastolic.timestamp())) {
+                double reading = systolic.value();
                 if (reading > 180 || reading < 90) {
-                    return new Alert(patientID, "Critical Systolic Blood Pressure Alert", record.getTimestamp());
+                    return new Alert(patientID, "Critical Systolic Blood Pressure Alert", systolic.timestamp());
                 }
-            } else if ("DiastolicBloodPressure".equalsIgnoreCase(type)) {
+                hasSystolic = systolic.next();
+            } else {
+                double reading = diastolic.value();
                 if (reading > 120 || reading < 60) {
-                    return new Alert(patientID, "Critical Diastolic Blood Pressure Alert", record.getTimestamp());
+                    return new Alert(patientID, "Critical Diastolic Blood Pressure Alert", diastolic.timestamp());
                 }
+                hasDiastolic = diastolic.next();
             }
         }
         return null;
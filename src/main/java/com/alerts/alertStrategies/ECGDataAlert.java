@@ -1,41 +1,43 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-import java.util.LinkedList;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
 
 public class ECGDataAlert implements AlertStrategy {
 
     private static final int WINDOW_SIZE = 250; // Adjust based on sampling rate
     private static final double THRESHOLD_MULTIPLIER = 2.5;
+    private static final ThreadLocal<RecordCursor> CURSOR = ThreadLocal.withInitial(RecordCursor::new);
+    // the values in the window, so the one leaving it is subtracted exactly as it was added
+    private static final ThreadLocal<double[]> WINDOW = ThreadLocal.withInitial(() -> new double[WINDOW_SIZE]);
 
     @Override
     public Alert evaluate(Patient patient, long startTime, long endTime) {
         
         int patientID = patient.getPatientId();
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
-
-        if (records.size() < WINDOW_SIZE) {
-            return null;
-        }
+        RecordCursor records = patient.cursor(SignalCatalog.ECG, startTime, endTime, CURSOR.get());
+        double[] window = WINDOW.get();
 
-        LinkedList<Double> window = new LinkedList<>();
+        int windowSize = 0;
+        int oldest = 0;
         double sum = 0.0;
 
-        for (int i = 0; i < records.size(); i++) {
-            double value = records.get(i).getMeasurementValue();
+        while (records.next()) {
+            double value = records.value();
 
             // Update sliding window
-            if (window.size() == WINDOW_SIZE) {
-                sum -= window.removeFirst();
+            if (windowSize == WINDOW_SIZE) {
+                sum -= window[oldest];
+            } else {
+                windowSize++;
             }
-            window.addLast(value);
+            window[oldest] = value;
+            oldest = (oldest + 1) % WINDOW_SIZE;
             sum += value;
 
-            if (window.size() < WINDOW_SIZE) continue;
+            if (windowSize < WINDOW_SIZE) continue;
 
             double average = sum / WINDOW_SIZE;
 
@@ -1,10 +1,9 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.SignalCatalog;
+import com.data_management.WindowAggregate;
 
 public class RapidBloodSatAlert implements AlertStrategy {
 
@@ -12,23 +11,13 @@ public class RapidBloodSatAlert implements AlertStrategy {
     public Alert evaluate(Patient patient, long startTime, long endTime) {
         // O2 saturation drops >= 5% in 10 mins
         int patientID = patient.getPatientId();
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
+        WindowAggregate saturation = patient.getAggregate(SignalCatalog.BLOOD_OXYGEN, startTime, endTime);
 
-        if (records.size() < 2) {
+        if (saturation.getCount() < 2) {
             return null;
         }
 
-        double max = Double.NEGATIVE_INFINITY;
-        double min = Double.POSITIVE_INFINITY;
-        for (PatientRecord record : records) {
-            if ("BloodOxygen".equalsIgnoreCase(record.getRecordType())) {     
-                double value = record.getMeasurementValue();
-                if (value > max) max = value;
-                if (value < min) min = value;
-            }
-        }
-
-        double drop = max - min;
+        double drop = saturation.getMax() - saturation.getMin();
         double mins = (endTime - startTime) / 60000.0;
 
         if (mins <= 10 && drop >= 0.05) {
@@ -1,22 +1,20 @@
 package com.alerts.alertStrategies;
 
-import java.util.List;
-
 import com.alerts.Alert;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
 
 public class TriggeredAlerts implements AlertStrategy {
+    private static final ThreadLocal<RecordCursor> CURSOR = ThreadLocal.withInitial(RecordCursor::new);
 
     @Override
     public Alert evaluate(Patient patient, long startTime, long endTime) {
         // Look for a PatientRecord with recordType "ManualTrigger" in the time window
-        List<PatientRecord> records = patient.getRecords(startTime, endTime);
-        for (PatientRecord record : records) {
-            if ("ManualTrigger".equalsIgnoreCase(record.getRecordType())) {
-                return new Alert(patient.getPatientId(), "Manual Alert Triggered", record.getTimestamp());
-            }
+        RecordCursor records = patient.cursor(SignalCatalog.MANUAL_TRIGGER, startTime, endTime, CURSOR.get());
+        if (records.next()) {
+            return new Alert(patient.getPatientId(), "Manual Alert Triggered", records.timestamp());
         }
         return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Forward-only cursor over several record types of one patient aligned onto a
+ * common time grid, one row per grid point with one value per record type.
+ * <p>
+ * The grid is either every {@code step} milliseconds from the start of the
+ * window, or, with a step of 0, the timestamps of the first record type, which
+ * then acts as the driver of an as-of join. Each other column is matched to a
+ * grid point by {@link Mode}: its latest sample at or before the point, or its
+ * nearest sample on either side. A sample further than the tolerance from the
+ * point leaves the column absent in that row.
+ * <p>
+ * Alignment is a single streaming merge: every column reads its series through
+ * its own {@link RecordCursor} and keeps one sample of lookahead, and since
+ * grid points only move forward no column is ever read twice. A window of n
+ * samples and g grid points costs O(n + g) and, once the cursor is reused,
+ * allocates nothing. A cursor is not thread-safe.
+ * <pre>
+ *     int[] types = {SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, SignalCatalog.BLOOD_OXYGEN};
+ *     AlignedCursor rows = patient.align(types, start, end, 0, 60_000, AlignedCursor.Mode.NEAREST, reuse);
+ *     while (rows.next()) {
+ *         if (rows.isComplete() &amp;&amp; rows.value(0) &lt; 90 &amp;&amp; rows.value(1) &lt; 0.92) { ... }
+ *     }
+ * </pre>
+ */
+public final class AlignedCursor {
+
+    /**
+     * How a column picks its sample for a grid point.
+     */
+    public enum Mode {
+        /** The latest sample at or before the grid point. */
+        AS_OF,
+        /** The sample closest to the grid point; the earlier one on a tie. */
+        NEAREST
+    }
+
+    private RecordCursor[] cursors = new RecordCursor[0];
+    private long[] previousTimestamps = new long[0];
+    private double[] previousValues = new double[0];
+    private boolean[] hasPrevious = new boolean[0];
+    private long[] nextTimestamps = new long[0];
+    private double[] nextValues = new double[0];
+    private boolean[] hasNext = new boolean[0];
+    private double[] values = new double[0];
+    private boolean[] present = new boolean[0];
+
+    private int columns;
+    private long endTime;
+    private long step;
+    private long tolerance;
+    private Mode mode;
+    private long timestamp;
+    private boolean started;
+    private boolean exhausted;
+
+    /**
+     * Creates a cursor that is positioned on nothing until it is opened through
+     * {@link Patient#align} or {@link DataStorage#align}.
+     */
+    public AlignedCursor() {
+    }
+
+    /**
+     * Positions the cursor before the first grid point of a window.
+     *
+     * @param patient the patient to read, or null for an empty cursor
+     * @throws IllegalArgumentException if no record type is given, or the step
+     *                                  or tolerance is negative
+     */
+    AlignedCursor open(Patient patient, int[] typeCodes, long startTime, long endTime, long step, long tolerance,
+            Mode mode) {
+        if (typeCodes.length == 0) {
+            throw new IllegalArgumentException("At least one record type is required");
+        }
+        if (step < 0 || tolerance < 0) {
+            throw new IllegalArgumentException("Step and tolerance must not be negative: " + step + ", "
+                    + tolerance);
+        }
+        columns = typeCodes.length;
+        if (cursors.length < columns) {
+            grow(columns);
+        }
+        this.endTime = endTime;
+        this.step = step;
+        this.tolerance = tolerance;
+        this.mode = mode;
+        this.timestamp = startTime;
+        this.started = false;
+        this.exhausted = patient == null || startTime > endTime;
+        // columns matched to grid points may use samples up to the tolerance outside the window
+        long from = saturatedAdd(startTime, -tolerance);
+        long to = mode == Mode.NEAREST ? saturatedAdd(endTime, tolerance) : endTime;
+        for (int c = 0; c < columns; c++) {
+            boolean driver = c == 0 && step == 0;
+            cursors[c].open(patient, typeCodes[c], driver ? startTime : from, driver ? endTime : to);
+            hasPrevious[c] = false;
+            hasNext[c] = false;
+            present[c] = false;
+            if (!driver && cursors[c].next()) {
+                hasNext[c] = true;
+                nextTimestamps[c] = cursors[c].timestamp();
+                nextValues[c] = cursors[c].value();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Advances to the next grid point and matches every column to it.
+     *
+     * @return false once the window is exhausted
+     */
+    public boolean next() {
+        if (exhausted) {
+            return false;
+        }
+        int first = 0;
+        if (step == 0) {
+            if (!cursors[0].next()) {
+                exhausted = true;
+                return false;
+            }
+            timestamp = cursors[0].timestamp();
+            values[0] = cursors[0].value();
+            present[0] = true;
+            first = 1;
+        } else if (started) {
+            if (timestamp > endTime - step) {
+                exhausted = true;
+                return false;
+            }
+            timestamp += step;
+        }
+        started = true;
+        for (int c = first; c < columns; c++) {
+            match(c, timestamp);
+        }
+        return true;
+    }
+
+    private void match(int column, long time) {
+        RecordCursor cursor = cursors[column];
+        while (hasNext[column] && nextTimestamps[column] <= time) {
+            hasPrevious[column] = true;
+            previousTimestamps[column] = nextTimestamps[column];
+            previousValues[column] = nextValues[column];
+            hasNext[column] = cursor.next();
+            if (hasNext[column]) {
+                nextTimestamps[column] = cursor.timestamp();
+                nextValues[column] = cursor.value();
+            }
+        }
+        long before = hasPrevious[column] ? time - previousTimestamps[column] : Long.MAX_VALUE;
+        long after = mode == Mode.NEAREST && hasNext[column] ? nextTimestamps[column] - time : Long.MAX_VALUE;
+        if (before <= tolerance && before <= after) {
+            present[column] = true;
+            values[column] = previousValues[column];
+        } else if (after <= tolerance) {
+            present[column] = true;
+            values[column] = nextValues[column];
+        } else {
+            present[column] = false;
+            values[column] = Double.NaN;
+        }
+    }
+
+    /**
+     * @return the time of the current grid point, in milliseconds since epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the number of record types, in the order they were given
+     */
+    public int columnCount() {
+        return columns;
+    }
+
+    /**
+     * @param column the index of the record type in the order given
+     * @return whether the column has a sample within the tolerance of the
+     *         current grid point
+     */
+    public boolean isPresent(int column) {
+        return present[checkColumn(column)];
+    }
+
+    /**
+     * @param column the index of the record type in the order given
+     * @return the column's value at the current grid point, or NaN if it is
+     *         absent
+     */
+    public double value(int column) {
+        return values[checkColumn(column)];
+    }
+
+    /**
+     * @return whether every column is present at the current grid point
+     */
+    public boolean isComplete() {
+        for (int c = 0; c < columns; c++) {
+            if (!present[c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checkColumn(int column) {
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + columns);
+        }
+        return column;
+    }
+
+    private void grow(int capacity) {
+        int previous = cursors.length;
+        cursors = Arrays.copyOf(cursors, capacity);
+        for (int c = previous; c < capacity; c++) {
+            cursors[c] = new RecordCursor();
+        }
+        previousTimestamps = new long[capacity];
+        previousValues = new double[capacity];
+        hasPrevious = new boolean[capacity];
+        nextTimestamps = new long[capacity];
+        nextValues = new double[capacity];
+        hasNext = new boolean[capacity];
+        values = new double[capacity];
+        present = new boolean[capacity];
+    }
+
+    private static long saturatedAdd(long time, long offset) {
+        long sum = time + offset;
+        // overflow only if both operands have the same sign and the sum's sign differs
+        if (((time ^ sum) & (offset ^ sum)) < 0) {
+            return offset < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,50 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fans appended records out to the {@link Subscription}s of a storage.
+ * <p>
+ * Patients publish every record they add while still holding their lock, so
+ * each subscription sees a patient's records in insertion order. The
+ * subscription array is replaced on every change and read without locking;
+ * with no subscriptions a publish is a single volatile read.
+ */
+final class ChangeFeed {
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * @return whether any subscription is registered
+     */
+    boolean isActive() {
+        return subscriptions.length > 0;
+    }
+
+    void publish(int patientId, double value, int typeCode, long timestamp) {
+        Subscription[] current = subscriptions;
+        PatientRecord record = null;
+        for (Subscription subscription : current) {
+            if (subscription.matches(patientId, typeCode)) {
+                if (record == null) {
+                    record = new PatientRecord(patientId, value, typeCode, timestamp);
+                }
+                subscription.offer(record);
+            }
+        }
+    }
+
+    synchronized void add(Subscription subscription) {
+        Subscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        grown[grown.length - 1] = subscription;
+        subscriptions = grown;
+    }
+
+    synchronized void remove(Subscription subscription) {
+        List<Subscription> remaining = new ArrayList<>(Arrays.asList(subscriptions));
+        if (remaining.remove(subscription)) {
+            subscriptions = remaining.toArray(new Subscription[0]);
+        }
+    }
+}
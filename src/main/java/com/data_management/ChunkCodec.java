@@ -0,0 +1,254 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Gorilla-style compression for sorted blocks of samples.
+ * <p>
+ * Timestamps are stored as deltas of deltas: a sample arriving at the same
+ * interval as the previous one costs a single bit, small jitter costs 9 to 16
+ * bits. Values are XOR-ed with the previous value; an unchanged value costs one
+ * bit, and a changed one stores only the meaningful bits of the XOR, reusing
+ * the previous leading/trailing zero window when it fits. Value bits are kept
+ * raw, so {@code NaN} payloads and {@code -0.0} survive a round trip exactly.
+ * <p>
+ * Layout: {@code [32 bits count][64 bits first timestamp][64 bits first value]},
+ * then per further sample a timestamp field and a value field:
+ * <pre>
+ *   timestamp  0                   delta of delta is 0
+ *              10   + 7 bits       in [-64, 63]
+ *              110  + 9 bits       in [-256, 255]
+ *              1110 + 12 bits      in [-2048, 2047]
+ *              1111 + 64 bits      anything else
+ *   value      0                   same as previous
+ *              10   + n bits       XOR inside the previous zero window
+ *              11   + 5 bits leading zeros + 6 bits (length - 1) + length bits
+ * </pre>
+ * Bits are packed most significant first into a {@code long[]}.
+ */
+public final class ChunkCodec {
+
+    private ChunkCodec() {
+    }
+
+    /**
+     * Encodes the first {@code count} samples.
+     *
+     * @param timestamps timestamps in ascending order
+     * @param values     the matching values
+     * @param count      the number of samples to encode
+     * @return the packed bits, trimmed to length
+     */
+    public static long[] encode(long[] timestamps, double[] values, int count) {
+        BitWriter out = new BitWriter(Math.max(4, count / 2));
+        out.write(count, 32);
+        if (count == 0) {
+            return out.toArray();
+        }
+        long timestamp = timestamps[0];
+        long valueBits = Double.doubleToRawLongBits(values[0]);
+        out.write(timestamp, 64);
+        out.write(valueBits, 64);
+        long delta = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long newDelta = timestamps[i] - timestamp;
+            long deltaOfDelta = newDelta - delta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            delta = newDelta;
+            timestamp = timestamps[i];
+
+            long currentBits = Double.doubleToRawLongBits(values[i]);
+            long xor = currentBits ^ valueBits;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailingZeros = Long.numberOfTrailingZeros(xor);
+                if (leading >= 0 && leadingZeros >= leading && trailingZeros >= trailing) {
+                    out.write(0b10, 2);
+                    out.write(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    leading = leadingZeros;
+                    trailing = trailingZeros;
+                    int length = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(length - 1, 6);
+                    out.write(xor >>> trailing, length);
+                }
+            }
+            valueBits = currentBits;
+        }
+        return out.toArray();
+    }
+
+    /**
+     * Decodes a block produced by {@link #encode} into the given arrays.
+     *
+     * @param encoded    the packed bits
+     * @param timestamps receives the timestamps from index 0
+     * @param values     receives the values from index 0
+     * @return the number of samples decoded
+     */
+    public static int decode(long[] encoded, long[] timestamps, double[] values) {
+        return decode(encoded, timestamps, values, 0);
+    }
+
+    static int decode(long[] encoded, long[] timestamps, double[] values, int offset) {
+        Decoder decoder = new Decoder();
+        decoder.reset(encoded);
+        int count = 0;
+        while (decoder.next()) {
+            timestamps[offset + count] = decoder.timestamp();
+            values[offset + count] = decoder.value();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of samples in an encoded block
+     */
+    public static int count(long[] encoded) {
+        return (int) (encoded[0] >>> 32);
+    }
+
+    /**
+     * Streams the samples of an encoded block in order. A decoder can be reset
+     * and reused for another block.
+     */
+    static final class Decoder {
+        private long[] words;
+        private int position;
+        private int remaining;
+        private boolean started;
+        private long timestamp;
+        private long delta;
+        private long valueBits;
+        private int leading;
+        private int trailing;
+
+        void reset(long[] encoded) {
+            words = encoded;
+            position = 0;
+            remaining = (int) read(32);
+            started = false;
+            delta = 0;
+        }
+
+        /**
+         * Advances to the next sample.
+         *
+         * @return false once every sample has been read
+         */
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            if (!started) {
+                started = true;
+                timestamp = read(64);
+                valueBits = read(64);
+                return true;
+            }
+            long deltaOfDelta;
+            if (read(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (read(1) == 0) {
+                deltaOfDelta = signed(read(7), 7);
+            } else if (read(1) == 0) {
+                deltaOfDelta = signed(read(9), 9);
+            } else if (read(1) == 0) {
+                deltaOfDelta = signed(read(12), 12);
+            } else {
+                deltaOfDelta = read(64);
+            }
+            delta += deltaOfDelta;
+            timestamp += delta;
+
+            if (read(1) != 0) {
+                if (read(1) != 0) {
+                    leading = (int) read(5);
+                    int length = (int) read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                valueBits ^= read(64 - leading - trailing) << trailing;
+            }
+            return true;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return Double.longBitsToDouble(valueBits);
+        }
+
+        private long read(int bits) {
+            int index = position >>> 6;
+            int used = position & 63;
+            int free = 64 - used;
+            position += bits;
+            if (bits <= free) {
+                return (words[index] << used) >>> (64 - bits);
+            }
+            int rest = bits - free;
+            long high = (words[index] << used) >>> used;
+            return (high << rest) | (words[index + 1] >>> (64 - rest));
+        }
+
+        private static long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+
+    private static final class BitWriter {
+        private long[] words;
+        private int position;
+
+        BitWriter(int initialWords) {
+            words = new long[initialWords];
+        }
+
+        void write(long value, int bits) {
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            if ((position + bits + 63) >>> 6 > words.length) {
+                words = Arrays.copyOf(words, Math.max(words.length * 2, (position + bits + 63) >>> 6));
+            }
+            int index = position >>> 6;
+            int free = 64 - (position & 63);
+            if (bits <= free) {
+                words[index] |= value << (free - bits);
+            } else {
+                int rest = bits - free;
+                words[index] |= value >>> rest;
+                words[index + 1] |= value << (64 - rest);
+            }
+            position += bits;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+}
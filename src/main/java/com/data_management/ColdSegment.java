@@ -0,0 +1,423 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One immutable, memory-mapped segment file of the cold storage tier.
+ * <p>
+ * A segment holds {@link ChunkCodec} blocks of many series, ordered by patient
+ * ID, record type and first timestamp, followed by a sparse index with one
+ * entry per block (up to 1,024 samples), so a lookup binary-searches the index
+ * for the patient and decodes only the blocks overlapping the requested range.
+ * Layout:
+ * <pre>
+ *   [int magic][int version]
+ *   blocks: raw big-endian longs
+ *   [int typeCount] typeCount x [short length][UTF-8 name]
+ *   [int blockCount] blockCount x [int patientId][int typeIndex]
+ *       [long firstTimestamp][long lastTimestamp][long offset][int words]
+ *   [long indexOffset][int magic]
+ * </pre>
+ * Type names, not catalog codes, are stored, since codes are per JVM. The
+ * index is loaded onto the heap when the segment is opened; blocks are read
+ * from the mapping on demand. Offsets are longs and the block area is mapped
+ * in windows of {@link #WINDOW_BYTES}, each extended by the largest block so
+ * that every block lies wholly inside the window it starts in; a segment may
+ * therefore be larger than a single mapping can be.
+ * <p>
+ * Segments are written through a {@link Writer}, which streams blocks to the
+ * file and keeps only the index on the heap.
+ */
+final class ColdSegment {
+    private static final int MAGIC = 0x43445347; // "CDSG"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FOOTER_BYTES = 12;
+    private static final int INDEX_ENTRY_BYTES = 4 + 4 + 8 + 8 + 8 + 4;
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    /**
+     * A block of encoded samples of one series, either pending in memory or
+     * read from a segment.
+     */
+    static final class Block {
+        static final Comparator<Block> ORDER = Comparator.<Block>comparingInt(block -> block.patientId)
+                .thenComparingInt(block -> block.typeCode)
+                .thenComparingLong(block -> block.firstTimestamp);
+
+        final int patientId;
+        final int typeCode;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final long[] words;
+
+        Block(int patientId, int typeCode, long firstTimestamp, long lastTimestamp, long[] words) {
+            this.patientId = patientId;
+            this.typeCode = typeCode;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.words = words;
+        }
+    }
+
+    private final Path path;
+    private final long byteSize;
+    private final MappedByteBuffer[] windows;
+    // the sparse index, sorted like Block.ORDER
+    private final int[] patientIds;
+    private final int[] typeCodes;
+    private final long[] firstTimestamps;
+    private final long[] lastTimestamps;
+    private final long[] offsets;
+    private final int[] wordCounts;
+
+    private ColdSegment(Path path, long byteSize, MappedByteBuffer[] windows, int[] patientIds, int[] typeCodes,
+            long[] firstTimestamps, long[] lastTimestamps, long[] offsets, int[] wordCounts) {
+        this.path = path;
+        this.byteSize = byteSize;
+        this.windows = windows;
+        this.patientIds = patientIds;
+        this.typeCodes = typeCodes;
+        this.firstTimestamps = firstTimestamps;
+        this.lastTimestamps = lastTimestamps;
+        this.offsets = offsets;
+        this.wordCounts = wordCounts;
+    }
+
+    /**
+     * Writes blocks, sorted by {@link Block#ORDER}, to a new segment file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    static ColdSegment write(Path path, List<Block> blocks) throws IOException {
+        try (Writer writer = new Writer(path)) {
+            for (Block block : blocks) {
+                writer.add(block.patientId, block.typeCode, block.firstTimestamp, block.lastTimestamp, block.words);
+            }
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Streams blocks into a new segment file. Blocks must be added grouped by
+     * patient in ascending patient ID order, and within a series in ascending
+     * time order. The file is written to a temporary sibling and moved into
+     * place by {@link #finish}; closing an unfinished writer deletes it.
+     */
+    static final class Writer implements Closeable {
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private final Map<Integer, Integer> typeIndexes = new HashMap<>();
+        private final List<String> typeNames = new ArrayList<>();
+        private int[] patientIds = new int[64];
+        private int[] typeIndexOf = new int[64];
+        private long[] firstTimestamps = new long[64];
+        private long[] lastTimestamps = new long[64];
+        private long[] offsets = new long[64];
+        private int[] wordCounts = new int[64];
+        private int blocks;
+        private long position = HEADER_BYTES;
+        private boolean finished;
+
+        Writer(Path path) throws IOException {
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        /**
+         * Appends a block held on the heap.
+         */
+        void add(int patientId, int typeCode, long firstTimestamp, long lastTimestamp, long[] words)
+                throws IOException {
+            addEntry(patientId, typeCode, firstTimestamp, lastTimestamp, words.length);
+            for (long word : words) {
+                if (buffer.remaining() < 8) {
+                    drain();
+                }
+                buffer.putLong(word);
+            }
+        }
+
+        /**
+         * Appends a block of another segment, copying its bytes straight from
+         * that segment's mapping.
+         */
+        void copy(ColdSegment source, int entry) throws IOException {
+            addEntry(source.patientIds[entry], source.typeCodes[entry], source.firstTimestamps[entry],
+                    source.lastTimestamps[entry], source.wordCounts[entry]);
+            ByteBuffer bytes = source.bytes(entry);
+            while (bytes.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(bytes.remaining(), buffer.remaining());
+                ByteBuffer part = bytes.duplicate();
+                part.limit(part.position() + n);
+                buffer.put(part);
+                bytes.position(bytes.position() + n);
+            }
+        }
+
+        private void addEntry(int patientId, int typeCode, long firstTimestamp, long lastTimestamp, int words) {
+            if (blocks == patientIds.length) {
+                int grown = blocks * 2;
+                patientIds = Arrays.copyOf(patientIds, grown);
+                typeIndexOf = Arrays.copyOf(typeIndexOf, grown);
+                firstTimestamps = Arrays.copyOf(firstTimestamps, grown);
+                lastTimestamps = Arrays.copyOf(lastTimestamps, grown);
+                offsets = Arrays.copyOf(offsets, grown);
+                wordCounts = Arrays.copyOf(wordCounts, grown);
+            }
+            patientIds[blocks] = patientId;
+            typeIndexOf[blocks] = typeIndexes.computeIfAbsent(typeCode, code -> {
+                typeNames.add(SignalCatalog.name(code));
+                return typeNames.size() - 1;
+            });
+            firstTimestamps[blocks] = firstTimestamp;
+            lastTimestamps[blocks] = lastTimestamp;
+            offsets[blocks] = position;
+            wordCounts[blocks] = words;
+            blocks++;
+            position += 8L * words;
+        }
+
+        /**
+         * Writes the index, forces the file, moves it into place and opens it.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        ColdSegment finish() throws IOException {
+            long indexOffset = position;
+            ensureRoom(4);
+            buffer.putInt(typeNames.size());
+            for (String name : typeNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                ensureRoom(2 + bytes.length);
+                buffer.putShort((short) bytes.length).put(bytes);
+            }
+            ensureRoom(4);
+            buffer.putInt(blocks);
+            for (int i = 0; i < blocks; i++) {
+                ensureRoom(INDEX_ENTRY_BYTES);
+                buffer.putInt(patientIds[i]).putInt(typeIndexOf[i]).putLong(firstTimestamps[i])
+                        .putLong(lastTimestamps[i]).putLong(offsets[i]).putInt(wordCounts[i]);
+            }
+            ensureRoom(FOOTER_BYTES);
+            buffer.putLong(indexOffset).putInt(MAGIC);
+            drain();
+            channel.force(true);
+            channel.close();
+            finished = true;
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return open(path);
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Maps a segment file and loads its index.
+     *
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    static ColdSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+            if (size < HEADER_BYTES + FOOTER_BYTES || !readFully(channel, header, 0)
+                    || !readFully(channel, footer, size - FOOTER_BYTES) || header.getInt(0) != MAGIC
+                    || header.getInt(4) != VERSION || footer.getInt(8) != MAGIC) {
+                throw new IOException("Not a segment file: " + path);
+            }
+            long indexOffset = footer.getLong(0);
+            if (indexOffset < HEADER_BYTES || indexOffset > size - FOOTER_BYTES) {
+                throw new IOException("Corrupt segment file: " + path);
+            }
+            channel.position(indexOffset);
+            DataInputStream index = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            int typeCount = index.readInt();
+            if (typeCount < 0 || typeCount > size - indexOffset) {
+                throw new IOException("Corrupt segment file: " + path);
+            }
+            int[] codes = new int[typeCount];
+            for (int i = 0; i < codes.length; i++) {
+                byte[] name = new byte[index.readUnsignedShort()];
+                index.readFully(name);
+                codes[i] = SignalCatalog.code(new String(name, StandardCharsets.UTF_8));
+            }
+            int blocks = index.readInt();
+            if (blocks < 0 || (long) blocks * INDEX_ENTRY_BYTES > size - indexOffset) {
+                throw new IOException("Corrupt segment file: " + path);
+            }
+            int[] patientIds = new int[blocks];
+            int[] typeCodes = new int[blocks];
+            long[] firstTimestamps = new long[blocks];
+            long[] lastTimestamps = new long[blocks];
+            long[] offsets = new long[blocks];
+            int[] wordCounts = new int[blocks];
+            long largestBlock = 0;
+            for (int i = 0; i < blocks; i++) {
+                patientIds[i] = index.readInt();
+                typeCodes[i] = codes[index.readInt()];
+                firstTimestamps[i] = index.readLong();
+                lastTimestamps[i] = index.readLong();
+                offsets[i] = index.readLong();
+                wordCounts[i] = index.readInt();
+                long bytes = 8L * wordCounts[i];
+                if (offsets[i] < HEADER_BYTES || bytes < 0 || offsets[i] + bytes > indexOffset) {
+                    throw new IOException("Corrupt segment file: " + path);
+                }
+                largestBlock = Math.max(largestBlock, bytes);
+            }
+            MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((indexOffset + WINDOW_BYTES - 1) / WINDOW_BYTES)];
+            for (int w = 0; w < windows.length; w++) {
+                long start = w * WINDOW_BYTES;
+                long end = Math.min(indexOffset, start + WINDOW_BYTES + largestBlock);
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            return new ColdSegment(path, size, windows, patientIds, typeCodes, firstTimestamps, lastTimestamps,
+                    offsets, wordCounts);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt segment file: " + path, e);
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the size of the segment file in bytes
+     */
+    long byteSize() {
+        return byteSize;
+    }
+
+    int blockCount() {
+        return patientIds.length;
+    }
+
+    int patientId(int entry) {
+        return patientIds[entry];
+    }
+
+    int typeCode(int entry) {
+        return typeCodes[entry];
+    }
+
+    long firstTimestamp(int entry) {
+        return firstTimestamps[entry];
+    }
+
+    long lastTimestamp(int entry) {
+        return lastTimestamps[entry];
+    }
+
+    /**
+     * Adds the blocks of a patient that overlap {@code [startTime, endTime]} to
+     * {@code out}.
+     *
+     * @param typeCode the record type, or {@link SignalCatalog#UNKNOWN} for all
+     */
+    void find(int patientId, int typeCode, long startTime, long endTime, List<Block> out) {
+        for (int i = firstEntry(patientId); i < patientIds.length && patientIds[i] == patientId; i++) {
+            if ((typeCode == SignalCatalog.UNKNOWN || typeCodes[i] == typeCode)
+                    && lastTimestamps[i] >= startTime && firstTimestamps[i] <= endTime) {
+                out.add(block(i));
+            }
+        }
+    }
+
+    /**
+     * Reads one block onto the heap.
+     */
+    Block block(int entry) {
+        long[] words = new long[wordCounts[entry]];
+        bytes(entry).asLongBuffer().get(words);
+        return new Block(patientIds[entry], typeCodes[entry], firstTimestamps[entry], lastTimestamps[entry], words);
+    }
+
+    /**
+     * @return a view of the mapped bytes of one block
+     */
+    private ByteBuffer bytes(int entry) {
+        int window = (int) (offsets[entry] / WINDOW_BYTES);
+        int start = (int) (offsets[entry] - window * WINDOW_BYTES);
+        ByteBuffer view = windows[window].duplicate();
+        view.limit(start + 8 * wordCounts[entry]).position(start);
+        return view;
+    }
+
+    /**
+     * Finds the first index entry of a patient. Entries are not searched by
+     * type, because the type order depends on the codes of the writing JVM.
+     */
+    private int firstEntry(int patientId) {
+        int low = 0;
+        int high = patientIds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (patientIds[mid] < patientId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
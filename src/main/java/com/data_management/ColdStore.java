@@ -0,0 +1,478 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold storage tier below the in-memory series.
+ * <p>
+ * Series move sealed chunks older than the hot window here with
+ * {@link #spill}. Spilled chunks first join an in-memory pending list and are
+ * then written, still encoded, to an immutable {@link ColdSegment} file by a
+ * background thread. Each flush creates a new segment.
+ * <p>
+ * Compaction is size-tiered: segments fall into tiers that grow by a factor of
+ * {@link #COMPACTION_THRESHOLD}, and once that many segments share a tier they
+ * are merged into one segment of the next tier. A sample is therefore
+ * rewritten once per tier, a logarithmic number of times, instead of on every
+ * compaction, and segments of {@link #MAX_COMPACTED_BYTES} are left alone.
+ * Merging also combines series whose late samples were spilled in several
+ * pieces. It streams one patient at a time from the mapped inputs to the new
+ * file: blocks are copied as they are unless they overlap another block of
+ * their series.
+ * <p>
+ * Reads see pending chunks and segments alike, so a chunk is visible in
+ * exactly one tier at any time: the series until it spills, then here. The
+ * segment list is replaced, never modified, so readers decode segments
+ * without holding the store lock.
+ */
+final class ColdStore implements Closeable {
+    /** Pending chunks that trigger a flush. */
+    static final int FLUSH_BLOCKS = 256;
+    /** Segments of one size tier that trigger a compaction. */
+    static final int COMPACTION_THRESHOLD = 4;
+    /** Segments below this size form the smallest size tier. */
+    static final long TIER_BASE_BYTES = 1L << 20;
+    /** Segments this large are never compacted again. */
+    static final long MAX_COMPACTED_BYTES = 1L << 30;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long hotMillis;
+    private final ScheduledExecutorService maintenance;
+    private final List<ColdSegment.Block> pending = new ArrayList<>(); // guarded by this
+    private volatile List<ColdSegment> segments;
+    private long nextSequence; // touched by the maintenance thread only
+    // compaction merge buffers, reused across runs; touched by the maintenance thread only
+    private long[] mergeTimestamps = new long[0];
+    private double[] mergeValues = new double[0];
+    private long[] scratchTimestamps = new long[0];
+    private double[] scratchValues = new double[0];
+    private final long[] chunkTimestamps = new long[SeriesChunk.CAPACITY];
+    private final double[] chunkValues = new double[SeriesChunk.CAPACITY];
+    private boolean flushScheduled; // guarded by this
+
+    /**
+     * Opens the store, loading any segments already in {@code directory}.
+     *
+     * @param directory the segment directory, created if missing
+     * @param hotMillis how far behind its newest sample a chunk of a series
+     *                  must end before it moves to this tier
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    ColdStore(Path directory, long hotMillis) throws IOException {
+        if (hotMillis <= 0) {
+            throw new IllegalArgumentException("Hot window must be positive: " + hotMillis);
+        }
+        this.directory = directory;
+        this.hotMillis = hotMillis;
+        Files.createDirectories(directory);
+        List<ColdSegment> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*" + SUFFIX)) {
+            for (Path file : files) {
+                loaded.add(ColdSegment.open(file));
+                nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+            }
+        }
+        this.segments = List.copyOf(loaded);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cold-storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    long getHotMillis() {
+        return hotMillis;
+    }
+
+    /**
+     * Takes over a sealed chunk that a series no longer keeps in memory.
+     */
+    void spill(int patientId, int typeCode, SeriesChunk chunk) {
+        ColdSegment.Block block = new ColdSegment.Block(patientId, typeCode, chunk.firstTimestamp(),
+                chunk.lastTimestamp(), chunk.encoded());
+        synchronized (this) {
+            pending.add(block);
+            if (pending.size() >= FLUSH_BLOCKS && !flushScheduled) {
+                flushScheduled = true;
+                maintenance.execute(this::maintain);
+            }
+        }
+    }
+
+    /**
+     * Adds the samples of a patient in {@code [startTime, endTime]} to
+     * {@code out}. Records are grouped by block; callers sort the result.
+     *
+     * @param typeCode the record type, or {@link SignalCatalog#UNKNOWN} for all
+     */
+    void collect(int patientId, int typeCode, long startTime, long endTime, List<PatientRecord> out) {
+        List<ColdSegment.Block> blocks = new ArrayList<>();
+        List<ColdSegment> current;
+        synchronized (this) {
+            // read both under the lock, since a flush moves blocks from one to the other
+            current = segments;
+            for (ColdSegment.Block block : pending) {
+                if (block.patientId == patientId && (typeCode == SignalCatalog.UNKNOWN || block.typeCode == typeCode)
+                        && block.lastTimestamp >= startTime && block.firstTimestamp <= endTime) {
+                    blocks.add(block);
+                }
+            }
+        }
+        for (ColdSegment segment : current) {
+            segment.find(patientId, typeCode, startTime, endTime, blocks);
+        }
+        ChunkCodec.Decoder decoder = new ChunkCodec.Decoder();
+        for (ColdSegment.Block block : blocks) {
+            decoder.reset(block.words);
+            while (decoder.next()) {
+                long timestamp = decoder.timestamp();
+                if (timestamp > endTime) {
+                    break;
+                }
+                if (timestamp >= startTime) {
+                    out.add(new PatientRecord(patientId, decoder.value(), block.typeCode, timestamp));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Writes pending chunks to a segment and compacts if needed, waiting for
+     * the work to finish.
+     *
+     * @throws IOException if a segment cannot be written
+     */
+    void flush() throws IOException {
+        try {
+            maintenance.submit(() -> {
+                flushPending();
+                compactIfNeeded();
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing cold storage", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cold storage flush failed", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes pending chunks and stops the background thread.
+     *
+     * @throws IOException if the final flush fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            maintenance.shutdown();
+        }
+    }
+
+    private void maintain() {
+        try {
+            flushPending();
+            compactIfNeeded();
+        } catch (IOException e) {
+            // pending chunks stay in memory and readable; the next run retries
+            System.err.println("Error writing cold storage segment: " + e.getMessage());
+        }
+    }
+
+    private void flushPending() throws IOException {
+        List<ColdSegment.Block> blocks;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            blocks = new ArrayList<>(pending);
+        }
+        blocks.sort(ColdSegment.Block.ORDER);
+        ColdSegment segment = ColdSegment.write(nextPath(), blocks);
+        synchronized (this) {
+            List<ColdSegment> grown = new ArrayList<>(segments);
+            grown.add(segment);
+            segments = List.copyOf(grown);
+            // spills only append, so the written blocks are still the head of the list
+            pending.subList(0, blocks.size()).clear();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        List<ColdSegment> inputs;
+        while ((inputs = pickCompaction(segments)) != null) {
+            ColdSegment merged = compact(inputs);
+            synchronized (this) {
+                List<ColdSegment> remaining = new ArrayList<>(segments);
+                int at = remaining.indexOf(inputs.get(0)); // keep older segments first
+                remaining.removeAll(inputs);
+                remaining.add(at, merged);
+                segments = List.copyOf(remaining);
+            }
+            for (ColdSegment segment : inputs) {
+                try {
+                    // open mappings of concurrent readers stay valid after the unlink
+                    Files.deleteIfExists(segment.getPath());
+                } catch (IOException e) {
+                    System.err.println("Error deleting compacted segment " + segment.getPath() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the oldest {@link #COMPACTION_THRESHOLD} segments of the smallest
+     * size tier that has that many, skipping segments of
+     * {@link #MAX_COMPACTED_BYTES} or more.
+     *
+     * @return the segments to merge, in list order, or null if none are due
+     */
+    private static List<ColdSegment> pickCompaction(List<ColdSegment> current) {
+        int tiers = 64;
+        int[] counts = new int[tiers];
+        int due = tiers;
+        for (ColdSegment segment : current) {
+            if (segment.byteSize() < MAX_COMPACTED_BYTES && ++counts[tier(segment)] == COMPACTION_THRESHOLD) {
+                due = Math.min(due, tier(segment));
+            }
+        }
+        if (due == tiers) {
+            return null;
+        }
+        List<ColdSegment> inputs = new ArrayList<>(COMPACTION_THRESHOLD);
+        for (ColdSegment segment : current) {
+            if (inputs.size() < COMPACTION_THRESHOLD && segment.byteSize() < MAX_COMPACTED_BYTES
+                    && tier(segment) == due) {
+                inputs.add(segment);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the size tier of a segment: 0 below {@link #TIER_BASE_BYTES},
+     *         then one tier per factor of {@link #COMPACTION_THRESHOLD}
+     */
+    private static int tier(ColdSegment segment) {
+        long units = segment.byteSize() / TIER_BASE_BYTES;
+        int tier = 0;
+        while (units > 0) {
+            units /= COMPACTION_THRESHOLD;
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Merges segments into a new one, one patient at a time. Only the index
+     * entries of the current patient are held on the heap; blocks that overlap
+     * no other block of their series are copied from the mapped inputs, and
+     * only runs of overlapping blocks are decoded and re-encoded.
+     */
+    private ColdSegment compact(List<ColdSegment> inputs) throws IOException {
+        try (ColdSegment.Writer out = new ColdSegment.Writer(nextPath())) {
+            int[] next = new int[inputs.size()]; // the first unread entry of each input
+            List<EntryRef> entries = new ArrayList<>();
+            while (true) {
+                int patientId = Integer.MAX_VALUE;
+                boolean any = false;
+                for (int s = 0; s < inputs.size(); s++) {
+                    if (next[s] < inputs.get(s).blockCount()) {
+                        patientId = Math.min(patientId, inputs.get(s).patientId(next[s]));
+                        any = true;
+                    }
+                }
+                if (!any) {
+                    return out.finish();
+                }
+                entries.clear();
+                for (int s = 0; s < inputs.size(); s++) {
+                    ColdSegment segment = inputs.get(s);
+                    for (; next[s] < segment.blockCount() && segment.patientId(next[s]) == patientId; next[s]++) {
+                        entries.add(new EntryRef(segment, s, next[s]));
+                    }
+                }
+                entries.sort(EntryRef.ORDER); // older segments stay first on ties
+                mergePatient(entries, out);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks of one patient, sorted by {@link EntryRef#ORDER}.
+     * Blocks that overlap nothing are copied as they are; runs of overlapping
+     * blocks of a series are re-encoded into sorted, non-overlapping blocks of
+     * up to {@link SeriesChunk#CAPACITY} samples.
+     */
+    private void mergePatient(List<EntryRef> sorted, ColdSegment.Writer out) throws IOException {
+        int i = 0;
+        while (i < sorted.size()) {
+            EntryRef first = sorted.get(i);
+            int end = i + 1;
+            long lastTimestamp = first.lastTimestamp();
+            while (end < sorted.size() && sorted.get(end).typeCode() == first.typeCode()
+                    && sorted.get(end).firstTimestamp() <= lastTimestamp) {
+                lastTimestamp = Math.max(lastTimestamp, sorted.get(end).lastTimestamp());
+                end++;
+            }
+            if (end == i + 1) {
+                out.copy(first.segment, first.entry);
+            } else {
+                rewrite(sorted.subList(i, end), out);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Decodes a run of overlapping blocks into the reused merge arrays, merges
+     * the blocks' sorted runs stably by timestamp and writes the result back in
+     * blocks of up to {@link SeriesChunk#CAPACITY} samples.
+     */
+    private void rewrite(List<EntryRef> run, ColdSegment.Writer out) throws IOException {
+        int[] bounds = new int[run.size() + 1];
+        int total = 0;
+        for (int b = 0; b < run.size(); b++) {
+            long[] words = run.get(b).block().words;
+            ensureMergeCapacity(total + ChunkCodec.count(words));
+            total += ChunkCodec.decode(words, mergeTimestamps, mergeValues, total);
+            bounds[b + 1] = total;
+        }
+        // bottom-up merge of adjacent sorted runs; taking the left run on ties keeps it stable
+        for (int runs = run.size(); runs > 1; runs = (runs + 1) / 2) {
+            int merged = 0;
+            for (int r = 0; r < runs; r += 2) {
+                int from = bounds[r];
+                int middle = bounds[Math.min(r + 1, runs)];
+                int to = bounds[Math.min(r + 2, runs)];
+                mergeRuns(from, middle, to);
+                bounds[++merged] = to;
+            }
+            long[] timestamps = mergeTimestamps;
+            mergeTimestamps = scratchTimestamps;
+            scratchTimestamps = timestamps;
+            double[] values = mergeValues;
+            mergeValues = scratchValues;
+            scratchValues = values;
+        }
+        EntryRef first = run.get(0);
+        for (int from = 0; from < total; from += SeriesChunk.CAPACITY) {
+            int length = Math.min(SeriesChunk.CAPACITY, total - from);
+            System.arraycopy(mergeTimestamps, from, chunkTimestamps, 0, length);
+            System.arraycopy(mergeValues, from, chunkValues, 0, length);
+            out.add(first.patientId(), first.typeCode(), chunkTimestamps[0], chunkTimestamps[length - 1],
+                    ChunkCodec.encode(chunkTimestamps, chunkValues, length));
+        }
+    }
+
+    /**
+     * Merges the sorted runs {@code [from, middle)} and {@code [middle, to)} of
+     * the merge arrays into the same range of the scratch arrays.
+     */
+    private void mergeRuns(int from, int middle, int to) {
+        int left = from;
+        int right = middle;
+        for (int k = from; k < to; k++) {
+            if (right >= to || (left < middle && mergeTimestamps[left] <= mergeTimestamps[right])) {
+                scratchTimestamps[k] = mergeTimestamps[left];
+                scratchValues[k] = mergeValues[left++];
+            } else {
+                scratchTimestamps[k] = mergeTimestamps[right];
+                scratchValues[k] = mergeValues[right++];
+            }
+        }
+    }
+
+    private void ensureMergeCapacity(int samples) {
+        if (samples > mergeTimestamps.length) {
+            int capacity = Math.max(samples, mergeTimestamps.length * 2);
+            mergeTimestamps = Arrays.copyOf(mergeTimestamps, capacity);
+            mergeValues = Arrays.copyOf(mergeValues, capacity);
+            scratchTimestamps = new long[capacity];
+            scratchValues = new double[capacity];
+        }
+    }
+
+    /**
+     * An index entry of a compaction input.
+     */
+    private static final class EntryRef {
+        static final Comparator<EntryRef> ORDER = Comparator.comparingInt(EntryRef::typeCode)
+                .thenComparingLong(EntryRef::firstTimestamp)
+                .thenComparingInt(ref -> ref.input)
+                .thenComparingInt(ref -> ref.entry);
+
+        final ColdSegment segment;
+        final int input;
+        final int entry;
+
+        EntryRef(ColdSegment segment, int input, int entry) {
+            this.segment = segment;
+            this.input = input;
+            this.entry = entry;
+        }
+
+        int patientId() {
+            return segment.patientId(entry);
+        }
+
+        int typeCode() {
+            return segment.typeCode(entry);
+        }
+
+        long firstTimestamp() {
+            return segment.firstTimestamp(entry);
+        }
+
+        long lastTimestamp() {
+            return segment.lastTimestamp(entry);
+        }
+
+        ColdSegment.Block block() {
+            return segment.block(entry);
+        }
+    }
+
+    private Path nextPath() {
+        return directory.resolve(String.format("segment-%08d%s", nextSequence++, SUFFIX));
+    }
+
+    private static long sequenceOf(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring("segment-".length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected segment file name: " + name, e);
+        }
+    }
+}
@@ -1,9 +1,22 @@
 package com.data_management;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import com.alerts.AlertGenerator;
 
 /**
@@ -11,17 +24,43 @@ import com.alerts.AlertGenerator;
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
+ * <p>
+ * DataStorage is safe for concurrent use. Patients are looked up without
+ * locking; writes lock only the patient being written, so readers such as the
+ * WebSocket clients, {@link FileDataReader} and {@link AlertGenerator} can
+ * ingest and query different patients in parallel.
+ * <p>
+ * Ingested records can additionally be written to a {@link WriteAheadLog} so
+ * that the storage survives a restart; see {@link #enableWriteAheadLog}. For
+ * faster restarts the whole storage can be checkpointed to a binary snapshot
+ * with {@link #writeSnapshot} and restored with {@link #loadSnapshot}.
+ * <p>
+ * Streams that deliver samples out of order, such as WebSocket feeds with
+ * network jitter or several files read in turn, can be routed through a
+ * reorder buffer with {@link #enableReorderBuffer}; samples then reach the
+ * patient series in timestamp order up to a per-patient watermark. For
+ * ingest-heavy deployments {@link #enableSharding} partitions patients across
+ * single-writer shard threads.
+ * <p>
+ * Consumers that react to new data can {@link #subscribe} to appended records
+ * instead of polling.
  */
 public class DataStorage {
     private static DataStorage instance;
-    private Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
+    private final StorageOptions options;
+    private final PatientRegistry patients; // Stores patient objects indexed by their unique patient ID.
+    private volatile WriteAheadLog writeAheadLog;
+    private volatile ReorderBuffer reorderBuffer;
+    private volatile ShardedIngest shards;
+    private long snapshotCheckpoint = StorageSnapshot.NO_CHECKPOINT; // of the last loaded snapshot
 
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
      * structure.
      */
     public DataStorage() {
-        this.patientMap = new HashMap<>();
+        this.options = new StorageOptions();
+        this.patients = new PatientRegistry(options);
     }
 
     /**
@@ -53,12 +92,462 @@ public class DataStorage {
      *                         milliseconds since the Unix epoch
      */
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        Patient patient = patientMap.get(patientId);
-        if (patient == null) {
-            patient = new Patient(patientId);
-            patientMap.put(patientId, patient);
+        addPatientData(patientId, measurementValue, SignalCatalog.code(recordType), timestamp);
+    }
+
+    /**
+     * Adds patient data whose record type has already been resolved to a
+     * {@link SignalCatalog} code, as readers do at parse time.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param typeCode         the record type code
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since the Unix epoch
+     * @throws IllegalArgumentException if {@code typeCode} is not assigned in
+     *                                  the {@link SignalCatalog}
+     */
+    public void addPatientData(int patientId, double measurementValue, int typeCode, long timestamp) {
+        checkTypeCode(typeCode);
+        ShardedIngest sharded = shards;
+        if (sharded != null) {
+            sharded.add(patientId, measurementValue, typeCode, timestamp);
+        } else {
+            store(patientId, measurementValue, typeCode, timestamp);
+        }
+        // logged after storing, so every logged record is stored or queued;
+        // snapshot checkpoints rely on this
+        WriteAheadLog wal = writeAheadLog;
+        if (wal != null) {
+            wal.append(patientId, measurementValue, typeCode, timestamp);
+        }
+    }
+
+    private static void checkTypeCode(int typeCode) {
+        if (!SignalCatalog.isAssigned(typeCode)) {
+            throw new IllegalArgumentException("Unknown record type code: " + typeCode);
+        }
+    }
+
+    private void store(int patientId, double measurementValue, int typeCode, long timestamp) {
+        ReorderBuffer buffer = reorderBuffer;
+        if (buffer != null) {
+            buffer.add(patientId, measurementValue, typeCode, timestamp);
+        } else {
+            patients.getOrCreate(patientId).addRecord(measurementValue, typeCode, timestamp);
+        }
+    }
+
+    /**
+     * Adds a batch of records held in parallel primitive arrays, as produced by
+     * readers that parse many lines at a time. The effect is the same as calling
+     * {@link #addPatientData(int, double, int, long)} for each record in order,
+     * but the batch is grouped by patient so that each patient is looked up and
+     * locked once, and runs of one record type are appended in bulk. With
+     * sharding or a reorder buffer enabled the records take the per-record path.
+     *
+     * @param patientIds the patient of each record
+     * @param timestamps the timestamp of each record, in milliseconds since the
+     *                   Unix epoch
+     * @param typeCodes  the {@link SignalCatalog} code of each record's type
+     * @param values     the measurement value of each record
+     * @param count      the number of records, read from the start of each array
+     * @throws IllegalArgumentException if {@code count} is negative or exceeds
+     *                                  the length of an array, or a type code is
+     *                                  not assigned in the {@link SignalCatalog};
+     *                                  nothing is stored or logged then
+     */
+    public void addPatientDataBatch(int[] patientIds, long[] timestamps, int[] typeCodes, double[] values,
+            int count) {
+        if (count < 0 || count > patientIds.length || count > timestamps.length || count > typeCodes.length
+                || count > values.length) {
+            throw new IllegalArgumentException("Batch of " + count + " records exceeds its arrays");
+        }
+        for (int i = 0; i < count; i++) {
+            checkTypeCode(typeCodes[i]);
+        }
+        ShardedIngest sharded = shards;
+        if (sharded != null || reorderBuffer != null) {
+            for (int i = 0; i < count; i++) {
+                if (sharded != null) {
+                    sharded.add(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+                } else {
+                    store(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+                }
+            }
+        } else {
+            storeGrouped(patientIds, timestamps, typeCodes, values, count);
+        }
+        WriteAheadLog wal = writeAheadLog;
+        if (wal != null) {
+            for (int i = 0; i < count; i++) {
+                wal.append(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+            }
+        }
+    }
+
+    private void storeGrouped(int[] patientIds, long[] timestamps, int[] typeCodes, double[] values, int count) {
+        // group by patient in batch order: number patients by first appearance
+        // through a linear-probing table, then counting-sort the records
+        int capacity = Integer.highestOneBit(Math.max(count, 1)) << 2;
+        int[] tableIds = new int[capacity];
+        int[] tableGroups = new int[capacity]; // group + 1, or 0 if the slot is free
+        int[] groupOf = new int[count];
+        int[] groupStarts = new int[count + 1];
+        int groups = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (patientIds[i] * 0x9E3779B9) & (capacity - 1);
+            while (tableGroups[slot] != 0 && tableIds[slot] != patientIds[i]) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (tableGroups[slot] == 0) {
+                tableIds[slot] = patientIds[i];
+                tableGroups[slot] = ++groups;
+            }
+            groupOf[i] = tableGroups[slot] - 1;
+            groupStarts[groupOf[i] + 1]++;
+        }
+        for (int group = 0; group < groups; group++) {
+            groupStarts[group + 1] += groupStarts[group];
+        }
+        int[] next = Arrays.copyOf(groupStarts, groups);
+        int[] runTypes = new int[count];
+        long[] runTimestamps = new long[count];
+        double[] runValues = new double[count];
+        int[] runPatients = new int[groups];
+        for (int i = 0; i < count; i++) {
+            int slot = next[groupOf[i]]++;
+            runTypes[slot] = typeCodes[i];
+            runTimestamps[slot] = timestamps[i];
+            runValues[slot] = values[i];
+            runPatients[groupOf[i]] = patientIds[i];
+        }
+        for (int group = 0; group < groups; group++) {
+            patients.getOrCreate(runPatients[group]).addRecords(runTypes, runTimestamps, runValues,
+                    groupStarts[group], groupStarts[group + 1]);
+        }
+    }
+
+    /**
+     * Switches {@link #addPatientData} to partitioned ingest. Patients are
+     * hashed to {@code shardCount} shards, each drained by its own writer
+     * thread, so a patient is only ever written by one thread and producers
+     * never wait on a patient lock. {@code addPatientData} then returns once
+     * the record is queued; call {@link #awaitIngest} before reading records
+     * that must be visible. Write-ahead logging happens on the calling thread
+     * as before.
+     *
+     * @param shardCount the number of shards and writer threads, typically the
+     *                   number of cores
+     * @throws IllegalArgumentException if {@code shardCount} is not positive
+     * @throws IllegalStateException    if sharding is already enabled
+     */
+    public synchronized void enableSharding(int shardCount) {
+        if (shards != null) {
+            throw new IllegalStateException("Sharding is already enabled");
+        }
+        shards = new ShardedIngest(shardCount, ShardedIngest.DEFAULT_QUEUE_CAPACITY, this::store);
+    }
+
+    /**
+     * Waits until every record queued by {@link #addPatientData} before the call
+     * has been written to its shard. Returns at once if sharding is not enabled.
+     */
+    public void awaitIngest() {
+        ShardedIngest sharded = shards;
+        if (sharded != null) {
+            sharded.awaitDrained();
+        }
+    }
+
+    /**
+     * Writes every queued record and stops the shard writer threads. Records
+     * added afterwards are written directly by the calling thread. Producers
+     * must have stopped adding records before this is called.
+     *
+     * @throws InterruptedException if interrupted while a writer finishes
+     */
+    public synchronized void disableSharding() throws InterruptedException {
+        ShardedIngest sharded = shards;
+        shards = null;
+        if (sharded != null) {
+            sharded.close();
+        }
+    }
+
+    /**
+     * Routes records added through {@link #addPatientData} through a reorder
+     * buffer. A record is held back until the patient's watermark, the newest
+     * timestamp seen for the patient minus {@code latenessMillis}, passes it,
+     * and is then appended in timestamp order. A record that arrives at or
+     * behind the watermark is late and is merged into the stored series
+     * directly, which is slower. Records still held back are not returned by
+     * queries; see {@link #flushReorderBuffer} and {@link #advanceWatermarks}.
+     * Records are written to the write-ahead log when they arrive.
+     * <p>
+     * {@link #addPatientDataRealTime} is not buffered, since its duplicate check
+     * must see every accepted record.
+     *
+     * @param latenessMillis how late a record may arrive and still be appended
+     *                       in order
+     * @throws IllegalArgumentException if {@code latenessMillis} is negative
+     * @throws IllegalStateException    if a reorder buffer is already enabled
+     */
+    public synchronized void enableReorderBuffer(long latenessMillis) {
+        if (reorderBuffer != null) {
+            throw new IllegalStateException("A reorder buffer is already enabled");
+        }
+        reorderBuffer = new ReorderBuffer(patients, latenessMillis);
+    }
+
+    /**
+     * Releases every record held in the reorder buffer into storage, for
+     * example once a file import is complete. Does nothing if no buffer is
+     * enabled.
+     */
+    public void flushReorderBuffer() {
+        ReorderBuffer buffer = reorderBuffer;
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    /**
+     * Advances every patient's watermark to at least
+     * {@code eventTime - latenessMillis}, so records of patients that have
+     * stopped sending do not wait in the reorder buffer indefinitely. Does
+     * nothing if no buffer is enabled.
+     *
+     * @param eventTime the current time in milliseconds since the Unix epoch
+     */
+    public void advanceWatermarks(long eventTime) {
+        ReorderBuffer buffer = reorderBuffer;
+        if (buffer != null) {
+            buffer.advance(eventTime);
+        }
+    }
+
+    /**
+     * @param patientId the unique identifier of the patient
+     * @return the timestamp up to which the patient's records are in storage
+     *         and in order, or {@code Long.MAX_VALUE} if no reorder buffer is
+     *         enabled, since records then go straight to storage
+     */
+    public long getWatermark(int patientId) {
+        ReorderBuffer buffer = reorderBuffer;
+        return buffer != null ? buffer.watermark(patientId) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of records that arrived behind their patient's
+     *         watermark and were merged on the late path
+     */
+    public long getLateRecordCount() {
+        ReorderBuffer buffer = reorderBuffer;
+        return buffer != null ? buffer.lateSamples() : 0;
+    }
+
+    /**
+     * Opens a write-ahead log at {@code path} with the default batch size and
+     * flush interval. See
+     * {@link #enableWriteAheadLog(Path, WriteAheadLog.SyncMode, int, long)}.
+     *
+     * @param path     the log file, created if it does not exist
+     * @param syncMode when written batches are forced to disk
+     * @throws IOException if the log cannot be opened or replayed
+     */
+    public void enableWriteAheadLog(Path path, WriteAheadLog.SyncMode syncMode) throws IOException {
+        enableWriteAheadLog(path, syncMode, WriteAheadLog.DEFAULT_BATCH_BYTES,
+                WriteAheadLog.DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens a write-ahead log at {@code path}, first replaying every record it
+     * already holds into this storage, and logs every record added afterwards.
+     * Records are written in batches of up to {@code batchBytes} bytes, and no
+     * record waits longer than {@code flushIntervalMillis} before being written.
+     * <p>
+     * If a snapshot written while this log was enabled has been loaded, replay
+     * starts at the snapshot's checkpoint instead of the beginning of the log,
+     * and records that the snapshot already holds are skipped as duplicates.
+     *
+     * @param path                the log file, created if it does not exist
+     * @param syncMode            when written batches are forced to disk
+     * @param batchBytes          the batch size that triggers an immediate write
+     * @param flushIntervalMillis the maximum delay before a batch is written
+     * @throws IOException if the log cannot be opened or replayed, or ends
+     *                     before the checkpoint of the loaded snapshot
+     * @throws IllegalStateException if a log is already enabled
+     */
+    public synchronized void enableWriteAheadLog(Path path, WriteAheadLog.SyncMode syncMode, int batchBytes,
+            long flushIntervalMillis) throws IOException {
+        if (writeAheadLog != null) {
+            throw new IllegalStateException("A write-ahead log is already enabled");
+        }
+        if (snapshotCheckpoint == StorageSnapshot.NO_CHECKPOINT) {
+            writeAheadLog = new WriteAheadLog(path, syncMode, batchBytes, flushIntervalMillis, 0,
+                    (patientId, value, typeCode, timestamp) ->
+                            patients.getOrCreate(patientId).addRecord(value, typeCode, timestamp));
+        } else {
+            // the log tail overlaps the snapshot by the records added while it was copied
+            writeAheadLog = new WriteAheadLog(path, syncMode, batchBytes, flushIntervalMillis, snapshotCheckpoint,
+                    (patientId, value, typeCode, timestamp) ->
+                            patients.getOrCreate(patientId).addRecordIfAbsent(value, typeCode, timestamp));
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of every patient series to {@code path}. Series
+     * are copied without taking patient locks, so ingest continues while the
+     * snapshot is taken; the snapshot is consistent per series. An existing
+     * file is replaced atomically once the new snapshot is complete.
+     * <p>
+     * With a write-ahead log enabled, the log is first forced to disk and its
+     * length recorded in the snapshot as a checkpoint: every record logged
+     * before it is in the snapshot. Queued shard records and records held by
+     * the reorder buffer are stored first to make that hold.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalStateException if cold storage is enabled, since a
+     *                               snapshot holds only the in-memory series
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        checkSnapshotSupported();
+        snapshot(path);
+    }
+
+    /**
+     * Writes a snapshot like {@link #writeSnapshot(Path)} on a background
+     * thread.
+     *
+     * @param path the snapshot file
+     * @return a future completed when the snapshot is on disk, or completed
+     *         exceptionally with an {@link UncheckedIOException} if it failed
+     * @throws IllegalStateException if cold storage is enabled
+     */
+    public CompletableFuture<Void> writeSnapshotAsync(Path path) {
+        checkSnapshotSupported();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Thread writer = new Thread(() -> {
+            try {
+                snapshot(path);
+                done.complete(null);
+            } catch (IOException e) {
+                done.completeExceptionally(new UncheckedIOException(e));
+            }
+        }, "snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+        return done;
+    }
+
+    private void checkSnapshotSupported() {
+        if (options.getColdStore() != null) {
+            throw new IllegalStateException("Snapshots do not cover cold storage; close it first");
+        }
+    }
+
+    private void snapshot(Path path) throws IOException {
+        WriteAheadLog wal = writeAheadLog;
+        long checkpoint = StorageSnapshot.NO_CHECKPOINT;
+        if (wal != null) {
+            checkpoint = wal.checkpoint();
+            awaitIngest();
+            flushReorderBuffer();
+        }
+        StorageSnapshot.write(patients, path, checkpoint);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #writeSnapshot(Path)} into this
+     * storage. Series are restored with bulk array reads from a memory-mapped
+     * file instead of re-parsing text records. Rollups are rebuilt from the
+     * restored samples. A write-ahead log enabled afterwards resumes at the
+     * snapshot's checkpoint; see
+     * {@link #enableWriteAheadLog(Path, WriteAheadLog.SyncMode, int, long)}.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     * @throws IllegalStateException if a write-ahead log is already enabled,
+     *                               whose replayed records the snapshot would
+     *                               duplicate
+     */
+    public synchronized void loadSnapshot(Path path) throws IOException {
+        if (writeAheadLog != null) {
+            throw new IllegalStateException("Load snapshots before enabling the write-ahead log");
+        }
+        long checkpoint = StorageSnapshot.load(path, patients);
+        if (checkpoint != StorageSnapshot.NO_CHECKPOINT) {
+            snapshotCheckpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Adds a cold tier below the in-memory series. From then on, sealed chunks
+     * of 1,024 samples that end more than {@code hotMillis} before the newest
+     * sample of their series move from the heap to immutable segment files in
+     * {@code directory}, written and compacted by a background thread.
+     * {@link #getRecords} merges both tiers transparently, reading segments
+     * through memory mappings; cursors, aggregates and rollups cover the hot
+     * window only. Segments already in the directory are opened, so history
+     * survives a restart.
+     *
+     * @param directory the segment directory, created if missing
+     * @param hotMillis the window of each series kept in memory
+     * @throws IOException if the directory or an existing segment cannot be read
+     * @throws IllegalArgumentException if {@code hotMillis} is not positive
+     * @throws IllegalStateException    if cold storage is already enabled
+     */
+    public synchronized void enableColdStorage(Path directory, long hotMillis) throws IOException {
+        if (options.getColdStore() != null) {
+            throw new IllegalStateException("Cold storage is already enabled");
+        }
+        options.setColdStore(new ColdStore(directory, hotMillis));
+        patients.forEach(Patient::applyColdStore);
+    }
+
+    /**
+     * Writes chunks waiting for the cold tier to a segment file and compacts
+     * the segments if needed. Does nothing if cold storage is not enabled.
+     *
+     * @throws IOException if a segment cannot be written
+     */
+    public void flushColdStorage() throws IOException {
+        ColdStore cold = options.getColdStore();
+        if (cold != null) {
+            cold.flush();
+        }
+    }
+
+    /**
+     * Writes every pending chunk to disk and stops the cold tier's background
+     * thread. Chunks already spilled stay on disk but are no longer queried;
+     * series keep everything in memory again.
+     *
+     * @throws IOException if the final flush fails
+     */
+    public synchronized void closeColdStorage() throws IOException {
+        ColdStore cold = options.getColdStore();
+        if (cold != null) {
+            options.setColdStore(null);
+            patients.forEach(Patient::applyColdStore);
+            cold.close();
+        }
+    }
+
+    /**
+     * Writes any pending records and closes the write-ahead log, if one is
+     * enabled. Records added afterwards are no longer logged.
+     *
+     * @throws IOException if the final write fails
+     */
+    public synchronized void closeWriteAheadLog() throws IOException {
+        WriteAheadLog wal = writeAheadLog;
+        writeAheadLog = null;
+        if (wal != null) {
+            wal.close();
         }
-        patient.addRecord(measurementValue, recordType, timestamp);
     }
 
     /**
@@ -75,50 +564,421 @@ public class DataStorage {
      *         range
      */
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
-        Patient patient = patientMap.get(patientId);
+        Patient patient = patients.get(patientId);
         if (patient == null) {
-            return new ArrayList<>(); // Return an empty list if the patient does not exist
+            return coldRecords(patientId, SignalCatalog.UNKNOWN, startTime, endTime);
         }
         return patient.getRecords(startTime, endTime); // return an empty list if no patient is found
     }
 
+    /**
+     * Retrieves the records of one record type for a specific patient, filtered
+     * by a time range. Other record types of the patient are not read.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g., "BloodOxygen"; matched
+     *                   case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @return the matching records in ascending timestamp order, or an empty list
+     *         if the patient or record type does not exist
+     */
+    public List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime) {
+        return getRecords(patientId, SignalCatalog.lookup(recordType), startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of one record type, given as a {@link SignalCatalog}
+     * code, for a specific patient, filtered by a time range.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeCode  the record type code
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records in ascending timestamp order, or an empty list
+     *         if the patient or record type does not exist
+     */
+    public List<PatientRecord> getRecords(int patientId, int typeCode, long startTime, long endTime) {
+        Patient patient = patients.get(patientId);
+        if (patient == null) {
+            return typeCode == SignalCatalog.UNKNOWN ? new ArrayList<>()
+                    : coldRecords(patientId, typeCode, startTime, endTime);
+        }
+        return patient.getRecords(typeCode, startTime, endTime);
+    }
+
+    /**
+     * Reads a patient that has no samples in memory, for example after a
+     * restart, from the cold tier alone.
+     *
+     * @param typeCode the record type, or {@link SignalCatalog#UNKNOWN} for all
+     */
+    private List<PatientRecord> coldRecords(int patientId, int typeCode, long startTime, long endTime) {
+        List<PatientRecord> records = new ArrayList<>();
+        ColdStore cold = options.getColdStore();
+        if (cold != null) {
+            cold.collect(patientId, typeCode, startTime, endTime, records);
+            records.sort(Comparator.comparingLong(PatientRecord::getTimestamp));
+        }
+        return records;
+    }
+
+    /**
+     * Opens a cursor over the records of one type of a specific patient without
+     * materialising them. See {@link RecordCursor}.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeCode  the {@link SignalCatalog} code of the record type
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param reuse     a cursor to reposition, or null to create one
+     * @return the cursor, empty if the patient does not exist
+     */
+    public RecordCursor cursor(int patientId, int typeCode, long startTime, long endTime, RecordCursor reuse) {
+        RecordCursor cursor = reuse != null ? reuse : new RecordCursor();
+        return cursor.open(patients.get(patientId), typeCode, startTime, endTime);
+    }
+
+    /**
+     * Opens a cursor over several record types of a specific patient aligned
+     * onto a common time grid. See {@link Patient#align}.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeCodes the {@link SignalCatalog} codes of the record types
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @param step      the grid spacing in milliseconds, or 0 to use the
+     *                  timestamps of the first record type
+     * @param tolerance the largest distance in milliseconds between a grid point
+     *                  and a sample matched to it
+     * @param mode      how samples are matched to grid points
+     * @param reuse     a cursor to reposition, or null to create one
+     * @return the cursor, empty if the patient does not exist
+     */
+    public AlignedCursor align(int patientId, int[] typeCodes, long startTime, long endTime, long step,
+            long tolerance, AlignedCursor.Mode mode, AlignedCursor reuse) {
+        AlignedCursor cursor = reuse != null ? reuse : new AlignedCursor();
+        return cursor.open(patients.get(patientId), typeCodes, startTime, endTime, step, tolerance, mode);
+    }
+
+    /**
+     * Retrieves downsampled aggregates of one record type for a specific patient.
+     * See {@link Patient#getRollups(String, long, long, long)}.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, matched case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @param resolution the width of the returned buckets in milliseconds
+     * @return the non-empty buckets in ascending time order, or an empty list if
+     *         the patient does not exist
+     */
+    public List<RollupBucket> getRollups(int patientId, String recordType, long startTime, long endTime,
+            long resolution) {
+        Patient patient = patients.get(patientId);
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return patient.getRollups(recordType, startTime, endTime, resolution);
+    }
+
+    /**
+     * Retrieves the records of one type of a specific patient reduced to a
+     * point budget for plotting. See
+     * {@link Patient#getDownsampled(String, long, long, int)}.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, matched case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since the
+     *                   Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix
+     *                   epoch
+     * @param maxPoints  the largest number of records to return
+     * @return the kept records in ascending timestamp order, or an empty list if
+     *         the patient does not exist
+     * @throws IllegalArgumentException if {@code maxPoints} is less than 3
+     */
+    public List<PatientRecord> getDownsampled(int patientId, String recordType, long startTime, long endTime,
+            int maxPoints) {
+        Patient patient = patients.get(patientId);
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return patient.getDownsampled(recordType, startTime, endTime, maxPoints);
+    }
+
+    /**
+     * Retrieves the most recent records of a specific patient.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param count     the maximum number of records to return
+     * @return up to {@code count} of the newest records in ascending timestamp
+     *         order, or an empty list if the patient does not exist
+     */
+    public List<PatientRecord> getLatestRecords(int patientId, int count) {
+        Patient patient = patients.get(patientId);
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return patient.getLatestRecords(count);
+    }
+
+    /**
+     * Retrieves the newest sample of one record type of a patient. This reads
+     * a per-type slot without locking the patient, so dashboards can poll it
+     * at any rate without slowing ingest.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, matched case-insensitively
+     * @return the newest record of the type, or null if the patient or the
+     *         type has no samples
+     */
+    public PatientRecord getLatest(int patientId, String recordType) {
+        Patient patient = patients.get(patientId);
+        return patient == null ? null : patient.getLatest(recordType);
+    }
+
+    /**
+     * Registers a listener for records as they are appended, so consumers such
+     * as alerting, dashboards or replication react to new data instead of
+     * re-reading windows of storage.
+     * <p>
+     * Every record that reaches a patient's series afterwards and matches the
+     * filters is delivered exactly once, in batches, on {@code executor}. With
+     * sharding or a reorder buffer enabled, records are delivered once they
+     * have been stored, not when {@link #addPatientData} returns. Records are
+     * queued without bound while the listener is busy, so a listener that is
+     * permanently slower than ingest should be given its own executor.
+     *
+     * @param patientIds  the patients of interest, or null for all patients
+     * @param recordTypes the record types of interest, matched
+     *                    case-insensitively, or null for all types
+     * @param executor    runs the listener; one call at a time per subscription
+     * @param listener    receives the batches
+     * @return the subscription, closed to stop delivery
+     */
+    public Subscription subscribe(Collection<Integer> patientIds, Collection<String> recordTypes, Executor executor,
+            RecordListener listener) {
+        int[] patientFilter = null;
+        if (patientIds != null) {
+            patientFilter = patientIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        }
+        boolean[] typeFilter = null;
+        if (recordTypes != null) {
+            typeFilter = new boolean[0];
+            for (String recordType : recordTypes) {
+                int typeCode = SignalCatalog.code(recordType);
+                typeFilter = Arrays.copyOf(typeFilter, Math.max(typeFilter.length, typeCode + 1));
+                typeFilter[typeCode] = true;
+            }
+        }
+        ChangeFeed feed = options.getChangeFeed();
+        Subscription subscription = new Subscription(feed, patientFilter, typeFilter,
+                Objects.requireNonNull(executor, "executor"), Objects.requireNonNull(listener, "listener"));
+        feed.add(subscription);
+        return subscription;
+    }
+
     /**
      * Retrieves a collection of all patients stored in the data storage.
      *
      * @return a list of all patients
      */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patientMap.values());
+        return patients.toList();
     }
 
     /**
- * Adds or updates patient data in real-time, checking for duplicates before adding.
- *
- * @param patientId        the unique identifier of the patient
- * @param measurementValue the value of the health metric being recorded
- * @param recordType       the type of record, e.g., "HeartRate", "BloodPressure"
- * @param timestamp        the time at which the measurement was taken
- * @return true if the data was added, false if it was a duplicate
- */
-public synchronized boolean addPatientDataRealTime(int patientId, double measurementValue, String recordType, long timestamp) {
-    Patient patient = patientMap.get(patientId);
-    if (patient == null) {
-        patient = new Patient(patientId);
-        patientMap.put(patientId, patient);
-    }
-    
-    // Check for duplicate data (same patient, type, timestamp, and value)
-    List<PatientRecord> existingRecords = patient.getRecords(timestamp, timestamp);
-    for (PatientRecord record : existingRecords) {
-        if (record.getRecordType().equals(recordType) && 
-            record.getMeasurementValue() == measurementValue) {
-            return false; // Duplicate found
-        }
-    }
-    
-    patient.addRecord(measurementValue, recordType, timestamp);
-    return true;
-}
+     * Streams every patient without copying the patient registry. The stream is
+     * sequential; call {@code parallel()} to split the registry across the
+     * common fork/join pool, for example to aggregate over thousands of beds.
+     * Patients added while the stream runs may or may not be included.
+     *
+     * @return a stream of all patients
+     */
+    public Stream<Patient> patientStream() {
+        return patients.stream();
+    }
+
+    /**
+     * Applies a function to every patient in parallel and collects the results
+     * by patient ID, for example the maximum systolic pressure of the last five
+     * minutes for every bed. The function runs on fork/join worker threads and
+     * must be thread-safe; it may read the patient freely, since each patient
+     * guards its own data.
+     *
+     * @param function the per-patient function; a null result omits the patient
+     * @param <R>      the result type
+     * @return the non-null results keyed by patient ID
+     */
+    public <R> Map<Integer, R> mapPatients(Function<? super Patient, ? extends R> function) {
+        Map<Integer, R> results = new ConcurrentHashMap<>();
+        patients.stream().parallel().forEach(patient -> {
+            R result = function.apply(patient);
+            if (result != null) {
+                results.put(patient.getPatientId(), result);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Returns the patients matching a condition, evaluated in parallel, for
+     * example patients with no data for the last 60 seconds.
+     *
+     * @param condition the thread-safe per-patient test
+     * @return the matching patients, in no particular order
+     */
+    public List<Patient> findPatients(Predicate<? super Patient> condition) {
+        return patients.stream().parallel().filter(condition).collect(Collectors.toList());
+    }
+
+    /**
+     * Maintains a secondary index of every patient's latest value of a record
+     * type, so that {@link #findLatestInRange} and {@link #getHighestLatest}
+     * answer ward-wide questions such as "latest blood oxygen below 0.92" in
+     * O(log n + k) for n patients instead of reading every patient. The index
+     * is filled from the stored data and then updated as samples arrive; each
+     * new latest sample costs an O(log n) update. Indexing a type twice has no
+     * further effect.
+     *
+     * @param recordType the type of record, matched case-insensitively
+     */
+    public synchronized void indexLatestValues(String recordType) {
+        int typeCode = SignalCatalog.code(recordType);
+        if (options.getLatestIndex(typeCode) != null) {
+            return;
+        }
+        LatestValueIndex index = new LatestValueIndex(typeCode);
+        options.addLatestIndex(typeCode, index); // register first, so no sample is missed while filling
+        patients.forEach(patient -> patient.indexLatest(typeCode, index));
+    }
+
+    /**
+     * Finds the patients whose latest value of an indexed record type lies in
+     * {@code [from, to)}, for example {@code findLatestInRange("BloodOxygen",
+     * Double.NEGATIVE_INFINITY, 0.92)}.
+     *
+     * @param recordType the indexed type of record, matched case-insensitively
+     * @param from       the inclusive lower bound
+     * @param to         the exclusive upper bound
+     * @return each matching patient's latest record, in ascending value order
+     * @throws IllegalStateException if the type is not indexed
+     */
+    public List<PatientRecord> findLatestInRange(String recordType, double from, double to) {
+        List<PatientRecord> records = new ArrayList<>();
+        latestIndex(recordType).range(from, to, records);
+        return records;
+    }
+
+    /**
+     * Returns the {@code k} highest latest values of an indexed record type
+     * across patients, for example the top 20 systolic readings right now.
+     *
+     * @param recordType the indexed type of record, matched case-insensitively
+     * @param k          the maximum number of patients to return
+     * @return the latest records of up to {@code k} patients, highest first
+     * @throws IllegalStateException if the type is not indexed
+     */
+    public List<PatientRecord> getHighestLatest(String recordType, int k) {
+        List<PatientRecord> records = new ArrayList<>();
+        latestIndex(recordType).extremes(k, true, records);
+        return records;
+    }
+
+    /**
+     * Returns the {@code k} lowest latest values of an indexed record type
+     * across patients.
+     *
+     * @param recordType the indexed type of record, matched case-insensitively
+     * @param k          the maximum number of patients to return
+     * @return the latest records of up to {@code k} patients, lowest first
+     * @throws IllegalStateException if the type is not indexed
+     */
+    public List<PatientRecord> getLowestLatest(String recordType, int k) {
+        List<PatientRecord> records = new ArrayList<>();
+        latestIndex(recordType).extremes(k, false, records);
+        return records;
+    }
+
+    private LatestValueIndex latestIndex(String recordType) {
+        LatestValueIndex index = options.getLatestIndex(SignalCatalog.lookup(recordType));
+        if (index == null) {
+            throw new IllegalStateException("Latest values of " + recordType + " are not indexed");
+        }
+        return index;
+    }
+
+    /**
+     * Sets how long samples of a record type are kept, for example 15 minutes of
+     * raw ECG and 24 hours of blood pressure. Older samples are dropped a chunk
+     * at a time as new data arrives, which bounds memory per patient and series.
+     * Record types without a retention period are kept indefinitely.
+     *
+     * @param recordType      the type of record, matched case-insensitively
+     * @param retentionMillis the retention window in milliseconds
+     * @throws IllegalArgumentException if {@code retentionMillis} is not positive
+     */
+    public void setRetention(String recordType, long retentionMillis) {
+        int typeCode = SignalCatalog.code(recordType);
+        options.setRetention(typeCode, retentionMillis);
+        patients.forEach(patient -> patient.applyRetention(typeCode));
+    }
+
+    /**
+     * Drops samples of every patient that are older than their record type's
+     * retention window at the given time. Appends already evict as they go; this
+     * method also trims series that have stopped receiving data and can be run
+     * periodically.
+     *
+     * @param now the current time in milliseconds since the Unix epoch
+     */
+    public void evictExpired(long now) {
+        patients.forEach(patient -> patient.evictExpired(now));
+    }
+
+    /**
+     * Enables a per-patient Bloom filter for duplicate checks of records older
+     * than the exact recent horizon used by {@link #addPatientDataRealTime}.
+     * Applies to patients whose first real-time record arrives afterwards.
+     *
+     * @param bitsPerPatient the filter size in bits, or 0 to disable the filter
+     */
+    public void setDuplicateBloomFilterBits(int bitsPerPatient) {
+        options.setDuplicateBloomBits(bitsPerPatient);
+    }
+
+    /**
+     * Adds or updates patient data in real-time, checking for duplicates before adding.
+     * The check and the insert are atomic with respect to other writers of the
+     * same patient, and take constant time for records within the recent
+     * duplicate horizon.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, e.g., "HeartRate", "BloodPressure"
+     * @param timestamp        the time at which the measurement was taken
+     * @return true if the data was added, false if it was a duplicate
+     */
+    public boolean addPatientDataRealTime(int patientId, double measurementValue, String recordType, long timestamp) {
+        int typeCode = SignalCatalog.code(recordType);
+        boolean added = patients.getOrCreate(patientId).addRecordIfAbsent(measurementValue, typeCode, timestamp);
+        WriteAheadLog wal = writeAheadLog;
+        if (added && wal != null) {
+            wal.append(patientId, measurementValue, typeCode, timestamp);
+        }
+        return added;
+    }
 
     /**
      * The main method for the DataStorage class.
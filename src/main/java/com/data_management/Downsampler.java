@@ -0,0 +1,195 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming Largest-Triangle-Three-Buckets downsampler that reduces the samples
+ * of one series to a point budget while keeping the shape of the plotted line,
+ * including isolated spikes that averaging would flatten.
+ * <p>
+ * The first and last samples are always kept. The time between them is split
+ * into {@code maxPoints - 2} equal buckets, and each non-empty bucket keeps the
+ * sample forming the largest triangle with the point kept for the previous
+ * bucket and the average of the next non-empty bucket. Because buckets are laid
+ * out by time rather than by sample count, the total number of samples need not
+ * be known in advance: a bucket is decided as soon as the one after it is
+ * complete, so only those two buckets are buffered. A window with no more
+ * samples than the budget is returned unchanged.
+ */
+final class Downsampler {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int patientId;
+    private final int typeCode;
+    private final long lastTimestamp;
+    private final int maxPoints;
+    private final List<PatientRecord> out;
+
+    // the first samples, kept as they are until the budget is exceeded
+    private long[] rawTimestamps = new long[INITIAL_CAPACITY];
+    private double[] rawValues = new double[INITIAL_CAPACITY];
+    private int rawSize;
+    private boolean downsampling;
+
+    private long origin;
+    private long width;
+    private int bucketCount;
+    // the point kept for the previous bucket, the first vertex of each triangle
+    private double anchorX;
+    private double anchorValue;
+    // the complete bucket waiting for the average of the next one
+    private long[] pendingTimestamps = new long[INITIAL_CAPACITY];
+    private double[] pendingValues = new double[INITIAL_CAPACITY];
+    private int pendingSize;
+    // the bucket being filled
+    private long[] fillTimestamps = new long[INITIAL_CAPACITY];
+    private double[] fillValues = new double[INITIAL_CAPACITY];
+    private int fillSize;
+    private long fillBucket;
+    private double fillSumX;
+    private double fillSumValue;
+    // the newest sample, held back until it is known whether it is the last
+    private boolean held;
+    private long heldTimestamp;
+    private double heldValue;
+
+    /**
+     * @param patientId     the patient copied into the emitted records
+     * @param typeCode      the record type copied into the emitted records
+     * @param lastTimestamp the latest timestamp a sample can have, which bounds
+     *                      the buckets
+     * @param maxPoints     the largest number of records to emit, at least 3
+     * @param out           the list receiving the kept samples in time order
+     */
+    Downsampler(int patientId, int typeCode, long lastTimestamp, int maxPoints, List<PatientRecord> out) {
+        this.patientId = patientId;
+        this.typeCode = typeCode;
+        this.lastTimestamp = lastTimestamp;
+        this.maxPoints = maxPoints;
+        this.out = out;
+    }
+
+    /**
+     * Adds a sample. Samples must arrive in ascending timestamp order.
+     */
+    void add(long timestamp, double value) {
+        if (downsampling) {
+            next(timestamp, value);
+            return;
+        }
+        if (rawSize < maxPoints) {
+            if (rawSize == rawTimestamps.length) {
+                rawTimestamps = Arrays.copyOf(rawTimestamps, Math.min(maxPoints, rawSize * 2));
+                rawValues = Arrays.copyOf(rawValues, rawTimestamps.length);
+            }
+            rawTimestamps[rawSize] = timestamp;
+            rawValues[rawSize++] = value;
+            return;
+        }
+        downsampling = true;
+        origin = rawTimestamps[0];
+        bucketCount = maxPoints - 2;
+        // the span is bounded by the newest sample, so a window reaching into the future costs nothing
+        long span = Math.max(lastTimestamp, timestamp) - origin;
+        width = Math.max(1, span / bucketCount + (span % bucketCount == 0 ? 0 : 1));
+        emit(origin, rawValues[0]);
+        anchorX = 0;
+        anchorValue = rawValues[0];
+        for (int i = 1; i < rawSize; i++) {
+            next(rawTimestamps[i], rawValues[i]);
+        }
+        next(timestamp, value);
+    }
+
+    /**
+     * Emits the samples still buffered, ending with the last sample added.
+     */
+    void finish() {
+        if (!downsampling) {
+            for (int i = 0; i < rawSize; i++) {
+                emit(rawTimestamps[i], rawValues[i]);
+            }
+            return;
+        }
+        if (pendingSize > 0) {
+            select(pendingTimestamps, pendingValues, pendingSize, fillSumX / fillSize, fillSumValue / fillSize);
+        }
+        if (fillSize > 0) {
+            select(fillTimestamps, fillValues, fillSize, heldTimestamp - origin, heldValue);
+        }
+        emit(heldTimestamp, heldValue);
+    }
+
+    private void next(long timestamp, double value) {
+        if (held) {
+            place(heldTimestamp, heldValue);
+        }
+        held = true;
+        heldTimestamp = timestamp;
+        heldValue = value;
+    }
+
+    private void place(long timestamp, double value) {
+        long bucket = Math.min(bucketCount - 1, (timestamp - origin) / width);
+        if (fillSize > 0 && bucket != fillBucket) {
+            if (pendingSize > 0) {
+                select(pendingTimestamps, pendingValues, pendingSize, fillSumX / fillSize, fillSumValue / fillSize);
+            }
+            swapBuckets();
+        }
+        if (fillSize == fillTimestamps.length) {
+            fillTimestamps = Arrays.copyOf(fillTimestamps, fillSize * 2);
+            fillValues = Arrays.copyOf(fillValues, fillSize * 2);
+        }
+        fillBucket = bucket;
+        fillTimestamps[fillSize] = timestamp;
+        fillValues[fillSize++] = value;
+        fillSumX += timestamp - origin;
+        fillSumValue += value;
+    }
+
+    /**
+     * Makes the filled bucket the pending one and reuses the old pending arrays
+     * for the next bucket.
+     */
+    private void swapBuckets() {
+        long[] timestamps = pendingTimestamps;
+        double[] values = pendingValues;
+        pendingTimestamps = fillTimestamps;
+        pendingValues = fillValues;
+        pendingSize = fillSize;
+        fillTimestamps = timestamps;
+        fillValues = values;
+        fillSize = 0;
+        fillSumX = 0;
+        fillSumValue = 0;
+    }
+
+    /**
+     * Emits the sample of a bucket forming the largest triangle with the anchor
+     * and the point {@code (nextX, nextValue)}, and makes it the new anchor.
+     * Times are taken relative to the origin to keep the products exact enough.
+     */
+    private void select(long[] timestamps, double[] values, int size, double nextX, double nextValue) {
+        int best = 0;
+        double bestArea = -1;
+        for (int i = 0; i < size; i++) {
+            double x = timestamps[i] - origin;
+            // twice the triangle's area; the factor does not change the choice
+            double area = Math.abs((anchorX - nextX) * (values[i] - anchorValue)
+                    - (anchorX - x) * (nextValue - anchorValue));
+            if (area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        emit(timestamps[best], values[best]);
+        anchorX = timestamps[best] - origin;
+        anchorValue = values[best];
+    }
+
+    private void emit(long timestamp, double value) {
+        out.add(new PatientRecord(patientId, value, typeCode, timestamp));
+    }
+}
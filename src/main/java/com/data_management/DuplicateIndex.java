@@ -0,0 +1,178 @@
+package com.data_management;
+
+/**
+ * Constant-time duplicate detection for one patient, keyed on
+ * (record type, timestamp, value).
+ * <p>
+ * The most recent {@link #HORIZON} keys are held in a FIFO ring indexed by an
+ * open-addressing hash table. A key that is not in the ring is new for certain
+ * when its timestamp is newer than every key that has left the ring; otherwise
+ * an optional Bloom filter over the evicted keys can still rule it out. Only
+ * the remaining cases are {@link #UNKNOWN} and must be confirmed against the
+ * stored series.
+ */
+final class DuplicateIndex {
+    /** The key is stored. */
+    static final int PRESENT = 1;
+    /** The key is not stored. */
+    static final int ABSENT = 0;
+    /** The index cannot decide; the caller must check the series. */
+    static final int UNKNOWN = -1;
+
+    /** Number of recent keys held exactly. */
+    static final int HORIZON = 1024;
+    private static final int MASK = 2 * HORIZON - 1;
+
+    private final int[] types = new int[HORIZON];
+    private final long[] timestamps = new long[HORIZON];
+    private final long[] valueBits = new long[HORIZON];
+    private final int[] slots = new int[2 * HORIZON]; // ring index + 1, 0 when empty
+    private int head;
+    private int count;
+
+    private final long historyEnd;
+    private long evictedMaxTimestamp;
+    private final long[] bloom;
+
+    /**
+     * Creates an index for a patient whose existing samples all have timestamps
+     * at or before {@code historyEnd}; those samples are not indexed.
+     *
+     * @param historyEnd the newest timestamp already stored, or
+     *                   {@link Long#MIN_VALUE} if the patient has no samples
+     * @param bloomBits  the Bloom filter size in bits, or 0 to disable it
+     */
+    DuplicateIndex(long historyEnd, int bloomBits) {
+        this.historyEnd = historyEnd;
+        this.evictedMaxTimestamp = historyEnd;
+        this.bloom = bloomBits > 0 ? new long[(bloomBits + 63) >>> 6] : null;
+    }
+
+    /**
+     * Looks up a key. Values compare with {@code ==}, as in
+     * {@link RecordSeries#contains}, so a NaN value is never a duplicate.
+     *
+     * @return {@link #PRESENT}, {@link #ABSENT} or {@link #UNKNOWN}
+     */
+    int lookup(int type, long timestamp, double value) {
+        if (Double.isNaN(value)) {
+            return ABSENT;
+        }
+        long bits = canonicalBits(value);
+        if (find(type, timestamp, bits) >= 0) {
+            return PRESENT;
+        }
+        if (timestamp > evictedMaxTimestamp) {
+            return ABSENT;
+        }
+        if (bloom != null && timestamp > historyEnd && !bloomMightContain(hash(type, timestamp, bits))) {
+            return ABSENT;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Records a key that has just been stored, evicting the oldest key once the
+     * horizon is full.
+     */
+    void add(int type, long timestamp, double value) {
+        if (count == HORIZON) {
+            evict(head);
+        } else {
+            count++;
+        }
+        types[head] = type;
+        timestamps[head] = timestamp;
+        valueBits[head] = canonicalBits(value);
+        int slot = home(head);
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & MASK;
+        }
+        slots[slot] = head + 1;
+        head = (head + 1) % HORIZON;
+    }
+
+    private void evict(int entry) {
+        int slot = home(entry);
+        while (slots[slot] != entry + 1) {
+            slot = (slot + 1) & MASK;
+        }
+        removeSlot(slot);
+        evictedMaxTimestamp = Math.max(evictedMaxTimestamp, timestamps[entry]);
+        if (bloom != null) {
+            bloomAdd(hash(types[entry], timestamps[entry], valueBits[entry]));
+        }
+    }
+
+    /** Backward-shift deletion keeps every probe chain unbroken. */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & MASK;
+            if (slots[next] == 0) {
+                break;
+            }
+            int ideal = home(slots[next] - 1);
+            boolean reachable = hole <= next ? (hole < ideal && ideal <= next) : (hole < ideal || ideal <= next);
+            if (!reachable) {
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    private int find(int type, long timestamp, long bits) {
+        int slot = (int) hash(type, timestamp, bits) & MASK;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (timestamps[entry] == timestamp && valueBits[entry] == bits && types[entry] == type) {
+                return entry;
+            }
+            slot = (slot + 1) & MASK;
+        }
+        return -1;
+    }
+
+    private int home(int entry) {
+        return (int) hash(types[entry], timestamps[entry], valueBits[entry]) & MASK;
+    }
+
+    private boolean bloomMightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int size = bloom.length << 6;
+        for (int i = 0; i < 3; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int size = bloom.length << 6;
+        for (int i = 0; i < 3; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static long hash(int type, long timestamp, long bits) {
+        long h = timestamp * 0x9E3779B97F4A7C15L + bits;
+        h = (h ^ (h >>> 29)) * 0xBF58476D1CE4E5B9L + type;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Maps 0.0 and -0.0 to the same key, matching {@code ==} on doubles. NaN
+     * never reaches a lookup, so its keys are never matched.
+     */
+    private static long canonicalBits(double value) {
+        return value == 0.0 ? 0L : Double.doubleToLongBits(value);
+    }
+}
@@ -1,12 +1,13 @@
 package com.data_management;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.stream.Stream;
 
 /**
@@ -20,6 +21,10 @@ import java.util.stream.Stream;
  * The fifth field is ignored.
  */
 public class FileDataReader implements DataReader {
+    /** Number of parsed records handed to the storage at once. */
+    static final int BATCH_SIZE = 4096;
+    private static final int READ_BUFFER_CHARS = 8192;
+
     private String outputDirectory;
 
     /**
@@ -33,7 +38,9 @@ public class FileDataReader implements DataReader {
 
     /**
      * Reads data from all regular files in the configured output directory
-     * and stores it into the provided {@link DataStorage} instance.
+     * and stores it into the provided {@link DataStorage} instance. Files hold
+     * interleaved samples, so if the storage has a reorder buffer it is
+     * flushed once every file has been read.
      *
      * @param dataStorage the data storage system to store parsed patient records
      * @throws IOException if the output directory is invalid or unreadable
@@ -52,6 +59,7 @@ public class FileDataReader implements DataReader {
             paths.filter(Files::isRegularFile)
                  .forEach(file -> processFile(file.toFile(), dataStorage));
         }
+        dataStorage.flushReorderBuffer();
     }
 
     /**
@@ -82,29 +90,53 @@ public class FileDataReader implements DataReader {
     }
 
     /**
-     * Processes a single file, reading it line by line and adding parsed
-     * {@link PatientRecord} instances to the {@link DataStorage}.
+     * Processes a single file, parsing each line straight into primitive
+     * arrays with a {@link RecordLineParser} and adding them to the
+     * {@link DataStorage} in batches of {@value #BATCH_SIZE} records, so no
+     * object is created per line.
      *
      * @param file the file to be processed
      * @param dataStorage the data storage to which parsed records are added
      */
     private void processFile(File file, DataStorage dataStorage) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                PatientRecord record = parseLine(line);
-                if (record != null) {
-                    dataStorage.addPatientData(
-                        record.getPatientId(),
-                        record.getMeasurementValue(),
-                        record.getRecordType(),
-                        record.getTimestamp()
-                    );
+        int[] patientIds = new int[BATCH_SIZE];
+        long[] timestamps = new long[BATCH_SIZE];
+        int[] typeCodes = new int[BATCH_SIZE];
+        double[] values = new double[BATCH_SIZE];
+        int count = 0;
+        RecordLineParser parser = new RecordLineParser();
+        char[] buffer = new char[READ_BUFFER_CHARS];
+        int length = 0; // characters in the buffer, starting with an incomplete line
+        try (Reader reader = new FileReader(file)) {
+            int read;
+            while ((read = reader.read(buffer, length, buffer.length - length)) >= 0) {
+                int end = length + read;
+                int lineStart = 0;
+                // "\r\n" ends a line and then an empty one, which is skipped like any malformed line
+                for (int i = length; i < end; i++) {
+                    if (buffer[i] == '\n' || buffer[i] == '\r') {
+                        if (parser.parse(buffer, lineStart, i, patientIds, timestamps, typeCodes, values, count)
+                                && ++count == BATCH_SIZE) {
+                            dataStorage.addPatientDataBatch(patientIds, timestamps, typeCodes, values, count);
+                            count = 0;
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                length = end - lineStart;
+                System.arraycopy(buffer, lineStart, buffer, 0, length);
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2); // a line longer than the buffer
                 }
             }
+            if (length > 0
+                    && parser.parse(buffer, 0, length, patientIds, timestamps, typeCodes, values, count)) {
+                count++;
+            }
         } catch (IOException e) {
             System.err.println("Error reading file " + file.getName() + ": " + e.getMessage());
         }
+        dataStorage.addPatientDataBatch(patientIds, timestamps, typeCodes, values, count);
     }
 
     /**
@@ -128,7 +160,7 @@ public class FileDataReader implements DataReader {
             double measurementValue = Double.parseDouble(parts[3].trim());
             
             return new PatientRecord(patientId, measurementValue, recordType, timestamp);
-        } catch (NumberFormatException e) {
+        } catch (IllegalArgumentException e) { // a malformed number, or a new type with the catalog full
             System.err.println("Error parsing line: " + line);
             return null;
         }
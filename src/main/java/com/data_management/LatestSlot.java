@@ -0,0 +1,59 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * The newest sample of one series, readable without locking.
+ * <p>
+ * The slot is a seqlock: the single writer, which holds the patient lock, makes
+ * the sequence odd, stores the sample and makes the sequence even again. A
+ * reader reads the sequence, the sample and the sequence again, and retries if
+ * the sequence was odd or changed in between. Writers therefore never wait for
+ * readers and pay only two ordered stores, and readers never block ingest.
+ */
+final class LatestSlot {
+    private volatile long sequence;
+    private long timestamp;
+    private double value;
+
+    /**
+     * Creates a slot holding a first sample. The slot must be published to
+     * readers only after construction, through a volatile write.
+     */
+    LatestSlot(long timestamp, double value) {
+        this.timestamp = timestamp;
+        this.value = value;
+    }
+
+    /**
+     * Publishes a new latest sample. Only called under the patient lock.
+     */
+    void set(long timestamp, double value) {
+        long start = sequence;
+        sequence = start + 1;
+        VarHandle.storeStoreFence(); // the odd sequence is visible before the sample changes
+        this.timestamp = timestamp;
+        this.value = value;
+        sequence = start + 2;
+    }
+
+    /**
+     * Reads a consistent copy of the sample.
+     *
+     * @param patientId the owning patient, copied into the record
+     * @param typeCode  the record type, copied into the record
+     * @return the newest sample as a record
+     */
+    PatientRecord read(int patientId, int typeCode) {
+        while (true) {
+            long before = sequence;
+            long readTimestamp = timestamp;
+            double readValue = value;
+            VarHandle.loadLoadFence(); // the sample is read before the sequence is checked again
+            if ((before & 1) == 0 && sequence == before) {
+                return new PatientRecord(patientId, readValue, typeCode, readTimestamp);
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
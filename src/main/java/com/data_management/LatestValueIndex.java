@@ -0,0 +1,94 @@
+package com.data_management;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary index of the latest value of one record type across all patients.
+ * <p>
+ * Every patient with a sample of the type has exactly one entry, keyed by its
+ * newest sample's value, in a skip list sorted by value and patient ID. Range
+ * and top-K queries walk the skip list from the first match, so they cost
+ * O(log n + k) for n patients instead of a scan of every patient. An update
+ * re-keys the patient's entry in O(log n).
+ * <p>
+ * Updates for one patient are serialised by the patient lock, since
+ * {@link Patient} updates the index while adding the sample. Queries are
+ * weakly consistent: a patient whose latest value changes during a query may be
+ * reported with either value, or be missing from that one query.
+ */
+final class LatestValueIndex {
+    private static final Comparator<Entry> BY_VALUE =
+            Comparator.<Entry>comparingDouble(entry -> entry.value).thenComparingInt(entry -> entry.patientId);
+
+    private final int typeCode;
+    private final NavigableSet<Entry> byValue = new ConcurrentSkipListSet<>(BY_VALUE);
+    private final Map<Integer, Entry> byPatient = new ConcurrentHashMap<>();
+
+    LatestValueIndex(int typeCode) {
+        this.typeCode = typeCode;
+    }
+
+    /**
+     * Records a patient's new latest sample. The caller holds the patient lock
+     * and only calls this for samples that are the newest of their series.
+     */
+    void update(int patientId, double value, long timestamp) {
+        Entry entry = new Entry(patientId, value, timestamp);
+        Entry previous = byPatient.put(patientId, entry);
+        if (previous != null) {
+            byValue.remove(previous);
+        }
+        byValue.add(entry);
+    }
+
+    /**
+     * Adds the latest samples with {@code from <= value < to}, ascending by
+     * value, to {@code out}.
+     */
+    void range(double from, double to, List<PatientRecord> out) {
+        if (!(from < to)) {
+            return;
+        }
+        for (Entry entry : byValue.subSet(new Entry(Integer.MIN_VALUE, from, 0), true,
+                new Entry(Integer.MIN_VALUE, to, 0), false)) {
+            out.add(entry.toRecord(typeCode));
+        }
+    }
+
+    /**
+     * Adds up to {@code k} latest samples with the highest values, highest
+     * first, or with the lowest values, lowest first, to {@code out}.
+     */
+    void extremes(int k, boolean highest, List<PatientRecord> out) {
+        Iterator<Entry> entries = highest ? byValue.descendingIterator() : byValue.iterator();
+        for (int i = 0; i < k && entries.hasNext(); i++) {
+            out.add(entries.next().toRecord(typeCode));
+        }
+    }
+
+    int size() {
+        return byPatient.size();
+    }
+
+    private static final class Entry {
+        final int patientId;
+        final double value;
+        final long timestamp;
+
+        Entry(int patientId, double value, long timestamp) {
+            this.patientId = patientId;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        PatientRecord toRecord(int typeCode) {
+            return new PatientRecord(patientId, value, typeCode, timestamp);
+        }
+    }
+}
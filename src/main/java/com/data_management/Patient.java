@@ -1,6 +1,8 @@
 package com.data_management;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -8,20 +10,52 @@ import java.util.List;
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ * <p>
+ * Samples are stored column-wise in one {@link RecordSeries} per record type
+ * instead of one {@link PatientRecord} object per sample; see the README for
+ * the memory footprint of both layouts. Series are indexed by
+ * {@link SignalCatalog} code, so a query for one type never reads the samples of
+ * another. Methods taking a record type name resolve it through the catalog,
+ * case-insensitively and with aliases.
+ * <p>
+ * Writes to a patient's series are serialised on the patient itself, so
+ * different patients can be written in parallel. Raw reads of the in-memory
+ * series, namely {@link #getRecords}, cursors, {@link #getRecordsDescending},
+ * {@link #getLatestRecords} and snapshot copies, take no lock: each series
+ * publishes a {@link SeriesView} after every write, so a reader sees a
+ * consistent prefix of each series and never delays ingest. Aggregates and rollups, and
+ * {@link #getRecords} while a cold tier is enabled, still take the patient
+ * lock.
+ * <p>
+ * When the storage has a cold tier, the series keep only their hot window in
+ * memory and {@link #getRecords} merges older samples from the tier's segment
+ * files. Cursors, aggregates and rollups read the in-memory series only.
  */
 public class Patient {
+    private static final Comparator<PatientRecord> BY_TIMESTAMP =
+            Comparator.comparingLong(PatientRecord::getTimestamp);
+
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    // indexed by type code, null if unused; copied on write for lock-free readers
+    private volatile RecordSeries[] seriesByType = new RecordSeries[0];
+    private final StorageOptions options;
+    private DuplicateIndex duplicateIndex; // created by the first addRecordIfAbsent
+    // newest sample per type code, read without the patient lock; copied on write
+    private volatile LatestSlot[] latestSlots = new LatestSlot[0];
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
+        this(patientId, StorageOptions.DEFAULTS);
+    }
+
+    Patient(int patientId, StorageOptions options) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.options = options;
     }
 
     /**
@@ -36,8 +70,176 @@ public class Patient {
      *                         milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        addRecord(measurementValue, SignalCatalog.code(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record whose type is already resolved to a catalog code.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param typeCode         the {@link SignalCatalog} code of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     */
+    public synchronized void addRecord(double measurementValue, int typeCode, long timestamp) {
+        RecordSeries series = seriesFor(typeCode);
+        if (!series.add(timestamp, measurementValue)) {
+            return; // older than the retention window, never visible to readers
+        }
+        updateLatest(series, measurementValue, timestamp);
+        options.getChangeFeed().publish(patientId, measurementValue, typeCode, timestamp);
+        if (duplicateIndex != null) {
+            duplicateIndex.add(typeCode, timestamp, measurementValue);
+        }
+    }
+
+    /**
+     * Adds a new record unless a record with the same type, timestamp and value
+     * is already stored. Recent records are checked in constant time through a
+     * {@link DuplicateIndex}; only records older than its horizon fall back to a
+     * binary search of the series.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordType       the type of record, e.g., "HeartRate"
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     * @return true if the record was added, false if it was a duplicate or
+     *         already outside the retention window
+     */
+    public boolean addRecordIfAbsent(double measurementValue, String recordType, long timestamp) {
+        return addRecordIfAbsent(measurementValue, SignalCatalog.code(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record whose type is already resolved to a catalog code unless
+     * it is a duplicate. See {@link #addRecordIfAbsent(double, String, long)}.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param typeCode         the {@link SignalCatalog} code of the record type
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     * @return true if the record was added, false if it was a duplicate or
+     *         already outside the retention window
+     */
+    public synchronized boolean addRecordIfAbsent(double measurementValue, int typeCode, long timestamp) {
+        RecordSeries series = seriesFor(typeCode);
+        if (duplicateIndex == null) {
+            duplicateIndex = new DuplicateIndex(lastTimestamp(), options.getDuplicateBloomBits());
+        }
+        int found = duplicateIndex.lookup(typeCode, timestamp, measurementValue);
+        if (found == DuplicateIndex.PRESENT
+                || (found == DuplicateIndex.UNKNOWN && series.contains(timestamp, measurementValue))) {
+            return false;
+        }
+        if (!series.add(timestamp, measurementValue)) {
+            return false;
+        }
+        updateLatest(series, measurementValue, timestamp);
+        options.getChangeFeed().publish(patientId, measurementValue, typeCode, timestamp);
+        duplicateIndex.add(typeCode, timestamp, measurementValue);
+        return true;
+    }
+
+    /**
+     * Returns the timestamp of this patient's newest sample of any type.
+     *
+     * @return the newest timestamp in milliseconds since UNIX epoch, or
+     *         {@link Long#MIN_VALUE} if the patient has no samples
+     */
+    public synchronized long getLastTimestamp() {
+        return lastTimestamp();
+    }
+
+    private long lastTimestamp() {
+        long last = Long.MIN_VALUE;
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                last = Math.max(last, series.lastTimestamp());
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Publishes a just added sample to the type's latest slot and latest-value
+     * index when it is the newest of its series. Late samples leave both alone.
+     */
+    private void updateLatest(RecordSeries series, double value, long timestamp) {
+        if (timestamp < series.lastTimestamp()) {
+            return;
+        }
+        int typeCode = series.getTypeCode();
+        LatestSlot[] slots = latestSlots;
+        if (typeCode < slots.length && slots[typeCode] != null) {
+            slots[typeCode].set(timestamp, value);
+        } else {
+            LatestSlot[] grown = Arrays.copyOf(slots, Math.max(slots.length, typeCode + 1));
+            grown[typeCode] = new LatestSlot(timestamp, value);
+            latestSlots = grown;
+        }
+        LatestValueIndex index = options.getLatestIndex(typeCode);
+        if (index != null) {
+            index.update(patientId, value, timestamp);
+        }
+    }
+
+    /**
+     * Returns the newest sample of a record type. The value is kept in a slot
+     * updated on every add, so this neither scans the series nor takes the
+     * patient lock, and frequent polling does not slow down ingest.
+     *
+     * @param recordType the type of record, matched case-insensitively
+     * @return the newest record of the type, or null if there is none
+     */
+    public PatientRecord getLatest(String recordType) {
+        return getLatest(SignalCatalog.lookup(recordType));
+    }
+
+    /**
+     * Returns the newest sample of a record type given as a
+     * {@link SignalCatalog} code. See {@link #getLatest(String)}.
+     *
+     * @param typeCode the record type code
+     * @return the newest record of the type, or null if there is none
+     */
+    public PatientRecord getLatest(int typeCode) {
+        LatestSlot[] slots = latestSlots;
+        if (typeCode < 0 || typeCode >= slots.length || slots[typeCode] == null) {
+            return null;
+        }
+        return slots[typeCode].read(patientId, typeCode);
+    }
+
+    /**
+     * Enters this patient's newest sample of the index's type, if any, into a
+     * newly created latest-value index.
+     */
+    synchronized void indexLatest(int typeCode, LatestValueIndex index) {
+        PatientRecord latest = getLatest(typeCode);
+        if (latest != null) {
+            index.update(patientId, latest.getMeasurementValue(), latest.getTimestamp());
+        }
+    }
+
+    private RecordSeries seriesFor(int typeCode) {
+        RecordSeries series = seriesOf(typeCode);
+        if (series == null) {
+            series = new RecordSeries(typeCode);
+            series.setRetention(options.getRetention(typeCode));
+            series.setColdStore(options.getColdStore(), patientId);
+            RecordSeries[] grown = Arrays.copyOf(seriesByType, Math.max(seriesByType.length, typeCode + 1));
+            grown[typeCode] = series;
+            seriesByType = grown;
+        }
+        return series;
+    }
+
+    /**
+     * @return the series of a type code, or null if this patient has none
+     */
+    private RecordSeries seriesOf(int typeCode) {
+        RecordSeries[] series = seriesByType;
+        return typeCode >= 0 && typeCode < series.length ? series[typeCode] : null;
     }
 
     /**
@@ -49,17 +251,484 @@ public class Patient {
      *                  epoch
      * @param endTime   the end of the time range, in milliseconds since UNIX epoch
      * @return a list of PatientRecord objects that fall within the specified time
-     *         range
+     *         range, ordered by timestamp
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
+        ColdStore cold = options.getColdStore();
+        if (cold == null) {
+            return collectRecords(null, startTime, endTime);
+        }
+        synchronized (this) { // chunks must not move to the cold tier while both are read
+            return collectRecords(cold, startTime, endTime);
+        }
+    }
+
+    private List<PatientRecord> collectRecords(ColdStore cold, long startTime, long endTime) {
         List<PatientRecord> filteredRecords = new ArrayList<>();
-        for (PatientRecord record : patientRecords) {
-            if (record.getTimestamp() >= startTime && record.getTimestamp() <= endTime) {
-                filteredRecords.add(record);
+        if (cold != null) {
+            cold.collect(patientId, SignalCatalog.UNKNOWN, startTime, endTime, filteredRecords);
+            filteredRecords.removeIf(record -> record.getTimestamp() < retentionCutoff(record.getTypeCode()));
+        }
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                series.collect(patientId, startTime, endTime, filteredRecords);
             }
         }
+        // each series contributes an already sorted run, which the sort merges
+        filteredRecords.sort(BY_TIMESTAMP);
+        return filteredRecords;
+    }
+
+    /**
+     * Retrieves the records of a single record type that fall within a specified
+     * time range. Only the series of that type is read.
+     *
+     * @param recordType the type of record, e.g., "BloodOxygen"; matched
+     *                   case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @return a list of PatientRecord objects in ascending timestamp order, empty
+     *         if the patient has no records of that type
+     */
+    public List<PatientRecord> getRecords(String recordType, long startTime, long endTime) {
+        return getRecords(SignalCatalog.lookup(recordType), startTime, endTime);
+    }
 
-        return filteredRecords; 
+    /**
+     * Retrieves the records of a single record type, given as a
+     * {@link SignalCatalog} code, that fall within a specified time range.
+     *
+     * @param typeCode  the record type code, e.g. {@link SignalCatalog#BLOOD_OXYGEN}
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return a list of PatientRecord objects in ascending timestamp order, empty
+     *         if the patient has no records of that type
+     */
+    public List<PatientRecord> getRecords(int typeCode, long startTime, long endTime) {
+        ColdStore cold = options.getColdStore();
+        if (cold == null || typeCode == SignalCatalog.UNKNOWN) {
+            return collectRecords(null, typeCode, startTime, endTime);
+        }
+        synchronized (this) {
+            return collectRecords(cold, typeCode, startTime, endTime);
+        }
+    }
+
+    private List<PatientRecord> collectRecords(ColdStore cold, int typeCode, long startTime, long endTime) {
+        List<PatientRecord> filteredRecords = new ArrayList<>();
+        if (cold != null) {
+            cold.collect(patientId, typeCode, Math.max(startTime, retentionCutoff(typeCode)), endTime,
+                    filteredRecords);
+        }
+        boolean merge = !filteredRecords.isEmpty();
+        RecordSeries series = seriesOf(typeCode);
+        if (series != null) {
+            series.collect(patientId, startTime, endTime, filteredRecords);
+        }
+        if (merge) {
+            filteredRecords.sort(BY_TIMESTAMP); // cold samples first on equal timestamps
+        }
+        return filteredRecords;
+    }
+
+    private long retentionCutoff(int typeCode) {
+        RecordSeries series = seriesOf(typeCode);
+        return series != null ? series.retentionCutoff() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Computes the count, minimum, maximum, mean and standard deviation of one
+     * record type over a time range. Chunks lying wholly inside the range are
+     * combined from precomputed summaries in O(log n); only the two edge
+     * chunks, at most {@code 2 * 1024} samples, are read.
+     *
+     * @param typeCode  the {@link SignalCatalog} code of the record type
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return the aggregate, with a count of 0 if there are no samples
+     */
+    public synchronized WindowAggregate getAggregate(int typeCode, long startTime, long endTime) {
+        SampleSummary summary = new SampleSummary();
+        RecordSeries series = seriesOf(typeCode);
+        if (series != null) {
+            series.summarize(startTime, endTime, summary);
+        }
+        return new WindowAggregate(summary);
+    }
+
+    /**
+     * Opens a cursor over the records of one type in a time range without
+     * materialising them. See {@link RecordCursor}.
+     *
+     * @param typeCode  the {@link SignalCatalog} code of the record type
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param reuse     a cursor to reposition, or null to create one
+     * @return the cursor, positioned before the first matching sample
+     */
+    public RecordCursor cursor(int typeCode, long startTime, long endTime, RecordCursor reuse) {
+        RecordCursor cursor = reuse != null ? reuse : new RecordCursor();
+        return cursor.open(this, typeCode, startTime, endTime);
+    }
+
+    /**
+     * Opens a cursor over several record types aligned onto a common time grid
+     * with as-of or nearest-sample matching. See {@link AlignedCursor}.
+     *
+     * @param typeCodes the {@link SignalCatalog} codes of the record types, one
+     *                  column each; with a step of 0 the first one drives the grid
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param step      the grid spacing in milliseconds, or 0 to use the
+     *                  timestamps of the first record type
+     * @param tolerance the largest distance in milliseconds between a grid point
+     *                  and a sample matched to it
+     * @param mode      how samples are matched to grid points
+     * @param reuse     a cursor to reposition, or null to create one
+     * @return the cursor, positioned before the first grid point
+     * @throws IllegalArgumentException if no record type is given, or the step
+     *                                  or tolerance is negative
+     */
+    public AlignedCursor align(int[] typeCodes, long startTime, long endTime, long step, long tolerance,
+            AlignedCursor.Mode mode, AlignedCursor reuse) {
+        AlignedCursor cursor = reuse != null ? reuse : new AlignedCursor();
+        return cursor.open(this, typeCodes, startTime, endTime, step, tolerance, mode);
+    }
+
+    /**
+     * Copies the next block of samples for a {@link RecordCursor}.
+     *
+     * @return the number of samples copied
+     */
+    int read(int typeCode, long startTime, long endTime, long[] timestamps, double[] values,
+            ChunkCodec.Decoder decoder) {
+        RecordSeries series = seriesOf(typeCode);
+        return series == null ? 0 : series.read(startTime, endTime, timestamps, values, decoder);
+    }
+
+    /**
+     * Retrieves downsampled aggregates (min, max, sum, count, first, last) of a
+     * record type over a time range. The aggregates are maintained at ingest at
+     * one-minute and one-hour resolution; the coarsest of these that divides
+     * {@code resolution} answers the query, so a 24-hour query at one-minute
+     * resolution reads about 1,440 buckets instead of every raw sample.
+     *
+     * @param recordType the type of record, matched case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @param resolution the width of the returned buckets in milliseconds
+     * @return the non-empty buckets in ascending time order
+     * @throws IllegalArgumentException if {@code resolution} is not positive
+     */
+    public List<RollupBucket> getRollups(String recordType, long startTime, long endTime, long resolution) {
+        return getRollups(SignalCatalog.lookup(recordType), startTime, endTime, resolution);
+    }
+
+    /**
+     * Retrieves downsampled aggregates of a record type given as a
+     * {@link SignalCatalog} code. See
+     * {@link #getRollups(String, long, long, long)}.
+     *
+     * @param typeCode   the record type code
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @param resolution the width of the returned buckets in milliseconds
+     * @return the non-empty buckets in ascending time order
+     * @throws IllegalArgumentException if {@code resolution} is not positive
+     */
+    public synchronized List<RollupBucket> getRollups(int typeCode, long startTime, long endTime,
+            long resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolution);
+        }
+        List<RollupBucket> buckets = new ArrayList<>();
+        RecordSeries series = seriesOf(typeCode);
+        if (series != null) {
+            series.collectRollups(startTime, endTime, resolution, buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Retrieves the records of one type in a time range reduced to at most
+     * {@code maxPoints} records that plot like the full series, for example
+     * to draw an hour of ECG on a dashboard. The records are chosen by
+     * Largest-Triangle-Three-Buckets in a single pass over a
+     * {@link RecordCursor}, keeping the first and last records and isolated
+     * spikes; a range with no more records than the budget is returned whole.
+     * See {@link Downsampler}.
+     *
+     * @param recordType the type of record, matched case-insensitively
+     * @param startTime  the start of the time range, in milliseconds since UNIX
+     *                   epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @param maxPoints  the largest number of records to return
+     * @return the kept records in ascending timestamp order
+     * @throws IllegalArgumentException if {@code maxPoints} is less than 3
+     */
+    public List<PatientRecord> getDownsampled(String recordType, long startTime, long endTime, int maxPoints) {
+        return getDownsampled(SignalCatalog.lookup(recordType), startTime, endTime, maxPoints);
+    }
+
+    /**
+     * Retrieves a downsampled series of a record type given as a
+     * {@link SignalCatalog} code. See
+     * {@link #getDownsampled(String, long, long, int)}.
+     *
+     * @param typeCode  the record type code
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @param maxPoints the largest number of records to return
+     * @return the kept records in ascending timestamp order
+     * @throws IllegalArgumentException if {@code maxPoints} is less than 3
+     */
+    public List<PatientRecord> getDownsampled(int typeCode, long startTime, long endTime, int maxPoints) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("Point budget must be at least 3: " + maxPoints);
+        }
+        List<PatientRecord> records = new ArrayList<>();
+        PatientRecord latest = getLatest(typeCode);
+        long lastTimestamp = latest != null ? Math.min(endTime, latest.getTimestamp()) : endTime;
+        Downsampler downsampler = new Downsampler(patientId, typeCode, lastTimestamp, maxPoints, records);
+        RecordCursor cursor = cursor(typeCode, startTime, endTime, null);
+        while (cursor.next()) {
+            downsampler.add(cursor.timestamp(), cursor.value());
+        }
+        downsampler.finish();
+        return records;
+    }
+
+    /**
+     * Retrieves the records of this patient that fall within a specified time
+     * range, newest first.
+     *
+     * @param startTime the start of the time range, in milliseconds since UNIX
+     *                  epoch
+     * @param endTime   the end of the time range, in milliseconds since UNIX epoch
+     * @return a list of PatientRecord objects in descending timestamp order
+     */
+    public List<PatientRecord> getRecordsDescending(long startTime, long endTime) {
+        List<PatientRecord> filteredRecords = new ArrayList<>();
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                series.collectDescending(patientId, startTime, endTime, filteredRecords);
+            }
+        }
+        filteredRecords.sort(BY_TIMESTAMP.reversed());
+        return filteredRecords;
+    }
+
+    /**
+     * Retrieves the most recent records of this patient across all record types.
+     *
+     * @param count the maximum number of records to return
+     * @return up to {@code count} of the newest records, in ascending timestamp
+     *         order
+     */
+    public List<PatientRecord> getLatestRecords(int count) {
+        List<PatientRecord> latest = new ArrayList<>();
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                series.collectLatest(patientId, count, latest);
+            }
+        }
+        latest.sort(BY_TIMESTAMP);
+        if (latest.size() > count) {
+            return new ArrayList<>(latest.subList(latest.size() - count, latest.size()));
+        }
+        return latest;
+    }
+
+    /**
+     * Copies every series of this patient from the views published to
+     * lock-free readers, so ingest is never blocked while sealed chunks are
+     * decoded. Each series is copied as one consistent prefix; series of
+     * different types may be copied at slightly different moments.
+     *
+     * @return one detached copy per record type
+     */
+    List<RecordSeries.Samples> copySeries() {
+        List<RecordSeries.Samples> copies = new ArrayList<>();
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                copies.add(series.copySamples());
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Adds samples of one record type, sorted by timestamp, in bulk.
+     *
+     * @param recordType the type of record
+     * @param timestamps sorted timestamps in milliseconds since UNIX epoch
+     * @param values     the matching measurement values
+     * @param count      the number of samples to add
+     */
+    synchronized void addRecords(String recordType, long[] timestamps, double[] values, int count) {
+        int typeCode = SignalCatalog.code(recordType);
+        RecordSeries series = seriesFor(typeCode);
+        int stored = series.addAll(timestamps, values, 0, count);
+        if (stored < count) {
+            updateLatest(series, values[count - 1], timestamps[count - 1]);
+        }
+        ChangeFeed feed = options.getChangeFeed();
+        if (feed.isActive()) {
+            for (int i = stored; i < count; i++) {
+                feed.publish(patientId, values[i], typeCode, timestamps[i]);
+            }
+        }
+        if (duplicateIndex != null) {
+            for (int i = stored; i < count; i++) {
+                duplicateIndex.add(typeCode, timestamps[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds a batch of samples of any record types under a single acquisition of
+     * the patient lock. The samples are bucketed by type, and each bucket whose
+     * timestamps ascend past the end of its series is appended in bulk.
+     * Subscribers and the duplicate index see the stored samples in batch
+     * order.
+     *
+     * @param typeCodes  the {@link SignalCatalog} codes of the record types
+     * @param timestamps the timestamps in milliseconds since UNIX epoch
+     * @param values     the measurement values
+     * @param from       the index of the first sample to add
+     * @param to         the index after the last sample to add
+     */
+    synchronized void addRecords(int[] typeCodes, long[] timestamps, double[] values, int from, int to) {
+        int maxType = 0;
+        for (int i = from; i < to; i++) {
+            maxType = Math.max(maxType, typeCodes[i]);
+        }
+        // counting sort by type code, which keeps batch order within a type
+        int[] starts = new int[maxType + 2];
+        for (int i = from; i < to; i++) {
+            starts[typeCodes[i] + 1]++;
+        }
+        for (int typeCode = 0; typeCode <= maxType; typeCode++) {
+            starts[typeCode + 1] += starts[typeCode];
+        }
+        long[] runTimestamps = new long[to - from];
+        double[] runValues = new double[to - from];
+        int[] next = Arrays.copyOf(starts, maxType + 1);
+        boolean[] unsorted = new boolean[maxType + 1];
+        for (int i = from; i < to; i++) {
+            int typeCode = typeCodes[i];
+            int slot = next[typeCode]++;
+            runTimestamps[slot] = timestamps[i];
+            runValues[slot] = values[i];
+            unsorted[typeCode] |= slot > starts[typeCode] && runTimestamps[slot - 1] > timestamps[i];
+        }
+        boolean[] dropped = null; // by slot, only allocated once retention drops a sample
+        for (int typeCode = 0; typeCode <= maxType; typeCode++) {
+            if (starts[typeCode] < starts[typeCode + 1]) {
+                dropped = addRun(seriesFor(typeCode), runTimestamps, runValues, starts[typeCode],
+                        starts[typeCode + 1], !unsorted[typeCode], dropped);
+            }
+        }
+        ChangeFeed feed = options.getChangeFeed();
+        if (!feed.isActive() && duplicateIndex == null) {
+            return;
+        }
+        // walk the batch in order, following each sample to its slot to skip dropped ones
+        int[] slots = dropped != null ? Arrays.copyOf(starts, maxType + 1) : null;
+        for (int i = from; i < to; i++) {
+            if (slots != null && dropped[slots[typeCodes[i]]++]) {
+                continue;
+            }
+            feed.publish(patientId, values[i], typeCodes[i], timestamps[i]);
+            if (duplicateIndex != null) {
+                duplicateIndex.add(typeCodes[i], timestamps[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the run {@code [from, to)} of one record type and marks the samples
+     * retention dropped.
+     *
+     * @param dropped the dropped flags by slot so far, or null if none
+     * @return the dropped flags, or null if still none
+     */
+    private boolean[] addRun(RecordSeries series, long[] timestamps, double[] values, int from, int to,
+            boolean ascending, boolean[] dropped) {
+        if (ascending) {
+            int stored = series.addAll(timestamps, values, from, to);
+            if (stored < to) {
+                updateLatest(series, values[to - 1], timestamps[to - 1]);
+            }
+            for (int i = from; i < stored; i++) {
+                dropped = markDropped(dropped, i, timestamps.length);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                if (series.add(timestamps[i], values[i])) {
+                    updateLatest(series, values[i], timestamps[i]);
+                } else {
+                    dropped = markDropped(dropped, i, timestamps.length);
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private static boolean[] markDropped(boolean[] dropped, int slot, int slots) {
+        if (dropped == null) {
+            dropped = new boolean[slots];
+        }
+        dropped[slot] = true;
+        return dropped;
+    }
+
+    /**
+     * Re-reads the retention period of a record type from the storage settings
+     * and applies it to the matching series.
+     *
+     * @param typeCode the code of the record type whose retention changed
+     */
+    synchronized void applyRetention(int typeCode) {
+        RecordSeries series = seriesOf(typeCode);
+        if (series != null) {
+            series.setRetention(options.getRetention(typeCode));
+        }
+    }
+
+    /**
+     * Re-reads the cold store from the storage settings and hands it to every
+     * series, which spill to it from their next new chunk on.
+     */
+    synchronized void applyColdStore() {
+        for (RecordSeries series : seriesByType) {
+            if (series != null) {
+                series.setColdStore(options.getColdStore(), patientId);
+            }
+        }
+    }
+
+    /**
+     * Drops samples that have fallen out of their retention window relative to
+     * the given wall-clock time. Series that stopped receiving data are trimmed
+     * here rather than on append.
+     *
+     * @param now the current time in milliseconds since UNIX epoch
+     */
+    synchronized void evictExpired(long now) {
+        for (RecordSeries series : seriesByType) {
+            if (series != null && series.getRetention() != StorageOptions.UNLIMITED) {
+                series.evictBefore(now - series.getRetention());
+            }
+        }
     }
 
     public int getPatientId() {
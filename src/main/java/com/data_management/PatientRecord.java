@@ -8,10 +8,14 @@ package com.data_management;
  * pressure),
  * the measurement value, and the exact timestamp when the measurement was
  * taken.
+ * <p>
+ * The record type is held as a {@link SignalCatalog} code rather than a string,
+ * so the spelling a record was created with is not kept; see
+ * {@link #getRecordType()}.
  */
 public class PatientRecord {
     private int patientId;
-    private String recordType; // Example: ECG, blood pressure, etc.
+    private int typeCode; // Example: ECG, blood pressure, etc.; see SignalCatalog
     private double measurementValue; // Example: heart rate
     private long timestamp;
 
@@ -21,14 +25,27 @@ public class PatientRecord {
      * @param patientId        the unique identifier for the patient
      * @param measurementValue the numerical value of the recorded measurement
      * @param recordType       the type of measurement (e.g., "ECG", "Blood
-     *                         Pressure")
+     *                         Pressure"), resolved to its canonical signal
      * @param timestamp        the time at which the measurement was recorded, in
      *                         milliseconds since epoch
      */
     public PatientRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        this(patientId, measurementValue, SignalCatalog.code(recordType), timestamp);
+    }
+
+    /**
+     * Constructs a new patient record with an already resolved record type.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param typeCode         the {@link SignalCatalog} code of the record type
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    public PatientRecord(int patientId, double measurementValue, int typeCode, long timestamp) {
         this.patientId = patientId;
         this.measurementValue = measurementValue;
-        this.recordType = recordType;
+        this.typeCode = typeCode;
         this.timestamp = timestamp;
     }
 
@@ -61,10 +78,27 @@ public class PatientRecord {
 
     /**
      * Returns the type of record (e.g., "ECG", "Blood Pressure").
-     * 
-     * @return the record type
+     * <p>
+     * This is the canonical name from the {@link SignalCatalog}, not
+     * necessarily the string the record was ingested with. Names are matched
+     * case-insensitively and aliases resolve to their signal, so a record added
+     * as {@code "SystolicPressure"} or {@code "systolicbloodpressure"} reports
+     * {@code "SystolicBloodPressure"}. A type outside the catalog keeps the
+     * spelling under which it was first seen. Callers that need the original
+     * spelling must keep it themselves.
+     *
+     * @return the canonical name of the record type
      */
     public String getRecordType() {
-        return recordType;
+        return SignalCatalog.name(typeCode);
+    }
+
+    /**
+     * Returns the {@link SignalCatalog} code of the record type.
+     *
+     * @return the record type code
+     */
+    public int getTypeCode() {
+        return typeCode;
     }
 }
@@ -0,0 +1,215 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Concurrent map from patient ID to {@link Patient}.
+ * <p>
+ * Simulator IDs are small and dense (1..N), so IDs in
+ * {@code [0, MAX_DENSE_ID)} are stored in an {@link AtomicReferenceArray}
+ * indexed directly by ID, with no hashing or {@code Integer} boxing. Other IDs
+ * fall back to a {@link ConcurrentHashMap}.
+ * <p>
+ * Lookups never lock. Only the creation of a previously unseen patient takes
+ * the registry lock, so ingest for existing patients proceeds in parallel.
+ */
+final class PatientRegistry {
+    /** IDs at or above this bound are kept in the sparse map. */
+    static final int MAX_DENSE_ID = 1 << 20;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<Patient> dense;
+    private final Map<Integer, Patient> sparse;
+    private final StorageOptions options;
+    private volatile int size;
+
+    /**
+     * @param options the settings handed to every patient created here
+     */
+    PatientRegistry(StorageOptions options) {
+        this.dense = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        this.sparse = new ConcurrentHashMap<>();
+        this.options = options;
+    }
+
+    /**
+     * Returns the patient with the given ID, or {@code null} if none exists.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the patient, or {@code null}
+     */
+    Patient get(int patientId) {
+        if (isDense(patientId)) {
+            AtomicReferenceArray<Patient> table = dense;
+            return patientId < table.length() ? table.get(patientId) : null;
+        }
+        return sparse.get(patientId);
+    }
+
+    /**
+     * Returns the patient with the given ID, creating it if necessary.
+     *
+     * @param patientId the unique identifier of the patient
+     * @return the existing or newly created patient
+     */
+    Patient getOrCreate(int patientId) {
+        Patient patient = get(patientId);
+        return patient != null ? patient : create(patientId);
+    }
+
+    private synchronized Patient create(int patientId) {
+        Patient patient = get(patientId);
+        if (patient != null) {
+            return patient;
+        }
+        patient = new Patient(patientId, options);
+        if (isDense(patientId)) {
+            ensureCapacity(patientId + 1).set(patientId, patient);
+        } else {
+            sparse.put(patientId, patient);
+        }
+        size++;
+        return patient;
+    }
+
+    /**
+     * Grows the dense table so that it can hold {@code capacity} entries. Only
+     * called while holding the registry lock, so no insert can be lost while the
+     * table is copied.
+     */
+    private AtomicReferenceArray<Patient> ensureCapacity(int capacity) {
+        AtomicReferenceArray<Patient> table = dense;
+        if (capacity <= table.length()) {
+            return table;
+        }
+        int newLength = table.length();
+        while (newLength < capacity) {
+            newLength = Math.min(MAX_DENSE_ID, newLength * 2);
+        }
+        AtomicReferenceArray<Patient> grown = new AtomicReferenceArray<>(newLength);
+        for (int i = 0; i < table.length(); i++) {
+            grown.set(i, table.get(i));
+        }
+        dense = grown;
+        return grown;
+    }
+
+    private static boolean isDense(int patientId) {
+        return patientId >= 0 && patientId < MAX_DENSE_ID;
+    }
+
+    /**
+     * Applies {@code action} to every registered patient. Patients created while
+     * the iteration runs may or may not be visited.
+     *
+     * @param action the action to apply
+     */
+    void forEach(Consumer<Patient> action) {
+        AtomicReferenceArray<Patient> table = dense;
+        for (int i = 0; i < table.length(); i++) {
+            Patient patient = table.get(i);
+            if (patient != null) {
+                action.accept(patient);
+            }
+        }
+        sparse.values().forEach(action);
+    }
+
+    /**
+     * Streams every registered patient without copying the registry. The dense
+     * table is split by index range and the sparse map by its own spliterator,
+     * so a parallel stream divides the work across the fork/join pool. Patients
+     * created while the stream runs may or may not be visited.
+     *
+     * @return a sequential stream; call {@code parallel()} to split it
+     */
+    Stream<Patient> stream() {
+        AtomicReferenceArray<Patient> table = dense;
+        return Stream.concat(StreamSupport.stream(new DenseSpliterator(table, 0, table.length()), false),
+                sparse.values().stream());
+    }
+
+    /**
+     * Splits an index range of the dense table in halves, skipping empty slots.
+     */
+    private static final class DenseSpliterator implements Spliterator<Patient> {
+        private static final int MIN_SPLIT = 16;
+
+        private final AtomicReferenceArray<Patient> table;
+        private int index;
+        private final int end;
+
+        DenseSpliterator(AtomicReferenceArray<Patient> table, int index, int end) {
+            this.table = table;
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Patient> action) {
+            while (index < end) {
+                Patient patient = table.get(index++);
+                if (patient != null) {
+                    action.accept(patient);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Patient> action) {
+            for (; index < end; index++) {
+                Patient patient = table.get(index);
+                if (patient != null) {
+                    action.accept(patient);
+                }
+            }
+        }
+
+        @Override
+        public Spliterator<Patient> trySplit() {
+            int middle = (index + end) >>> 1;
+            if (middle - index < MIN_SPLIT) {
+                return null;
+            }
+            Spliterator<Patient> lower = new DenseSpliterator(table, index, middle);
+            index = middle;
+            return lower;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | CONCURRENT;
+        }
+    }
+
+    /**
+     * @return a snapshot list of all registered patients
+     */
+    List<Patient> toList() {
+        List<Patient> patients = new ArrayList<>(size);
+        forEach(patients::add);
+        return patients;
+    }
+
+    /**
+     * @return the number of registered patients
+     */
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,137 @@
+package com.data_management;
+
+/**
+ * Forward-only, read-only cursor over the samples of one record type of one
+ * patient within a time window, in ascending timestamp order.
+ * <p>
+ * Unlike {@link Patient#getRecords(int, long, long)}, a cursor creates no
+ * {@link PatientRecord} objects and no list. It copies the series a block at a
+ * time (decoding compressed chunks) into its own primitive buffers, without
+ * taking the patient lock, and then iterates the block. A cursor can be
+ * reopened any number of times, so a caller that keeps one per thread scans
+ * windows without allocating.
+ * <p>
+ * Samples added while a scan is in progress are seen if they fall after the
+ * current position. A cursor is not thread-safe.
+ * <pre>
+ *     RecordCursor cursor = patient.cursor(SignalCatalog.BLOOD_OXYGEN, start, end, reuse);
+ *     while (cursor.next()) {
+ *         if (cursor.value() &lt; 0.92) { ... }
+ *     }
+ * </pre>
+ */
+public final class RecordCursor {
+    private static final int INITIAL_BUFFER = 64;
+
+    private long[] timestamps = new long[INITIAL_BUFFER];
+    private double[] values = new double[INITIAL_BUFFER];
+    private final ChunkCodec.Decoder decoder = new ChunkCodec.Decoder();
+
+    private Patient patient;
+    private int typeCode;
+    private long startTime;
+    private long endTime;
+    private int count;
+    private int position;
+    private boolean lastBlock;
+    private boolean started;
+    private long timestamp;
+    private double value;
+    private int seenAtTimestamp; // samples returned with the current timestamp
+
+    /**
+     * Creates a cursor that is positioned on nothing until it is opened through
+     * {@link Patient#cursor} or {@link DataStorage#cursor}.
+     */
+    public RecordCursor() {
+    }
+
+    /**
+     * Positions the cursor before the first sample of a window.
+     *
+     * @param patient the patient to read, or null for an empty cursor
+     */
+    RecordCursor open(Patient patient, int typeCode, long startTime, long endTime) {
+        this.patient = patient;
+        this.typeCode = typeCode;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = 0;
+        this.position = 0;
+        this.lastBlock = patient == null || startTime > endTime;
+        this.started = false;
+        return this;
+    }
+
+    /**
+     * Advances to the next sample.
+     *
+     * @return false once the window is exhausted
+     */
+    public boolean next() {
+        if (position == count && (lastBlock || !refill())) {
+            return false;
+        }
+        long next = timestamps[position];
+        value = values[position];
+        position++;
+        if (started && next == timestamp) {
+            seenAtTimestamp++;
+        } else {
+            started = true;
+            timestamp = next;
+            seenAtTimestamp = 1;
+        }
+        return true;
+    }
+
+    /**
+     * @return the timestamp of the current sample, in milliseconds since epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the measurement value of the current sample
+     */
+    public double value() {
+        return value;
+    }
+
+    /**
+     * Reads the next block, resuming after the last returned sample. Samples
+     * sharing the last returned timestamp are skipped by count, since the
+     * series keeps equal timestamps in arrival order.
+     */
+    private boolean refill() {
+        if (started && timestamps.length < SeriesChunk.CAPACITY) {
+            grow(); // the previous block was full: long scans copy in chunk-sized blocks
+        }
+        while (true) {
+            long from = started ? timestamp : startTime;
+            int skip = started ? seenAtTimestamp : 0;
+            count = patient.read(typeCode, from, endTime, timestamps, values, decoder);
+            position = 0;
+            while (skip > 0 && position < count && timestamps[position] == from) {
+                position++;
+                skip--;
+            }
+            lastBlock = count < timestamps.length;
+            if (position < count) {
+                return true;
+            }
+            if (lastBlock) {
+                return false;
+            }
+            // the whole block had the current timestamp; read a larger one
+            grow();
+        }
+    }
+
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        timestamps = new long[capacity];
+        values = new double[capacity];
+    }
+}
@@ -0,0 +1,195 @@
+package com.data_management;
+
+/**
+ * Parses CSV record lines of the form
+ * {@code patientId, timestamp, recordType, measurementValue, <unused_field>}
+ * straight from a character buffer into the primitive arrays of a batch.
+ * <p>
+ * Unlike {@link FileDataReader#parseLine(String)} the parser creates no
+ * {@code String}, field array or {@link PatientRecord} per line. Integers and
+ * plain decimals such as {@code 78.0} or {@code -0.125} are converted in place;
+ * a decimal is exact as long as its digits fit in 53 bits and it has at most
+ * 22 fraction digits, since both are then exactly representable and one
+ * division rounds correctly. Any other number (exponents, {@code NaN},
+ * non-ASCII digits, overflow) falls back to the JDK parser, so the accepted
+ * lines and parsed values are exactly those of {@code parseLine}. Record type
+ * spellings are cached with their {@link SignalCatalog} code, so a type only
+ * costs a {@code String} the first time it is seen. A parser is not
+ * thread-safe.
+ */
+final class RecordLineParser {
+    private static final int FIELDS = 5;
+    private static final int TYPE_CACHE_SIZE = 64;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final String[] typeSpellings = new String[TYPE_CACHE_SIZE];
+    private final int[] typeCodes = new int[TYPE_CACHE_SIZE];
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+
+    /**
+     * Parses the line {@code chars[from, to)} into index {@code index} of the
+     * batch arrays. The line must not contain its line terminator.
+     *
+     * @return false if the line is malformed, in which case the arrays are
+     *         unchanged at {@code index}
+     */
+    boolean parse(char[] chars, int from, int to, int[] patientIds, long[] timestamps, int[] codes,
+            double[] values, int index) {
+        if (!split(chars, from, to)) {
+            return false;
+        }
+        try {
+            int patientId = (int) parseLong(chars, 0, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            long timestamp = parseLong(chars, 1, Long.MIN_VALUE, Long.MAX_VALUE);
+            double value = parseDouble(chars, 3);
+            patientIds[index] = patientId;
+            timestamps[index] = timestamp;
+            values[index] = value;
+            codes[index] = typeCode(chars, fieldStarts[2], fieldEnds[2]);
+            return true;
+        } catch (IllegalArgumentException e) { // a malformed number, or a new type with the catalog full
+            System.err.println("Error parsing line: " + new String(chars, from, to - from));
+            return false;
+        }
+    }
+
+    /**
+     * Finds the trimmed bounds of the fields. Like {@code line.split(",")} a
+     * line has five fields if its fifth field is not empty and everything
+     * after it is empty.
+     */
+    private boolean split(char[] chars, int from, int to) {
+        int field = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && chars[i] != ',') {
+                continue;
+            }
+            if (field < FIELDS) {
+                fieldStarts[field] = start;
+                fieldEnds[field] = i;
+            } else if (i > start) {
+                return false; // a non-empty sixth field
+            }
+            field++;
+            start = i + 1;
+        }
+        if (field < FIELDS || fieldEnds[FIELDS - 1] == fieldStarts[FIELDS - 1]) {
+            return false;
+        }
+        for (int f = 0; f < FIELDS; f++) {
+            int s = fieldStarts[f];
+            int e = fieldEnds[f];
+            while (s < e && chars[s] <= ' ') {
+                s++;
+            }
+            while (e > s && chars[e - 1] <= ' ') {
+                e--;
+            }
+            fieldStarts[f] = s;
+            fieldEnds[f] = e;
+        }
+        return true;
+    }
+
+    private long parseLong(char[] chars, int field, long min, long max) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        int i = start;
+        boolean negative = i < end && chars[i] == '-';
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            i++;
+        }
+        // up to 18 digits cannot overflow a long
+        if (i < end && end - i <= 18) {
+            long result = 0;
+            for (; i < end; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                result = result * 10 + (c - '0');
+            }
+            if (i == end) {
+                result = negative ? -result : result;
+                if (result >= min && result <= max) {
+                    return result;
+                }
+            }
+        }
+        String text = new String(chars, start, end - start);
+        return max == Integer.MAX_VALUE ? Integer.parseInt(text) : Long.parseLong(text);
+    }
+
+    private double parseDouble(char[] chars, int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        int i = start;
+        boolean negative = i < end && chars[i] == '-';
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; // -1 until the decimal point is seen
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18) {
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && mantissa <= MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(chars, start, end - start));
+    }
+
+    private int typeCode(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TYPE_CACHE_SIZE - 1);
+        String spelling = typeSpellings[slot];
+        if (spelling != null && matches(spelling, chars, start, end)) {
+            return typeCodes[slot];
+        }
+        spelling = new String(chars, start, end - start);
+        int code = SignalCatalog.code(spelling);
+        typeSpellings[slot] = spelling;
+        typeCodes[slot] = code;
+        return code;
+    }
+
+    private static boolean matches(String spelling, char[] chars, int start, int end) {
+        if (spelling.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (spelling.charAt(i - start) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.data_management;
+
+import java.util.List;
+
+/**
+ * Receives records appended to a {@link DataStorage}, as registered with
+ * {@link DataStorage#subscribe}.
+ */
+@FunctionalInterface
+public interface RecordListener {
+    /**
+     * Called on the subscription's executor with the next batch of appended
+     * records. Calls for one subscription never overlap, and each patient's
+     * records arrive in the order they were added.
+     *
+     * @param records the batch, owned by the listener
+     */
+    void onRecords(List<PatientRecord> records);
+}
@@ -0,0 +1,521 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar time series holding every sample of one record type for one
+ * patient. Samples are kept in a list of {@link SeriesChunk}s rather than as
+ * individual {@link PatientRecord} objects; records are only materialised when
+ * a caller asks for them.
+ * <p>
+ * The series is kept in ascending timestamp order. In-order samples are
+ * appended to the tail chunk; a sample older than the tail takes the slower
+ * path of a sorted insert into the chunk covering its timestamp, splitting that
+ * chunk if it is full. Range lookups binary-search the chunk list and then the
+ * chunk, so a query costs O(log n + k).
+ * <p>
+ * Every chunk except the tail is kept sealed, that is compressed with
+ * {@link ChunkCodec}. Queries decode only the chunks they touch, and a late
+ * sample landing in a sealed chunk decodes it, inserts and seals it again.
+ * <p>
+ * A {@link SummaryTree} over the sealed chunks answers window aggregates
+ * (count, min, max, mean, variance) by merging O(log n) precomputed nodes plus
+ * at most two partially covered edge chunks. Appends update one leaf; changes
+ * that shift chunk positions (splits, eviction) mark the tree for a rebuild on
+ * the next aggregate query.
+ * <p>
+ * A series may have a retention period. Whenever a new chunk is opened, head
+ * chunks whose samples are all older than the retention window are dropped by
+ * reference, so memory stays bounded by the window plus at most one chunk and
+ * no sample data is copied. Queries never return samples older than the
+ * window.
+ * <p>
+ * With a {@link ColdStore}, sealed chunks that end more than the store's hot
+ * window before the newest sample are spilled to it instead of being kept, in
+ * the same way retention drops chunks; the series then holds only the hot
+ * window and {@link Patient} merges the cold tier into its queries.
+ * <p>
+ * Raw reads ({@link #collect}, {@link #read}, {@link #collectDescending},
+ * {@link #collectLatest} and {@link #copySamples}) go through the
+ * {@link SeriesView} published after every write and need no lock. To keep published chunks immutable, a late
+ * sample is inserted into a copy of its chunk, which then replaces it.
+ * Aggregates, rollups and the writer's own checks run under the patient lock.
+ * <p>
+ * Each series also maintains {@link RollupTier}s at one-minute and one-hour
+ * resolution as samples arrive. They outlive the raw retention window, so trend
+ * queries over long ranges read buckets instead of raw samples.
+ */
+final class RecordSeries {
+    static final long MINUTE = 60_000L;
+    static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private final int typeCode;
+    private SeriesChunk[] chunks;
+    private int size;
+    private volatile SeriesView view; // what lock-free readers see
+    private final SummaryTree summaries = new SummaryTree(); // over every chunk but the tail
+    private boolean summariesStale;
+    private long retentionMillis = StorageOptions.UNLIMITED;
+    private ColdStore cold;
+    private int patientId; // the owner, for spilled chunks
+    // finest first; each tier keeps its own retention independent of raw data
+    private final RollupTier[] rollups = {
+        new RollupTier(MINUTE, 7 * DAY),
+        new RollupTier(HOUR, 90 * DAY)
+    };
+
+    /**
+     * Creates an empty series for the given record type.
+     *
+     * @param typeCode the {@link SignalCatalog} code of the record type
+     */
+    RecordSeries(int typeCode) {
+        this.typeCode = typeCode;
+        this.chunks = new SeriesChunk[0];
+        this.view = new SeriesView(typeCode, chunks, 0, retentionMillis);
+    }
+
+    /**
+     * Adds a sample, keeping the series in timestamp order. Samples with equal
+     * timestamps keep their arrival order.
+     *
+     * @param timestamp the sample timestamp in milliseconds since epoch
+     * @param value     the measurement value
+     * @return false if the sample was dropped because it is already outside
+     *         the retention window
+     */
+    boolean add(long timestamp, double value) {
+        for (RollupTier tier : rollups) {
+            tier.add(timestamp, value);
+        }
+        if (timestamp < retentionCutoff()) {
+            return false; // already outside the retention window
+        }
+        int last = chunks.length - 1;
+        if (last < 0 || chunks[last].lastTimestamp() <= timestamp) {
+            append(timestamp, value);
+        } else {
+            insertOutOfOrder(timestamp, value);
+        }
+        size++;
+        publish();
+        return true;
+    }
+
+    /**
+     * Makes the writes so far visible to lock-free readers: appends to the
+     * current tail by advancing its published size, anything else by
+     * publishing a new view.
+     */
+    private void publish() {
+        SeriesView current = view;
+        if (current.isCurrent(chunks, retentionMillis)) {
+            current.advance(chunks[chunks.length - 1].size());
+        } else {
+            view = new SeriesView(typeCode, chunks, size, retentionMillis);
+        }
+    }
+
+    private void append(long timestamp, double value) {
+        int last = chunks.length - 1;
+        if (last < 0 || chunks[last].isFull()) {
+            if (retentionMillis != StorageOptions.UNLIMITED) {
+                evictBefore(timestamp - retentionMillis);
+            }
+            spillBefore(timestamp);
+            last = chunks.length - 1;
+            if (last >= 0) {
+                sealTail();
+            }
+            insertChunk(chunks.length, new SeriesChunk());
+            last++;
+        }
+        chunks[last].append(timestamp, value);
+    }
+
+    /**
+     * Adds samples sorted by timestamp in bulk. When they all follow the current
+     * tail they are copied chunk by chunk; otherwise each goes through
+     * {@link #add}.
+     *
+     * @param timestamps sorted timestamps in milliseconds since epoch
+     * @param values     the matching measurement values
+     * @param from       the index of the first sample to add
+     * @param to         the index after the last sample to add
+     * @return the index of the first sample stored; the samples before it were
+     *         dropped because they are already outside the retention window
+     */
+    int addAll(long[] timestamps, double[] values, int from, int to) {
+        if (from >= to) {
+            return from;
+        }
+        if (timestamps[from] < lastTimestamp() || retentionMillis != StorageOptions.UNLIMITED) {
+            // a sample of the run never moves the cutoff past a later one, so only a prefix is dropped
+            int first = from;
+            while (first < to && timestamps[first] < retentionCutoff()) {
+                for (RollupTier tier : rollups) {
+                    tier.add(timestamps[first], values[first]);
+                }
+                first++;
+            }
+            for (int i = first; i < to; i++) {
+                add(timestamps[i], values[i]);
+            }
+            return first;
+        }
+        for (RollupTier tier : rollups) {
+            for (int i = from; i < to; i++) {
+                tier.add(timestamps[i], values[i]);
+            }
+        }
+        int offset = from;
+        while (offset < to) {
+            int last = chunks.length - 1;
+            if (last < 0 || chunks[last].isFull()) {
+                spillBefore(timestamps[offset]);
+                last = chunks.length - 1;
+                if (last >= 0) {
+                    sealTail();
+                }
+                insertChunk(chunks.length, new SeriesChunk());
+                last++;
+            }
+            offset += chunks[last].appendAll(timestamps, values, offset, to - offset);
+        }
+        size += to - from;
+        publish();
+        return from;
+    }
+
+    /**
+     * Seals the tail chunk before a new one is opened after it, adding it to
+     * the summary tree.
+     */
+    private void sealTail() {
+        int last = chunks.length - 1;
+        chunks[last].seal();
+        updateSummary(last);
+    }
+
+    private void updateSummary(int index) {
+        if (!summariesStale && !summaries.set(index, chunks[index].summary())) {
+            summariesStale = true;
+        }
+    }
+
+    /**
+     * Merges the count, minimum, maximum, mean and variance of the samples in
+     * {@code [startTime, endTime]} into {@code out}.
+     *
+     * @param startTime inclusive lower bound in milliseconds since epoch
+     * @param endTime   inclusive upper bound in milliseconds since epoch
+     * @param out       the summary receiving the samples
+     */
+    void summarize(long startTime, long endTime, SampleSummary out) {
+        startTime = Math.max(startTime, retentionCutoff());
+        int first = firstChunkEndingAtOrAfter(startTime);
+        int last = lastChunkStartingAtOrBefore(endTime);
+        if (first > last) {
+            return;
+        }
+        chunks[first].summarizeRange(startTime, endTime, out);
+        if (last > first) {
+            if (last > first + 1) {
+                if (summariesStale) {
+                    summaries.rebuild(chunks, chunks.length - 1);
+                    summariesStale = false;
+                }
+                summaries.query(first + 1, last, out); // interior chunks lie wholly inside the range
+            }
+            chunks[last].summarizeRange(startTime, endTime, out);
+        }
+    }
+
+    /**
+     * Copies every sample inside the retention window into new arrays. Like
+     * the other raw reads this goes through the published view and takes no
+     * lock; sealed chunks are decoded straight into the new arrays.
+     *
+     * @return the copied samples in ascending timestamp order
+     */
+    Samples copySamples() {
+        return view.copySamples();
+    }
+
+    /**
+     * A detached copy of the samples of one series.
+     */
+    static final class Samples {
+        final String recordType;
+        final long[] timestamps;
+        final double[] values;
+
+        Samples(String recordType, long[] timestamps, double[] values) {
+            this.recordType = recordType;
+            this.timestamps = timestamps;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Drops every chunk whose samples are all older than {@code cutoff}.
+     *
+     * @param cutoff the oldest timestamp that must be kept
+     */
+    void evictBefore(long cutoff) {
+        int drop = 0;
+        while (drop < chunks.length && chunks[drop].lastTimestamp() < cutoff) {
+            size -= chunks[drop].size();
+            drop++;
+        }
+        if (drop > 0) {
+            chunks = Arrays.copyOfRange(chunks, drop, chunks.length);
+            summariesStale = true;
+            publish();
+        }
+    }
+
+    /**
+     * Moves sealed head chunks that end more than the hot window before
+     * {@code newest} to the cold store, if there is one. The tail chunk stays.
+     */
+    private void spillBefore(long newest) {
+        if (cold == null) {
+            return;
+        }
+        long cutoff = newest - cold.getHotMillis();
+        int spill = 0;
+        while (spill < chunks.length - 1 && chunks[spill].lastTimestamp() < cutoff) {
+            cold.spill(patientId, typeCode, chunks[spill]);
+            size -= chunks[spill].size();
+            spill++;
+        }
+        if (spill > 0) {
+            chunks = Arrays.copyOfRange(chunks, spill, chunks.length);
+            summariesStale = true;
+        }
+    }
+
+    /**
+     * Sets the cold store that receives chunks leaving the hot window.
+     *
+     * @param cold      the store, or null to keep every chunk in memory
+     * @param patientId the patient owning this series
+     */
+    void setColdStore(ColdStore cold, int patientId) {
+        this.cold = cold;
+        this.patientId = patientId;
+    }
+
+    /**
+     * @return the oldest timestamp inside the retention window, relative to the
+     *         newest sample
+     */
+    long retentionCutoff() {
+        if (retentionMillis == StorageOptions.UNLIMITED || chunks.length == 0) {
+            return Long.MIN_VALUE;
+        }
+        return lastTimestamp() - retentionMillis;
+    }
+
+    void setRetention(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+        publish();
+    }
+
+    long getRetention() {
+        return retentionMillis;
+    }
+
+    private void insertOutOfOrder(long timestamp, double value) {
+        int index = Math.max(0, lastChunkStartingAtOrBefore(timestamp));
+        // readers may hold the published chunk, so the sample goes into a copy
+        SeriesChunk chunk = chunks[index].copy();
+        chunks = chunks.clone();
+        chunks[index] = chunk;
+        int position = chunk.upperBound(timestamp);
+        if (chunk.isFull()) {
+            SeriesChunk upper = chunk.split();
+            insertChunk(index + 1, upper);
+            if (position > chunk.size()) {
+                position -= chunk.size();
+                chunk = upper;
+            }
+        }
+        chunk.insert(position, timestamp, value);
+        for (int c = index; c < Math.min(index + 2, chunks.length - 1); c++) {
+            chunks[c].seal();
+            updateSummary(c);
+        }
+    }
+
+    private void insertChunk(int index, SeriesChunk chunk) {
+        if (index < chunks.length) {
+            summariesStale = true; // later chunks move to new leaves
+        }
+        SeriesChunk[] grown = new SeriesChunk[chunks.length + 1];
+        System.arraycopy(chunks, 0, grown, 0, index);
+        grown[index] = chunk;
+        System.arraycopy(chunks, index, grown, index + 1, chunks.length - index);
+        chunks = grown;
+    }
+
+    /**
+     * Checks whether a sample with exactly this timestamp and value is stored.
+     *
+     * @param timestamp the sample timestamp in milliseconds since epoch
+     * @param value     the measurement value
+     * @return true if such a sample exists
+     */
+    boolean contains(long timestamp, double value) {
+        for (int c = firstChunkEndingAtOrAfter(timestamp); c < chunks.length; c++) {
+            SeriesChunk chunk = chunks[c].decoded();
+            for (int i = chunk.lowerBound(timestamp); i < chunk.size(); i++) {
+                if (chunk.timestampAt(i) != timestamp) {
+                    return false;
+                }
+                if (chunk.valueAt(i) == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds every sample whose timestamp lies in {@code [startTime, endTime]} to
+     * {@code out} in ascending timestamp order.
+     *
+     * @param patientId the owning patient, copied into each record
+     * @param startTime inclusive lower bound in milliseconds since epoch
+     * @param endTime   inclusive upper bound in milliseconds since epoch
+     * @param out       the list receiving matching records
+     */
+    void collect(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        view.collect(patientId, startTime, endTime, out);
+    }
+
+    /**
+     * Copies samples whose timestamp lies in {@code [startTime, endTime]}, in
+     * ascending order, into the given arrays until they are full. Used by
+     * {@link RecordCursor} to refill its buffer.
+     *
+     * @return the number of samples copied
+     */
+    int read(long startTime, long endTime, long[] timestamps, double[] values, ChunkCodec.Decoder decoder) {
+        return view.read(startTime, endTime, timestamps, values, decoder);
+    }
+
+    /**
+     * Adds every sample whose timestamp lies in {@code [startTime, endTime]} to
+     * {@code out}, newest first.
+     *
+     * @param patientId the owning patient, copied into each record
+     * @param startTime inclusive lower bound in milliseconds since epoch
+     * @param endTime   inclusive upper bound in milliseconds since epoch
+     * @param out       the list receiving matching records
+     */
+    void collectDescending(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        view.collectDescending(patientId, startTime, endTime, out);
+    }
+
+    /**
+     * Summarises the samples in {@code [startTime, endTime]} into buckets of
+     * {@code resolution} milliseconds. The coarsest rollup tier whose width
+     * divides the resolution answers the query; raw samples are only read when
+     * the resolution is finer than every tier. Buckets from a tier cover whole
+     * tier buckets overlapping the range.
+     *
+     * @param startTime  inclusive lower bound in milliseconds since epoch
+     * @param endTime    inclusive upper bound in milliseconds since epoch
+     * @param resolution the requested bucket width in milliseconds
+     * @param out        the list receiving non-empty buckets in time order
+     */
+    void collectRollups(long startTime, long endTime, long resolution, List<RollupBucket> out) {
+        RollupTier source = null;
+        for (RollupTier tier : rollups) {
+            if (tier.getWidth() <= resolution && resolution % tier.getWidth() == 0) {
+                source = tier;
+            }
+        }
+        RollupAccumulator accumulator = new RollupAccumulator(resolution, out);
+        if (source != null) {
+            source.collect(startTime, endTime, accumulator);
+        } else {
+            startTime = Math.max(startTime, retentionCutoff());
+            scan:
+            for (int c = firstChunkEndingAtOrAfter(startTime); c < chunks.length; c++) {
+                SeriesChunk chunk = chunks[c].decoded();
+                for (int i = chunk.lowerBound(startTime); i < chunk.size(); i++) {
+                    if (chunk.timestampAt(i) > endTime) {
+                        break scan;
+                    }
+                    accumulator.add(chunk.timestampAt(i), chunk.valueAt(i));
+                }
+            }
+        }
+        accumulator.flush();
+    }
+
+    /**
+     * Adds the {@code count} most recent samples to {@code out} in ascending
+     * timestamp order, leaving out samples behind the retention cutoff like
+     * every other read.
+     *
+     * @param patientId the owning patient, copied into each record
+     * @param count     the maximum number of samples to add
+     * @param out       the list receiving the records
+     */
+    void collectLatest(int patientId, int count, List<PatientRecord> out) {
+        view.collectLatest(patientId, count, out);
+    }
+
+    private int firstChunkEndingAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = chunks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].lastTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int lastChunkStartingAtOrBefore(long timestamp) {
+        int low = 0;
+        int high = chunks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].firstTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    int getTypeCode() {
+        return typeCode;
+    }
+
+    /**
+     * @return the newest timestamp in the series, or {@link Long#MIN_VALUE} if
+     *         it is empty
+     */
+    long lastTimestamp() {
+        return chunks.length == 0 ? Long.MIN_VALUE : chunks[chunks.length - 1].lastTimestamp();
+    }
+
+    /**
+     * @return the number of samples stored in this series
+     */
+    int size() {
+        return size;
+    }
+}
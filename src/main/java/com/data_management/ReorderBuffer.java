@@ -0,0 +1,228 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ingest-side reorder buffer that hands samples to storage in timestamp order.
+ * <p>
+ * Each patient has a watermark: the highest timestamp seen for the patient
+ * minus the allowed lateness. Samples newer than the watermark wait in a
+ * per-patient min-heap; when the watermark passes them they are appended to
+ * the patient in order, so the series take their append fast path. A sample
+ * that arrives at or below the watermark is late: it is merged straight into
+ * the patient through the sorted insert, which is correct but slower since it
+ * copies, splits and re-seals a chunk.
+ * <p>
+ * Until the watermark passes a sample it is not visible to queries, so queries
+ * and alert strategies see a prefix of the stream that no longer changes
+ * except through late samples.
+ */
+final class ReorderBuffer {
+    private final PatientRegistry patients;
+    private final long latenessMillis;
+    private final Map<Integer, PatientBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong lateSamples = new AtomicLong();
+
+    /**
+     * @param patients       the registry the released samples are written to
+     * @param latenessMillis how far behind the newest timestamp of a patient a
+     *                       sample may arrive and still be appended in order
+     */
+    ReorderBuffer(PatientRegistry patients, long latenessMillis) {
+        if (latenessMillis < 0) {
+            throw new IllegalArgumentException("Lateness must not be negative: " + latenessMillis);
+        }
+        this.patients = patients;
+        this.latenessMillis = latenessMillis;
+    }
+
+    /**
+     * Buffers a sample, releasing every sample of the patient that the advanced
+     * watermark has passed.
+     */
+    void add(int patientId, double value, int typeCode, long timestamp) {
+        PatientBuffer buffer = buffers.computeIfAbsent(patientId, PatientBuffer::new);
+        synchronized (buffer) {
+            if (timestamp <= buffer.watermark) {
+                lateSamples.incrementAndGet();
+                patients.getOrCreate(patientId).addRecord(value, typeCode, timestamp);
+                return;
+            }
+            buffer.push(timestamp, value, typeCode);
+            if (timestamp > buffer.maxTimestamp) {
+                buffer.maxTimestamp = timestamp;
+                release(buffer, timestamp - latenessMillis);
+            }
+        }
+    }
+
+    /**
+     * Advances the watermark of every patient to at least
+     * {@code eventTime - lateness}, releasing samples of patients that have
+     * stopped sending.
+     *
+     * @param eventTime the current event time in milliseconds since epoch
+     */
+    void advance(long eventTime) {
+        for (PatientBuffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                release(buffer, eventTime - latenessMillis);
+            }
+        }
+    }
+
+    /**
+     * Releases every buffered sample, for example at the end of a file import.
+     * Watermarks move up to the newest timestamp seen per patient.
+     */
+    void flush() {
+        for (PatientBuffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                release(buffer, buffer.maxTimestamp);
+            }
+        }
+    }
+
+    /**
+     * @return the watermark of a patient, or {@code Long.MIN_VALUE} if nothing
+     *         has been released for the patient yet
+     */
+    long watermark(int patientId) {
+        PatientBuffer buffer = buffers.get(patientId);
+        if (buffer == null) {
+            return Long.MIN_VALUE;
+        }
+        synchronized (buffer) {
+            return buffer.watermark;
+        }
+    }
+
+    /**
+     * @return the number of buffered samples not yet visible in storage
+     */
+    int pending() {
+        int pending = 0;
+        for (PatientBuffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                pending += buffer.size;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of samples that arrived behind their watermark
+     */
+    long lateSamples() {
+        return lateSamples.get();
+    }
+
+    private void release(PatientBuffer buffer, long watermark) {
+        if (watermark <= buffer.watermark) {
+            return;
+        }
+        buffer.watermark = watermark;
+        if (buffer.size == 0 || buffer.timestamps[0] > watermark) {
+            return;
+        }
+        Patient patient = patients.getOrCreate(buffer.patientId);
+        while (buffer.size > 0 && buffer.timestamps[0] <= watermark) {
+            patient.addRecord(buffer.values[0], buffer.typeCodes[0], buffer.timestamps[0]);
+            buffer.pop();
+        }
+    }
+
+    /**
+     * Binary min-heap of one patient's pending samples, ordered by timestamp and
+     * then by arrival so equal timestamps keep their arrival order. Guarded by
+     * its own monitor.
+     */
+    private static final class PatientBuffer {
+        private static final int INITIAL_CAPACITY = 16;
+
+        final int patientId;
+        long watermark = Long.MIN_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        int size;
+        long[] timestamps = new long[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+        int[] typeCodes = new int[INITIAL_CAPACITY];
+        private long[] arrivals = new long[INITIAL_CAPACITY];
+        private long nextArrival;
+
+        PatientBuffer(int patientId) {
+            this.patientId = patientId;
+        }
+
+        void push(long timestamp, double value, int typeCode) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+                typeCodes = Arrays.copyOf(typeCodes, capacity);
+                arrivals = Arrays.copyOf(arrivals, capacity);
+            }
+            int i = size++;
+            long arrival = nextArrival++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(timestamp, arrival, parent)) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            set(i, timestamp, value, typeCode, arrival);
+        }
+
+        /** Removes the head of the heap. */
+        void pop() {
+            int last = --size;
+            if (last == 0) {
+                return;
+            }
+            long timestamp = timestamps[last];
+            long arrival = arrivals[last];
+            double value = values[last];
+            int typeCode = typeCodes[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= last) {
+                    break;
+                }
+                if (child + 1 < last && before(timestamps[child + 1], arrivals[child + 1], child)) {
+                    child++;
+                }
+                if (!before(timestamps[child], arrivals[child], timestamp, arrival)) {
+                    break;
+                }
+                move(child, i);
+                i = child;
+            }
+            set(i, timestamp, value, typeCode, arrival);
+        }
+
+        private boolean before(long timestamp, long arrival, int index) {
+            return before(timestamp, arrival, timestamps[index], arrivals[index]);
+        }
+
+        private static boolean before(long timestamp, long arrival, long otherTimestamp, long otherArrival) {
+            return timestamp < otherTimestamp || (timestamp == otherTimestamp && arrival < otherArrival);
+        }
+
+        private void move(int from, int to) {
+            set(to, timestamps[from], values[from], typeCodes[from], arrivals[from]);
+        }
+
+        private void set(int index, long timestamp, double value, int typeCode, long arrival) {
+            timestamps[index] = timestamp;
+            values[index] = value;
+            typeCodes[index] = typeCode;
+            arrivals[index] = arrival;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.data_management;
+
+import java.util.List;
+
+/**
+ * Mutable running summary used to build {@link RollupBucket}s of a requested
+ * width, either from raw samples or by merging finer buckets. Buckets that
+ * receive no data are not emitted.
+ */
+final class RollupAccumulator {
+    private final long width;
+    private final List<RollupBucket> out;
+    private long bucketStart = Long.MIN_VALUE;
+    private double min;
+    private double max;
+    private double sum;
+    private long count;
+    private double first;
+    private double last;
+
+    /**
+     * @param width the width of the emitted buckets in milliseconds
+     * @param out   the list receiving completed buckets in time order
+     */
+    RollupAccumulator(long width, List<RollupBucket> out) {
+        this.width = width;
+        this.out = out;
+    }
+
+    /**
+     * Adds a raw sample. Samples must arrive in ascending timestamp order.
+     */
+    void add(long timestamp, double value) {
+        merge(timestamp, value, value, value, 1, value, value);
+    }
+
+    /**
+     * Adds a finer bucket starting at {@code startTime}. Buckets must arrive in
+     * ascending start order.
+     */
+    void merge(long startTime, double min, double max, double sum, long count, double first, double last) {
+        long start = Math.floorDiv(startTime, width) * width;
+        if (start != bucketStart) {
+            flush();
+            bucketStart = start;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.count = count;
+            this.first = first;
+            this.last = last;
+            return;
+        }
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+        this.sum += sum;
+        this.count += count;
+        this.last = last;
+    }
+
+    /**
+     * Emits the bucket in progress, if any.
+     */
+    void flush() {
+        if (count > 0) {
+            out.add(new RollupBucket(bucketStart, width, min, max, sum, count, first, last));
+            count = 0;
+        }
+    }
+}
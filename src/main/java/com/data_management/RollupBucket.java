@@ -0,0 +1,92 @@
+package com.data_management;
+
+/**
+ * Summary of the samples of one record type that fall into a fixed time
+ * bucket: minimum, maximum, sum, count and the first and last value.
+ * Buckets are aligned to multiples of their width since the Unix epoch.
+ */
+public class RollupBucket {
+    private final long startTime;
+    private final long width;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long count;
+    private final double first;
+    private final double last;
+
+    /**
+     * Constructs a bucket summary.
+     *
+     * @param startTime the start of the bucket, in milliseconds since epoch
+     * @param width     the bucket width in milliseconds
+     * @param min       the smallest value in the bucket
+     * @param max       the largest value in the bucket
+     * @param sum       the sum of all values in the bucket
+     * @param count     the number of samples in the bucket
+     * @param first     the value of the earliest sample
+     * @param last      the value of the latest sample
+     */
+    public RollupBucket(long startTime, long width, double min, double max, double sum, long count,
+            double first, double last) {
+        this.startTime = startTime;
+        this.width = width;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * @return the start of the bucket in milliseconds since epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the bucket width in milliseconds
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the value of the earliest sample in the bucket
+     */
+    public double getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the value of the latest sample in the bucket
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * @return the average value of the bucket
+     */
+    public double getMean() {
+        return sum / count;
+    }
+}
@@ -0,0 +1,193 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Downsampled aggregates of one series at a fixed bucket width, maintained as
+ * samples are ingested. Buckets are stored column-wise in ascending start order
+ * and keep min, max, sum, count and the first and last value; the timestamps
+ * of the first and last sample are kept as well so that late samples update
+ * them correctly.
+ * <p>
+ * Buckets older than the tier's retention are dropped from the head by
+ * advancing an offset; the arrays are compacted only when they run out of room
+ * and a quarter of them is already free.
+ */
+final class RollupTier {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final long width;
+    private final long retentionMillis;
+
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private double[] mins = new double[INITIAL_CAPACITY];
+    private double[] maxs = new double[INITIAL_CAPACITY];
+    private double[] sums = new double[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private long[] firstTimes = new long[INITIAL_CAPACITY];
+    private double[] firsts = new double[INITIAL_CAPACITY];
+    private long[] lastTimes = new long[INITIAL_CAPACITY];
+    private double[] lasts = new double[INITIAL_CAPACITY];
+    private int head;
+    private int end;
+
+    /**
+     * @param width           the bucket width in milliseconds
+     * @param retentionMillis how long buckets are kept, relative to the newest
+     *                        sample
+     */
+    RollupTier(long width, long retentionMillis) {
+        this.width = width;
+        this.retentionMillis = retentionMillis;
+    }
+
+    long getWidth() {
+        return width;
+    }
+
+    /**
+     * Folds a sample into the bucket covering its timestamp.
+     */
+    void add(long timestamp, double value) {
+        long start = Math.floorDiv(timestamp, width) * width;
+        int index;
+        if (end > head && starts[end - 1] == start) {
+            index = end - 1;
+        } else if (end == head || starts[end - 1] < start) {
+            if (end > head && start - retentionMillis > starts[head]) {
+                evictBefore(start - retentionMillis);
+            }
+            index = insertBucket(end, start);
+        } else {
+            index = search(start);
+            if (index < 0) {
+                if (start + width <= starts[end - 1] - retentionMillis) {
+                    return; // already outside the retention window
+                }
+                index = insertBucket(-index - 1, start);
+            }
+        }
+        if (counts[index] == 0) {
+            mins[index] = value;
+            maxs[index] = value;
+            firstTimes[index] = timestamp;
+            firsts[index] = value;
+            lastTimes[index] = timestamp;
+            lasts[index] = value;
+        } else {
+            mins[index] = Math.min(mins[index], value);
+            maxs[index] = Math.max(maxs[index], value);
+            if (timestamp < firstTimes[index]) {
+                firstTimes[index] = timestamp;
+                firsts[index] = value;
+            }
+            if (timestamp >= lastTimes[index]) {
+                lastTimes[index] = timestamp;
+                lasts[index] = value;
+            }
+        }
+        sums[index] += value;
+        counts[index]++;
+    }
+
+    /**
+     * Merges every bucket overlapping {@code [startTime, endTime]} into
+     * {@code accumulator}.
+     */
+    void collect(long startTime, long endTime, RollupAccumulator accumulator) {
+        long first = Math.floorDiv(startTime, width) * width;
+        int index = search(first);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        for (; index < end && starts[index] <= endTime; index++) {
+            accumulator.merge(starts[index], mins[index], maxs[index], sums[index], counts[index],
+                    firsts[index], lasts[index]);
+        }
+    }
+
+    private void evictBefore(long cutoff) {
+        while (head < end && starts[head] + width <= cutoff) {
+            head++;
+        }
+    }
+
+    /** Binary search over live buckets; negative result encodes the insert point. */
+    private int search(long start) {
+        int low = head;
+        int high = end - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < start) {
+                low = mid + 1;
+            } else if (starts[mid] > start) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int insertBucket(int index, long start) {
+        if (end == starts.length) {
+            if (head > starts.length / 4) {
+                index -= head;
+                compact();
+            } else {
+                grow();
+            }
+        }
+        int moved = end - index;
+        if (moved > 0) {
+            shift(index, moved);
+        }
+        starts[index] = start;
+        mins[index] = 0;
+        maxs[index] = 0;
+        sums[index] = 0;
+        counts[index] = 0;
+        end++;
+        return index;
+    }
+
+    private void shift(int index, int moved) {
+        System.arraycopy(starts, index, starts, index + 1, moved);
+        System.arraycopy(mins, index, mins, index + 1, moved);
+        System.arraycopy(maxs, index, maxs, index + 1, moved);
+        System.arraycopy(sums, index, sums, index + 1, moved);
+        System.arraycopy(counts, index, counts, index + 1, moved);
+        System.arraycopy(firstTimes, index, firstTimes, index + 1, moved);
+        System.arraycopy(firsts, index, firsts, index + 1, moved);
+        System.arraycopy(lastTimes, index, lastTimes, index + 1, moved);
+        System.arraycopy(lasts, index, lasts, index + 1, moved);
+    }
+
+    private void compact() {
+        int live = end - head;
+        System.arraycopy(starts, head, starts, 0, live);
+        System.arraycopy(mins, head, mins, 0, live);
+        System.arraycopy(maxs, head, maxs, 0, live);
+        System.arraycopy(sums, head, sums, 0, live);
+        System.arraycopy(counts, head, counts, 0, live);
+        System.arraycopy(firstTimes, head, firstTimes, 0, live);
+        System.arraycopy(firsts, head, firsts, 0, live);
+        System.arraycopy(lastTimes, head, lastTimes, 0, live);
+        System.arraycopy(lasts, head, lasts, 0, live);
+        head = 0;
+        end = live;
+    }
+
+    private void grow() {
+        int capacity = starts.length * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        sums = Arrays.copyOf(sums, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        firstTimes = Arrays.copyOf(firstTimes, capacity);
+        firsts = Arrays.copyOf(firsts, capacity);
+        lastTimes = Arrays.copyOf(lastTimes, capacity);
+        lasts = Arrays.copyOf(lasts, capacity);
+    }
+}
@@ -0,0 +1,49 @@
+package com.data_management;
+
+/**
+ * Mutable count, minimum, maximum, mean and sum of squared deviations of a set
+ * of samples. Samples are added with Welford's update and summaries are merged
+ * with Chan's formula, so the variance stays accurate for large counts and
+ * values far from zero.
+ */
+final class SampleSummary {
+    long count;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double mean;
+    double m2; // sum of squared deviations from the mean
+
+    void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    void merge(SampleSummary other) {
+        merge(other.count, other.min, other.max, other.mean, other.m2);
+    }
+
+    void merge(long otherCount, double otherMin, double otherMax, double otherMean, double otherM2) {
+        if (otherCount == 0) {
+            return;
+        }
+        long total = count + otherCount;
+        double delta = otherMean - mean;
+        mean += delta * otherCount / total;
+        m2 += otherM2 + delta * delta * ((double) count * otherCount / total);
+        count = total;
+        min = Math.min(min, otherMin);
+        max = Math.max(max, otherMax);
+    }
+
+    void clear() {
+        count = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        mean = 0;
+        m2 = 0;
+    }
+}
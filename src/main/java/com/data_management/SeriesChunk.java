@@ -0,0 +1,357 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A block of samples stored column-wise in parallel primitive arrays.
+ * Timestamps live in a {@code long[]} and measurement values in a
+ * {@code double[]}, so a sample costs 16 bytes instead of a full
+ * {@link PatientRecord} object.
+ * <p>
+ * Samples inside a chunk are kept in ascending timestamp order. A chunk starts
+ * small and doubles its arrays until it reaches {@link #CAPACITY}, after which
+ * the owning {@link RecordSeries} opens a new chunk. Rarely used record types
+ * therefore stay cheap.
+ * <p>
+ * Once a chunk is no longer the tail of its series it is sealed: its samples
+ * are compressed with {@link ChunkCodec} and the arrays are released. A sealed
+ * chunk still answers {@link #size()}, {@link #firstTimestamp()} and
+ * {@link #lastTimestamp()}; everything else must go through {@link #decoded()},
+ * which decompresses into a short-lived copy.
+ * <p>
+ * Chunks published through a {@link SeriesView} are read without the patient
+ * lock, so the only in-place write to a chunk is an append past its published
+ * size; inserting into a chunk goes through a {@link #copy()}.
+ * <p>
+ * Each chunk keeps a {@link SampleSummary} of its values up to date as samples
+ * are added, so window aggregates can use whole chunks without reading them.
+ */
+final class SeriesChunk {
+    /** Maximum number of samples held by a single chunk. */
+    static final int CAPACITY = 1024;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+    // non-null while sealed, together with the cached bounds below
+    private long[] encoded;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private final SampleSummary summary = new SampleSummary();
+
+    /**
+     * Creates an empty chunk with a small initial capacity.
+     */
+    SeriesChunk() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private SeriesChunk(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Compresses the samples and releases the arrays. Does nothing if the chunk
+     * is already sealed or empty.
+     */
+    void seal() {
+        if (encoded != null || size == 0) {
+            return;
+        }
+        encoded = ChunkCodec.encode(timestamps, values, size);
+        firstTimestamp = timestamps[0];
+        lastTimestamp = timestamps[size - 1];
+        timestamps = null;
+        values = null;
+    }
+
+    /**
+     * @return an unsealed copy of this chunk with its own arrays, which can be
+     *         modified while readers still hold this one
+     */
+    SeriesChunk copy() {
+        SeriesChunk copy = new SeriesChunk(Math.max(size, INITIAL_CAPACITY));
+        copy.size = copyTo(copy.timestamps, copy.values, 0);
+        copy.summary.merge(summary);
+        return copy;
+    }
+
+    /**
+     * @return this chunk if it is not sealed, otherwise a decompressed copy
+     *         valid for reading only
+     */
+    SeriesChunk decoded() {
+        if (encoded == null) {
+            return this;
+        }
+        SeriesChunk copy = new SeriesChunk(size);
+        copy.size = ChunkCodec.decode(encoded, copy.timestamps, copy.values);
+        return copy;
+    }
+
+    boolean isSealed() {
+        return encoded != null;
+    }
+
+    /**
+     * Seals the chunk if needed and returns its {@link ChunkCodec} encoding,
+     * for example to write it to a cold segment without re-encoding.
+     */
+    long[] encoded() {
+        seal();
+        return encoded != null ? encoded : ChunkCodec.encode(timestamps, values, 0);
+    }
+
+    /**
+     * Appends a sample at the end of this chunk, growing the arrays if needed.
+     * The caller guarantees that {@code timestamp} is not older than the last
+     * sample of the chunk.
+     *
+     * @param timestamp the sample timestamp in milliseconds since epoch
+     * @param value     the measurement value
+     */
+    void append(long timestamp, double value) {
+        ensureCapacity();
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+        summary.add(value);
+    }
+
+    /**
+     * Appends up to {@code length} sorted samples in bulk, limited by the room
+     * left in this chunk.
+     *
+     * @param timestamps source timestamps, not older than this chunk's last one
+     * @param values     source values
+     * @param offset     index of the first sample to copy
+     * @param length     number of samples available
+     * @return the number of samples copied
+     */
+    int appendAll(long[] timestamps, double[] values, int offset, int length) {
+        int copied = Math.min(length, CAPACITY - size);
+        if (size + copied > this.timestamps.length) {
+            // grow geometrically so that repeated small bulk appends stay linear
+            int newCapacity = Math.min(CAPACITY, Math.max(size + copied, this.timestamps.length * 2));
+            this.timestamps = Arrays.copyOf(this.timestamps, newCapacity);
+            this.values = Arrays.copyOf(this.values, newCapacity);
+        }
+        System.arraycopy(timestamps, offset, this.timestamps, size, copied);
+        System.arraycopy(values, offset, this.values, size, copied);
+        for (int i = 0; i < copied; i++) {
+            summary.add(values[offset + i]);
+        }
+        size += copied;
+        return copied;
+    }
+
+    /**
+     * Copies this chunk's samples into the given arrays.
+     *
+     * @return the number of samples copied
+     */
+    int copyTo(long[] timestamps, double[] values, int offset) {
+        if (encoded != null) {
+            return ChunkCodec.decode(encoded, timestamps, values, offset);
+        }
+        System.arraycopy(this.timestamps, 0, timestamps, offset, size);
+        System.arraycopy(this.values, 0, values, offset, size);
+        return size;
+    }
+
+    /**
+     * Copies the samples with timestamps in {@code [from, to]} into the given
+     * arrays, in order, until they are full. Sealed chunks are decoded straight
+     * into the arrays without a temporary copy.
+     *
+     * @param from       inclusive lower bound
+     * @param to         inclusive upper bound
+     * @param timestamps receives timestamps from {@code offset}
+     * @param values     receives values from {@code offset}
+     * @param offset     the first free index of the arrays
+     * @param decoder    a reusable decoder for sealed chunks
+     * @return the first free index after copying
+     */
+    int copyRange(long from, long to, long[] timestamps, double[] values, int offset, ChunkCodec.Decoder decoder) {
+        if (encoded != null) {
+            decoder.reset(encoded);
+            while (offset < timestamps.length && decoder.next()) {
+                long timestamp = decoder.timestamp();
+                if (timestamp > to) {
+                    break;
+                }
+                if (timestamp >= from) {
+                    timestamps[offset] = timestamp;
+                    values[offset++] = decoder.value();
+                }
+            }
+            return offset;
+        }
+        int first = lowerBound(from);
+        int copied = Math.min(upperBound(to) - first, timestamps.length - offset);
+        if (copied <= 0) {
+            return offset;
+        }
+        System.arraycopy(this.timestamps, first, timestamps, offset, copied);
+        System.arraycopy(this.values, first, values, offset, copied);
+        return offset + copied;
+    }
+
+    /**
+     * Inserts a sample at {@code index}, shifting later samples one slot to the
+     * right. Used for records that arrive out of order.
+     *
+     * @param index     the position keeping the chunk sorted
+     * @param timestamp the sample timestamp in milliseconds since epoch
+     * @param value     the measurement value
+     */
+    void insert(int index, long timestamp, double value) {
+        ensureCapacity();
+        System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        size++;
+        summary.add(value);
+    }
+
+    /**
+     * Moves the upper half of this full chunk into a new chunk.
+     *
+     * @return the chunk holding the upper half of the samples
+     */
+    SeriesChunk split() {
+        int half = size / 2;
+        SeriesChunk upper = new SeriesChunk(CAPACITY);
+        int moved = size - half;
+        System.arraycopy(timestamps, half, upper.timestamps, 0, moved);
+        System.arraycopy(values, half, upper.values, 0, moved);
+        upper.size = moved;
+        size = half;
+        upper.summarize();
+        summarize();
+        return upper;
+    }
+
+    private void summarize() {
+        summary.clear();
+        for (int i = 0; i < size; i++) {
+            summary.add(values[i]);
+        }
+    }
+
+    /**
+     * @return the running summary of every value in this chunk; callers must
+     *         not modify it
+     */
+    SampleSummary summary() {
+        return summary;
+    }
+
+    /**
+     * Merges the values with timestamps in {@code [from, to]} into
+     * {@code out}. A chunk lying entirely inside the range contributes its
+     * summary without being read.
+     */
+    void summarizeRange(long from, long to, SampleSummary out) {
+        if (size == 0) {
+            return;
+        }
+        if (from <= firstTimestamp() && lastTimestamp() <= to) {
+            out.merge(summary);
+            return;
+        }
+        SeriesChunk chunk = decoded();
+        for (int i = chunk.lowerBound(from), end = chunk.upperBound(to); i < end; i++) {
+            out.add(chunk.values[i]);
+        }
+    }
+
+    /**
+     * Returns the index of the first sample with a timestamp not less than
+     * {@code timestamp}, or {@link #size()} if there is none.
+     */
+    int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first sample with a timestamp greater than
+     * {@code timestamp}, or {@link #size()} if there is none.
+     */
+    int upperBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void ensureCapacity() {
+        if (size == timestamps.length) {
+            int newCapacity = Math.min(CAPACITY, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    /**
+     * @return true once the chunk holds {@link #CAPACITY} samples
+     */
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the timestamp array of an unsealed chunk, only valid up to
+     *         {@link #size()}; replaced when the chunk grows
+     */
+    long[] timestampArray() {
+        return timestamps;
+    }
+
+    /**
+     * @return the value array matching {@link #timestampArray()}
+     */
+    double[] valueArray() {
+        return values;
+    }
+
+    long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    double valueAt(int index) {
+        return values[index];
+    }
+
+    long firstTimestamp() {
+        return encoded != null ? firstTimestamp : timestamps[0];
+    }
+
+    long lastTimestamp() {
+        return encoded != null ? lastTimestamp : timestamps[size - 1];
+    }
+}
@@ -0,0 +1,301 @@
+package com.data_management;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A snapshot of a {@link RecordSeries} that readers use without the patient
+ * lock.
+ * <p>
+ * The series publishes a view through a volatile field whenever its chunk list
+ * changes. Every chunk of a view but the tail is sealed and never modified
+ * again. The tail is referenced by its arrays, which the single writer only
+ * appends to: it stores a sample past the published size and then advances the
+ * size with a release store, so a reader that loads the size with acquire
+ * semantics sees a prefix of the tail in which every sample is complete. When
+ * the tail's arrays grow or a late sample has to go into a published chunk,
+ * the series copies and publishes a new view instead; readers of the old view
+ * keep a consistent, slightly older snapshot. Neither side ever waits for the
+ * other.
+ * <p>
+ * Each read loads the tail size once, so one call sees one snapshot. The
+ * methods mirror the corresponding reads of {@link RecordSeries}.
+ */
+final class SeriesView {
+    private static final long[] NO_TIMESTAMPS = new long[0];
+    private static final double[] NO_VALUES = new double[0];
+    private static final VarHandle TAIL_SIZE;
+
+    static {
+        try {
+            TAIL_SIZE = MethodHandles.lookup().findVarHandle(SeriesView.class, "tailSize", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int typeCode;
+    private final SeriesChunk[] chunks; // the series' chunk array; the last one is the tail
+    private final int sealedCount;
+    private final int sealedSize;
+    private final long[] tailTimestamps;
+    private final double[] tailValues;
+    @SuppressWarnings("unused") // accessed through TAIL_SIZE
+    private int tailSize;
+    private final long retentionMillis;
+
+    /**
+     * Captures the current state of a series. Called by the writer, which then
+     * publishes the view through a volatile write.
+     *
+     * @param typeCode        the record type of the series
+     * @param chunks          the chunk array, not modified in place afterwards
+     * @param size            the number of samples in all chunks
+     * @param retentionMillis the retention period of the series
+     */
+    SeriesView(int typeCode, SeriesChunk[] chunks, int size, long retentionMillis) {
+        this.typeCode = typeCode;
+        this.chunks = chunks;
+        this.retentionMillis = retentionMillis;
+        if (chunks.length == 0) {
+            sealedCount = 0;
+            sealedSize = 0;
+            tailTimestamps = NO_TIMESTAMPS;
+            tailValues = NO_VALUES;
+        } else {
+            SeriesChunk tail = chunks[chunks.length - 1];
+            sealedCount = chunks.length - 1;
+            sealedSize = size - tail.size();
+            tailTimestamps = tail.timestampArray();
+            tailValues = tail.valueArray();
+            tailSize = tail.size();
+        }
+    }
+
+    /**
+     * @return whether appends to the series can still be published through this
+     *         view, that is its chunks, tail arrays and retention are unchanged
+     */
+    boolean isCurrent(SeriesChunk[] chunks, long retentionMillis) {
+        return this.chunks == chunks && this.retentionMillis == retentionMillis && chunks.length > 0
+                && chunks[chunks.length - 1].timestampArray() == tailTimestamps;
+    }
+
+    /**
+     * Publishes samples the writer has appended to the tail arrays.
+     *
+     * @param size the new number of samples in the tail
+     */
+    void advance(int size) {
+        TAIL_SIZE.setRelease(this, size);
+    }
+
+    private int tailSize() {
+        return (int) TAIL_SIZE.getAcquire(this);
+    }
+
+    private long retentionCutoff(int tail) {
+        if (retentionMillis == StorageOptions.UNLIMITED) {
+            return Long.MIN_VALUE;
+        }
+        if (tail > 0) {
+            return tailTimestamps[tail - 1] - retentionMillis;
+        }
+        return sealedCount > 0 ? chunks[sealedCount - 1].lastTimestamp() - retentionMillis : Long.MIN_VALUE;
+    }
+
+    /**
+     * See {@link RecordSeries#collect}.
+     */
+    void collect(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        int tail = tailSize();
+        startTime = Math.max(startTime, retentionCutoff(tail));
+        for (int c = firstSealedEndingAtOrAfter(startTime); c < sealedCount; c++) {
+            SeriesChunk chunk = chunks[c].decoded();
+            for (int i = chunk.lowerBound(startTime); i < chunk.size(); i++) {
+                long timestamp = chunk.timestampAt(i);
+                if (timestamp > endTime) {
+                    return;
+                }
+                out.add(new PatientRecord(patientId, chunk.valueAt(i), typeCode, timestamp));
+            }
+        }
+        for (int i = lowerBound(tail, startTime); i < tail && tailTimestamps[i] <= endTime; i++) {
+            out.add(new PatientRecord(patientId, tailValues[i], typeCode, tailTimestamps[i]));
+        }
+    }
+
+    /**
+     * See {@link RecordSeries#read}.
+     */
+    int read(long startTime, long endTime, long[] timestamps, double[] values, ChunkCodec.Decoder decoder) {
+        int tail = tailSize();
+        startTime = Math.max(startTime, retentionCutoff(tail));
+        int count = 0;
+        for (int c = firstSealedEndingAtOrAfter(startTime); c < sealedCount && count < timestamps.length; c++) {
+            SeriesChunk chunk = chunks[c];
+            if (chunk.firstTimestamp() > endTime) {
+                return count;
+            }
+            count = chunk.copyRange(startTime, endTime, timestamps, values, count, decoder);
+        }
+        int first = lowerBound(tail, startTime);
+        int copied = Math.min(upperBound(tail, endTime) - first, timestamps.length - count);
+        if (copied > 0) {
+            System.arraycopy(tailTimestamps, first, timestamps, count, copied);
+            System.arraycopy(tailValues, first, values, count, copied);
+            count += copied;
+        }
+        return count;
+    }
+
+    /**
+     * See {@link RecordSeries#collectDescending}.
+     */
+    void collectDescending(int patientId, long startTime, long endTime, List<PatientRecord> out) {
+        int tail = tailSize();
+        startTime = Math.max(startTime, retentionCutoff(tail));
+        for (int i = upperBound(tail, endTime) - 1; i >= 0; i--) {
+            if (tailTimestamps[i] < startTime) {
+                return;
+            }
+            out.add(new PatientRecord(patientId, tailValues[i], typeCode, tailTimestamps[i]));
+        }
+        for (int c = lastSealedStartingAtOrBefore(endTime); c >= 0; c--) {
+            SeriesChunk chunk = chunks[c].decoded();
+            for (int i = chunk.upperBound(endTime) - 1; i >= 0; i--) {
+                long timestamp = chunk.timestampAt(i);
+                if (timestamp < startTime) {
+                    return;
+                }
+                out.add(new PatientRecord(patientId, chunk.valueAt(i), typeCode, timestamp));
+            }
+        }
+    }
+
+    /**
+     * See {@link RecordSeries#collectLatest}.
+     */
+    void collectLatest(int patientId, int count, List<PatientRecord> out) {
+        int tail = tailSize();
+        int remaining = Math.min(count, sealedSize + tail);
+        if (remaining <= 0) {
+            return;
+        }
+        long cutoff = retentionCutoff(tail);
+        int fromTail = Math.min(remaining, tail);
+        remaining -= fromTail;
+        if (remaining > 0) {
+            int c = sealedCount - 1;
+            while (c > 0 && remaining > chunks[c].size()) {
+                remaining -= chunks[c].size();
+                c--;
+            }
+            for (int i = chunks[c].size() - remaining; c < sealedCount; c++, i = 0) {
+                if (chunks[c].lastTimestamp() < cutoff) {
+                    continue;
+                }
+                SeriesChunk chunk = chunks[c].decoded();
+                for (; i < chunk.size(); i++) {
+                    long timestamp = chunk.timestampAt(i);
+                    if (timestamp >= cutoff) {
+                        out.add(new PatientRecord(patientId, chunk.valueAt(i), typeCode, timestamp));
+                    }
+                }
+            }
+        }
+        for (int i = tail - fromTail; i < tail; i++) {
+            if (tailTimestamps[i] >= cutoff) {
+                out.add(new PatientRecord(patientId, tailValues[i], typeCode, tailTimestamps[i]));
+            }
+        }
+    }
+
+    /**
+     * See {@link RecordSeries#copySamples}.
+     */
+    RecordSeries.Samples copySamples() {
+        int tail = tailSize();
+        long cutoff = retentionCutoff(tail);
+        int first = firstSealedEndingAtOrAfter(cutoff);
+        int total = tail;
+        for (int c = first; c < sealedCount; c++) {
+            total += chunks[c].size();
+        }
+        long[] timestamps = new long[total];
+        double[] values = new double[total];
+        int copied = 0;
+        for (int c = first; c < sealedCount; c++) {
+            copied += chunks[c].copyTo(timestamps, values, copied);
+        }
+        System.arraycopy(tailTimestamps, 0, timestamps, copied, tail);
+        System.arraycopy(tailValues, 0, values, copied, tail);
+        int from = 0;
+        while (from < total && timestamps[from] < cutoff) {
+            from++;
+        }
+        if (from > 0) {
+            timestamps = Arrays.copyOfRange(timestamps, from, total);
+            values = Arrays.copyOfRange(values, from, total);
+        }
+        return new RecordSeries.Samples(SignalCatalog.name(typeCode), timestamps, values);
+    }
+
+    private int firstSealedEndingAtOrAfter(long timestamp) {
+        int low = 0;
+        int high = sealedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].lastTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int lastSealedStartingAtOrBefore(long timestamp) {
+        int low = 0;
+        int high = sealedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].firstTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private int lowerBound(int tail, long timestamp) {
+        int low = 0;
+        int high = tail;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tailTimestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(int tail, long timestamp) {
+        int low = 0;
+        int high = tail;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tailTimestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
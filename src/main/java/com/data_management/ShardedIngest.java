@@ -0,0 +1,186 @@
+package com.data_management;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Partitions ingest across single-writer shard threads.
+ * <p>
+ * Patients are hashed to one of N shards. Each shard owns a bounded
+ * multi-producer, single-consumer ring of primitive slots and a writer thread
+ * that drains it, so every patient is written by exactly one thread and its
+ * monitor is never contended by another writer. Producers claim a slot with
+ * one atomic increment, fill it and publish it with an ordered store of the
+ * slot's sequence number; no slot allocates. A producer that finds its shard
+ * full waits for the writer to catch up.
+ * <p>
+ * Readers are unaffected by sharding. Raw reads and cursors take no lock and
+ * read the {@link SeriesView} each series publishes after a write, so they see
+ * a consistent prefix while the shard writer appends. Aggregates and rollups
+ * take the patient monitor, which only the shard's own writer otherwise
+ * holds.
+ */
+final class ShardedIngest {
+    /** Applies one drained record to storage on the shard's writer thread. */
+    interface Sink {
+        void store(int patientId, double value, int typeCode, long timestamp);
+    }
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+    private static final int SPINS_BEFORE_PARK = 256;
+    private static final long PARK_NANOS = 50_000L;
+
+    private final Shard[] shards;
+
+    /**
+     * Starts one writer thread per shard.
+     *
+     * @param shardCount    the number of shards
+     * @param queueCapacity the slots per shard, rounded up to a power of two
+     * @param sink          receives every record on its shard's writer thread
+     */
+    ShardedIngest(int shardCount, int queueCapacity, Sink sink) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, queueCapacity - 1)) << 1;
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity, sink);
+            Thread writer = new Thread(shards[i], "storage-shard-" + i);
+            writer.setDaemon(true);
+            shards[i].writer = writer;
+            writer.start();
+        }
+    }
+
+    /**
+     * Queues a record on the shard owning the patient.
+     */
+    void add(int patientId, double value, int typeCode, long timestamp) {
+        shards[shardOf(patientId)].offer(patientId, value, typeCode, timestamp);
+    }
+
+    /**
+     * Waits until every record queued before the call has been stored.
+     */
+    void awaitDrained() {
+        for (Shard shard : shards) {
+            shard.awaitDrained();
+        }
+    }
+
+    /**
+     * Stores every queued record and stops the writer threads. Records must
+     * not be added afterwards.
+     *
+     * @throws InterruptedException if interrupted while waiting for a writer
+     */
+    void close() throws InterruptedException {
+        awaitDrained();
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.writer);
+        }
+        for (Shard shard : shards) {
+            shard.writer.join();
+        }
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    int shardOf(int patientId) {
+        int hash = patientId * 0x9E3779B9; // spread dense IDs across shards
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    private static final class Shard implements Runnable {
+        private final int mask;
+        private final long[] timestamps;
+        private final double[] values;
+        private final int[] patientIds;
+        private final int[] typeCodes;
+        // slot i holds position p once sequences[i] == p + 1
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final Sink sink;
+        private volatile long head; // written by the writer thread only
+        private volatile boolean running = true;
+        private Thread writer;
+
+        Shard(int capacity, Sink sink) {
+            this.mask = capacity - 1;
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+            this.patientIds = new int[capacity];
+            this.typeCodes = new int[capacity];
+            this.sequences = new AtomicLongArray(capacity);
+            this.sink = sink;
+        }
+
+        void offer(int patientId, double value, int typeCode, long timestamp) {
+            long position = tail.getAndIncrement();
+            int spins = 0;
+            while (position - head > mask) {
+                spins = pause(spins);
+            }
+            int slot = (int) position & mask;
+            timestamps[slot] = timestamp;
+            values[slot] = value;
+            patientIds[slot] = patientId;
+            typeCodes[slot] = typeCode;
+            sequences.lazySet(slot, position + 1);
+            if (spins > 0 || position == head) {
+                LockSupport.unpark(writer); // the writer may be parked on an empty ring
+            }
+        }
+
+        @Override
+        public void run() {
+            long position = head;
+            int spins = 0;
+            while (true) {
+                int slot = (int) position & mask;
+                if (sequences.get(slot) == position + 1) {
+                    try {
+                        sink.store(patientIds[slot], values[slot], typeCodes[slot], timestamps[slot]);
+                    } catch (RuntimeException e) {
+                        // a bad record must not stop the shard, or its producers would block
+                        System.err.println("Error storing record for patient " + patientIds[slot] + ": " + e);
+                    }
+                    position++;
+                    head = position;
+                    spins = 0;
+                } else if (!running && position == tail.get()) {
+                    return;
+                } else {
+                    spins = pause(spins);
+                }
+            }
+        }
+
+        void awaitDrained() {
+            long target = tail.get();
+            int spins = 0;
+            while (head < target) {
+                LockSupport.unpark(writer);
+                spins = pause(spins);
+            }
+        }
+
+        private static int pause(int spins) {
+            if (spins < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            return spins + 1;
+        }
+    }
+}
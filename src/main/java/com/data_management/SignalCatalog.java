@@ -0,0 +1,140 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Central catalog mapping record type names to compact integer codes.
+ * <p>
+ * Readers translate the record type of each incoming line into a code once, at
+ * parse time; storage, queries and alert strategies then work with the code.
+ * Names are matched case-insensitively and known aliases resolve to their
+ * canonical signal, so the simulator's {@code "SystolicPressure"} and
+ * {@code "Saturation"} land in the same series as
+ * {@code "SystolicBloodPressure"} and {@code "BloodOxygen"}. A name that is not
+ * in the catalog is registered on first use under the spelling first seen.
+ * <p>
+ * Codes index per-patient arrays, so the catalog holds at most
+ * {@link #MAX_TYPES} record types; once it is full, new names are rejected.
+ * Reads and queries resolve names with {@link #lookup}, which never registers.
+ * <p>
+ * Codes are assigned per JVM and must not be persisted; files store names.
+ */
+public final class SignalCatalog {
+    public static final int ECG = 0;
+    public static final int SYSTOLIC_BLOOD_PRESSURE = 1;
+    public static final int DIASTOLIC_BLOOD_PRESSURE = 2;
+    public static final int BLOOD_OXYGEN = 3;
+    public static final int HEART_RATE = 4;
+    public static final int CHOLESTEROL = 5;
+    public static final int WHITE_BLOOD_CELLS = 6;
+    public static final int RED_BLOOD_CELLS = 7;
+    public static final int ALERT = 8;
+    public static final int MANUAL_TRIGGER = 9;
+
+    /** Returned by {@link #lookup} for a name that has never been registered. */
+    public static final int UNKNOWN = -1;
+
+    /** The most record types the catalog registers, aliases not counted. */
+    public static final int MAX_TYPES = 1024;
+    private static final int MAX_SPELLINGS = 4 * MAX_TYPES;
+
+    // every exact spelling seen so far, so the common path avoids case folding
+    private static final Map<String, Integer> codesBySpelling = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> codesByFoldedName = new HashMap<>(); // guarded by the class
+    private static volatile String[] names = new String[0];
+
+    static {
+        register("ECG");
+        register("SystolicBloodPressure");
+        register("DiastolicBloodPressure");
+        register("BloodOxygen");
+        register("HeartRate");
+        register("Cholesterol");
+        register("WhiteBloodCells");
+        register("RedBloodCells");
+        register("Alert");
+        register("ManualTrigger");
+        alias("SystolicPressure", SYSTOLIC_BLOOD_PRESSURE);
+        alias("DiastolicPressure", DIASTOLIC_BLOOD_PRESSURE);
+        alias("Saturation", BLOOD_OXYGEN);
+    }
+
+    private SignalCatalog() {
+    }
+
+    /**
+     * Returns the code of a record type, registering the name if it is new.
+     *
+     * @param recordType the record type name or alias, matched case-insensitively
+     * @return the code of the canonical signal
+     * @throws IllegalArgumentException if the name is new and the catalog
+     *                                  already holds {@link #MAX_TYPES} types
+     */
+    public static int code(String recordType) {
+        Integer code = codesBySpelling.get(recordType);
+        return code != null ? code : register(recordType);
+    }
+
+    /**
+     * Returns the code of a record type without registering it. Queries use
+     * this so that asking for an unknown type does not grow the catalog.
+     *
+     * @param recordType the record type name or alias, matched case-insensitively
+     * @return the code of the canonical signal, or {@link #UNKNOWN}
+     */
+    public static int lookup(String recordType) {
+        Integer code = codesBySpelling.get(recordType);
+        if (code == null) {
+            synchronized (SignalCatalog.class) {
+                code = codesByFoldedName.get(recordType.toLowerCase(Locale.ROOT));
+            }
+        }
+        return code != null ? code : UNKNOWN;
+    }
+
+    /**
+     * @param code a record type code
+     * @return whether the code has been assigned to a record type
+     */
+    public static boolean isAssigned(int code) {
+        return code >= 0 && code < names.length;
+    }
+
+    /**
+     * @param code a code returned by {@link #code}
+     * @return the canonical name of the signal
+     * @throws ArrayIndexOutOfBoundsException if the code was never assigned
+     */
+    public static String name(int code) {
+        return names[code];
+    }
+
+    private static synchronized int register(String recordType) {
+        String folded = recordType.toLowerCase(Locale.ROOT);
+        Integer code = codesByFoldedName.get(folded);
+        if (code == null) {
+            if (names.length >= MAX_TYPES) {
+                throw new IllegalArgumentException("Record type catalog is full (" + MAX_TYPES
+                        + " types), rejecting new type " + recordType);
+            }
+            code = names.length;
+            String[] grown = Arrays.copyOf(names, code + 1);
+            grown[code] = recordType;
+            names = grown;
+            codesByFoldedName.put(folded, code);
+        }
+        if (codesBySpelling.size() < MAX_SPELLINGS) { // case variants of a name are unbounded
+            codesBySpelling.put(recordType, code);
+        }
+        return code;
+    }
+
+    private static void alias(String alias, int code) {
+        codesByFoldedName.put(alias.toLowerCase(Locale.ROOT), code);
+        codesBySpelling.put(alias, code);
+    }
+}
@@ -0,0 +1,92 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tuning settings shared by a {@link DataStorage} and the patients it creates.
+ * Patients read these settings when they lazily build their internal
+ * structures, so changes apply to structures created afterwards.
+ */
+final class StorageOptions {
+    /** Settings used by patients created outside of a {@link DataStorage}. */
+    static final StorageOptions DEFAULTS = new StorageOptions();
+
+    /** Retention meaning "keep everything". */
+    static final long UNLIMITED = Long.MAX_VALUE;
+
+    private volatile int duplicateBloomBits;
+    private final Map<Integer, Long> retentionByType = new ConcurrentHashMap<>();
+    private volatile ColdStore coldStore;
+    private volatile LatestValueIndex[] latestIndexes = new LatestValueIndex[0]; // by type code, copy on write
+    private final ChangeFeed changeFeed = new ChangeFeed();
+
+    /**
+     * @return the size in bits of the per-patient Bloom filter used for
+     *         duplicate checks beyond the recent horizon, or 0 if disabled
+     */
+    int getDuplicateBloomBits() {
+        return duplicateBloomBits;
+    }
+
+    void setDuplicateBloomBits(int duplicateBloomBits) {
+        if (duplicateBloomBits < 0) {
+            throw new IllegalArgumentException("Bloom filter size must not be negative: " + duplicateBloomBits);
+        }
+        this.duplicateBloomBits = duplicateBloomBits;
+    }
+
+    /**
+     * @param typeCode the {@link SignalCatalog} code of the record type
+     * @return how long samples of this type are kept, in milliseconds
+     */
+    long getRetention(int typeCode) {
+        return retentionByType.getOrDefault(typeCode, UNLIMITED);
+    }
+
+    void setRetention(int typeCode, long retentionMillis) {
+        if (retentionMillis <= 0) {
+            throw new IllegalArgumentException("Retention must be positive: " + retentionMillis);
+        }
+        retentionByType.put(typeCode, retentionMillis);
+    }
+
+    /**
+     * @return the tier receiving chunks that leave the hot window, or null if
+     *         every sample stays in memory
+     */
+    ColdStore getColdStore() {
+        return coldStore;
+    }
+
+    void setColdStore(ColdStore coldStore) {
+        this.coldStore = coldStore;
+    }
+
+    /**
+     * @param typeCode the {@link SignalCatalog} code of the record type
+     * @return the latest-value index of the type, or null if it is not indexed
+     */
+    LatestValueIndex getLatestIndex(int typeCode) {
+        LatestValueIndex[] indexes = latestIndexes;
+        return typeCode >= 0 && typeCode < indexes.length ? indexes[typeCode] : null;
+    }
+
+    /**
+     * Registers the latest-value index of a type. Patients update it from their
+     * next sample of that type on.
+     */
+    synchronized void addLatestIndex(int typeCode, LatestValueIndex index) {
+        LatestValueIndex[] grown = Arrays.copyOf(latestIndexes, Math.max(latestIndexes.length, typeCode + 1));
+        grown[typeCode] = index;
+        latestIndexes = grown;
+    }
+
+    /**
+     * @return the feed that patients publish every added record to
+     */
+    ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+}
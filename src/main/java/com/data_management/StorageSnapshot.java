@@ -0,0 +1,168 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Compact binary checkpoint of every patient series in a {@link DataStorage}.
+ * <p>
+ * The file starts with a magic number, the version and the write-ahead log
+ * checkpoint as a long ({@link #NO_CHECKPOINT} if no log was enabled; version 1
+ * files have no checkpoint), followed by one block per patient: {@code [int patientId][int seriesCount]}, then per series
+ * {@code [unsigned short nameLength][UTF-8 name][int count]}, {@code count} timestamps
+ * and {@code count} values, both as raw big-endian arrays. A block with
+ * patient ID {@link #END_MARKER} and series count -1 ends the file.
+ * <p>
+ * Writing copies one patient at a time from the series views that lock-free
+ * readers use and writes the copy out, so ingest is never blocked by a
+ * snapshot. The file is written to a temporary sibling and moved into
+ * place, so a crash never leaves a partial snapshot. Loading maps the file and
+ * reads each series with bulk array transfers.
+ */
+final class StorageSnapshot {
+    private static final int MAGIC = 0x43445353; // "CDSS"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_CHECKPOINT = 1;
+    private static final int END_MARKER = Integer.MIN_VALUE;
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+
+    /** The checkpoint of a snapshot written without a write-ahead log. */
+    static final long NO_CHECKPOINT = -1;
+
+    private StorageSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of every patient in {@code patients} to {@code path}.
+     *
+     * @param checkpoint the write-ahead log position up to which every logged
+     *                   record is in {@code patients}, or {@link #NO_CHECKPOINT}
+     * @throws IOException if the file cannot be written, or a record type name
+     *                     is longer than {@value #MAX_NAME_BYTES} bytes in UTF-8
+     */
+    static void write(PatientRegistry patients, Path path, long checkpoint) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(checkpoint);
+            for (Patient patient : patients.toList()) {
+                List<RecordSeries.Samples> series = patient.copySeries();
+                ensureRoom(channel, buffer, 8);
+                buffer.putInt(patient.getPatientId()).putInt(series.size());
+                for (RecordSeries.Samples samples : series) {
+                    byte[] name = samples.recordType.getBytes(StandardCharsets.UTF_8);
+                    if (name.length > MAX_NAME_BYTES) {
+                        throw new IOException("Record type name too long for a snapshot: " + name.length
+                                + " bytes");
+                    }
+                    ensureRoom(channel, buffer, 2 + name.length + 4);
+                    buffer.putShort((short) name.length).put(name).putInt(samples.timestamps.length);
+                    writeLongs(channel, buffer, samples.timestamps);
+                    writeDoubles(channel, buffer, samples.values);
+                }
+            }
+            ensureRoom(channel, buffer, 8);
+            buffer.putInt(END_MARKER).putInt(-1);
+            drain(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot into {@code patients}, adding to any data already there.
+     *
+     * @return the snapshot's write-ahead log checkpoint, or
+     *         {@link #NO_CHECKPOINT}
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static long load(Path path, PatientRegistry patients) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (file.remaining() < 8 || file.getInt() != MAGIC) {
+                throw new IOException("Not a storage snapshot: " + path);
+            }
+            int version = file.getInt();
+            if (version != VERSION && version != VERSION_WITHOUT_CHECKPOINT) {
+                throw new IOException("Unsupported storage snapshot version " + version + ": " + path);
+            }
+            long checkpoint = version == VERSION ? file.getLong() : NO_CHECKPOINT;
+            if (checkpoint < NO_CHECKPOINT) {
+                throw new IOException("Corrupt storage snapshot: checkpoint " + checkpoint + " in " + path);
+            }
+            while (true) {
+                int patientId = file.getInt();
+                int seriesCount = file.getInt();
+                if (patientId == END_MARKER && seriesCount == -1) {
+                    return checkpoint;
+                }
+                Patient patient = patients.getOrCreate(patientId);
+                for (int s = 0; s < seriesCount; s++) {
+                    byte[] name = new byte[file.getShort() & 0xFFFF];
+                    file.get(name);
+                    int count = file.getInt();
+                    if (count < 0 || (long) count * 16 > file.remaining()) {
+                        throw new IOException("Corrupt storage snapshot: series of " + count + " samples with "
+                                + file.remaining() + " bytes left in " + path);
+                    }
+                    long[] timestamps = new long[count];
+                    double[] values = new double[count];
+                    file.asLongBuffer().get(timestamps);
+                    file.position(file.position() + count * 8);
+                    file.asDoubleBuffer().get(values);
+                    file.position(file.position() + count * 8);
+                    patient.addRecords(new String(name, StandardCharsets.UTF_8), timestamps, values, count);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated storage snapshot: " + path, e);
+        }
+    }
+
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, long[] array) throws IOException {
+        int offset = 0;
+        while (offset < array.length) {
+            ensureRoom(channel, buffer, 8);
+            int n = Math.min(array.length - offset, buffer.remaining() / 8);
+            buffer.asLongBuffer().put(array, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] array) throws IOException {
+        int offset = 0;
+        while (offset < array.length) {
+            ensureRoom(channel, buffer, 8);
+            int n = Math.min(array.length - offset, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(array, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+        }
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A registration of a {@link RecordListener} for appended records, created by
+ * {@link DataStorage#subscribe}.
+ * <p>
+ * Matching records are queued by the writing thread and handed to the listener
+ * by a drain task on the subscription's executor. At most one drain task is
+ * queued or running at a time, so records that arrive while the listener is
+ * busy are delivered together as the next batch: a slow listener receives
+ * fewer, larger batches instead of falling behind one task per record.
+ */
+public final class Subscription implements AutoCloseable {
+    /** Largest batch handed to a listener in one call. */
+    static final int MAX_BATCH = 1024;
+
+    private final ChangeFeed feed;
+    private final int[] patientIds; // sorted, or null for all patients
+    private final boolean[] typeCodes; // by type code, or null for all types
+    private final Executor executor;
+    private final RecordListener listener;
+    private final Queue<PatientRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    Subscription(ChangeFeed feed, int[] patientIds, boolean[] typeCodes, Executor executor,
+            RecordListener listener) {
+        this.feed = feed;
+        this.patientIds = patientIds;
+        this.typeCodes = typeCodes;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Stops delivery. Records queued but not yet delivered are discarded; a
+     * batch already being delivered completes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        feed.remove(this);
+        queue.clear();
+    }
+
+    /**
+     * @return whether {@link #close} has been called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    boolean matches(int patientId, int typeCode) {
+        return (typeCodes == null || (typeCode >= 0 && typeCode < typeCodes.length && typeCodes[typeCode]))
+                && (patientIds == null || Arrays.binarySearch(patientIds, patientId) >= 0);
+    }
+
+    /**
+     * Queues a record and makes sure a drain task is scheduled. Called by
+     * writers under the patient lock, so it never blocks.
+     */
+    void offer(PatientRecord record) {
+        queue.add(record);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!closed && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                System.err.println("Record listener executor rejected delivery; closing subscription");
+                close();
+            }
+        }
+    }
+
+    private void drain() {
+        List<PatientRecord> batch = new ArrayList<>(Math.min(MAX_BATCH, queue.size()));
+        PatientRecord record;
+        while (batch.size() < MAX_BATCH && (record = queue.poll()) != null) {
+            batch.add(record);
+        }
+        if (!batch.isEmpty() && !closed) {
+            try {
+                listener.onRecords(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Error in record listener: " + e.getMessage());
+            }
+        }
+        scheduled.set(false);
+        // a record offered after the last poll saw scheduled still set
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+}
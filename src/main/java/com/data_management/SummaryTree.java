@@ -0,0 +1,111 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Segment tree over the {@link SampleSummary} of consecutive chunks of a
+ * {@link RecordSeries}. Leaf {@code i} summarises chunk {@code i}; an inner
+ * node merges its two children, so the summary of any run of whole chunks is
+ * combined from O(log n) nodes.
+ * <p>
+ * The tree is stored bottom-up in flat arrays, with the root at index 1 and
+ * the leaves from index {@code capacity}.
+ */
+final class SummaryTree {
+    private int capacity;
+    private long[] count;
+    private double[] min;
+    private double[] max;
+    private double[] mean;
+    private double[] m2;
+
+    SummaryTree() {
+        allocate(1);
+    }
+
+    private void allocate(int leaves) {
+        capacity = Integer.highestOneBit(Math.max(1, leaves - 1)) << 1;
+        count = new long[2 * capacity];
+        min = new double[2 * capacity];
+        max = new double[2 * capacity];
+        mean = new double[2 * capacity];
+        m2 = new double[2 * capacity];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Rebuilds the tree from the first {@code leaves} chunks in O(n).
+     */
+    void rebuild(SeriesChunk[] chunks, int leaves) {
+        allocate(2 * leaves); // room to append without an immediate rebuild
+        for (int i = 0; i < leaves; i++) {
+            store(capacity + i, chunks[i].summary());
+        }
+        for (int node = capacity - 1; node > 0; node--) {
+            combine(node);
+        }
+    }
+
+    /**
+     * Replaces the summary of one leaf in O(log n).
+     *
+     * @return false if the leaf lies beyond the capacity and the tree must be
+     *         rebuilt
+     */
+    boolean set(int leaf, SampleSummary summary) {
+        if (leaf >= capacity) {
+            return false;
+        }
+        int node = capacity + leaf;
+        store(node, summary);
+        for (node >>>= 1; node > 0; node >>>= 1) {
+            combine(node);
+        }
+        return true;
+    }
+
+    /**
+     * Merges the summaries of leaves {@code [from, to)} into {@code out}.
+     */
+    void query(int from, int to, SampleSummary out) {
+        for (int low = from + capacity, high = to + capacity; low < high; low >>>= 1, high >>>= 1) {
+            if ((low & 1) == 1) {
+                mergeInto(low++, out);
+            }
+            if ((high & 1) == 1) {
+                mergeInto(--high, out);
+            }
+        }
+    }
+
+    private void store(int node, SampleSummary summary) {
+        count[node] = summary.count;
+        min[node] = summary.min;
+        max[node] = summary.max;
+        mean[node] = summary.mean;
+        m2[node] = summary.m2;
+    }
+
+    private void mergeInto(int node, SampleSummary out) {
+        out.merge(count[node], min[node], max[node], mean[node], m2[node]);
+    }
+
+    private void combine(int node) {
+        int left = 2 * node;
+        int right = left + 1;
+        long total = count[left] + count[right];
+        count[node] = total;
+        min[node] = Math.min(min[left], min[right]);
+        max[node] = Math.max(max[left], max[right]);
+        if (count[right] == 0 || count[left] == 0) {
+            int only = count[right] == 0 ? left : right;
+            mean[node] = mean[only];
+            m2[node] = m2[only];
+            return;
+        }
+        double delta = mean[right] - mean[left];
+        mean[node] = mean[left] + delta * count[right] / total;
+        m2[node] = m2[left] + m2[right] + delta * delta * ((double) count[left] * count[right] / total);
+    }
+}
@@ -0,0 +1,70 @@
+package com.data_management;
+
+/**
+ * Count, minimum, maximum, mean and standard deviation of the samples of one
+ * record type within a time window, as returned by
+ * {@link Patient#getAggregate(int, long, long)}.
+ * <p>
+ * For an empty window the count is 0, the minimum and maximum are infinite and
+ * the mean and standard deviation are {@code NaN}.
+ */
+public class WindowAggregate {
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final double variance;
+
+    /**
+     * Constructs an aggregate.
+     *
+     * @param count    the number of samples
+     * @param min      the smallest value
+     * @param max      the largest value
+     * @param mean     the arithmetic mean
+     * @param variance the population variance
+     */
+    public WindowAggregate(long count, double min, double max, double mean, double variance) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.variance = variance;
+    }
+
+    WindowAggregate(SampleSummary summary) {
+        this(summary.count, summary.min, summary.max,
+                summary.count == 0 ? Double.NaN : summary.mean,
+                summary.count == 0 ? Double.NaN : Math.max(0, summary.m2 / summary.count));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return the population variance of the values
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return the population standard deviation of the values
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(variance);
+    }
+}
@@ -0,0 +1,382 @@
+package com.data_management;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of every record ingested into a {@link DataStorage},
+ * used to rebuild the storage after a restart.
+ * <p>
+ * Records are appended to an in-memory batch and written with group commit:
+ * a batch goes to disk when it reaches its size limit or when the flush
+ * interval elapses, whichever comes first. With {@link SyncMode#PER_BATCH}
+ * every written batch is also forced to the storage device; with
+ * {@link SyncMode#PER_INTERVAL} the file is forced once per interval, trading
+ * up to one interval of durability for throughput.
+ * <p>
+ * File layout: a sequence of batches, each {@code [int length][int crc32]}
+ * followed by {@code length} bytes of entries. An entry is either a record type
+ * definition {@code [1][int code][short length][UTF-8 name]} or a record
+ * {@code [2][int patientId][long timestamp][double value][int code]}. Codes
+ * are the {@link SignalCatalog} codes of the writing process; each batch
+ * defines a code before its first use in that batch, so replay maps codes back
+ * through the names and no batch depends on another having been written. A
+ * batch whose write fails is truncated away, and a torn or corrupt trailing
+ * batch is discarded on open.
+ * <p>
+ * Because every batch is self-describing, replay can also start at any batch
+ * boundary. {@link #checkpoint} returns such a boundary for a snapshot to
+ * record, and a log reopened after the snapshot is loaded replays only what
+ * follows it.
+ */
+public final class WriteAheadLog implements Closeable {
+
+    /**
+     * When written batches are forced to the storage device.
+     */
+    public enum SyncMode {
+        /** Force after every batch. */
+        PER_BATCH,
+        /** Force once per flush interval. */
+        PER_INTERVAL
+    }
+
+    /**
+     * Receives records read back from the log.
+     */
+    interface Replayer {
+        void accept(int patientId, double measurementValue, int typeCode, long timestamp);
+    }
+
+    static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+    private static final byte TYPE_ENTRY = 1;
+    private static final byte RECORD_ENTRY = 2;
+    private static final int RECORD_BYTES = 1 + 4 + 8 + 8 + 4;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private final FileChannel channel;
+    private final SyncMode syncMode;
+    private final int batchBytes;
+    private final BitSet definedTypes = new BitSet(); // codes defined in the active batch
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    private boolean closed;
+
+    /**
+     * Opens (or creates) a log, replays its valid contents from
+     * {@code replayFrom} into {@code replayer} and positions it for appending.
+     * A torn trailing batch is truncated.
+     *
+     * @param path                the log file
+     * @param syncMode            when batches are forced to disk
+     * @param batchBytes          the size at which a batch is written immediately
+     * @param flushIntervalMillis the maximum time a record waits in memory
+     * @param replayFrom          the batch boundary to replay from, 0 or a
+     *                            position returned by {@link #checkpoint}
+     * @param replayer            receives every record in the log from
+     *                            {@code replayFrom} on
+     * @throws IOException if the file cannot be opened or read, or is shorter
+     *                     than {@code replayFrom}
+     */
+    WriteAheadLog(Path path, SyncMode syncMode, int batchBytes, long flushIntervalMillis, long replayFrom,
+            Replayer replayer) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.syncMode = syncMode;
+        this.batchBytes = batchBytes;
+        this.active = ByteBuffer.allocate(batchBytes + RECORD_BYTES + 256);
+        this.spare = ByteBuffer.allocate(active.capacity());
+
+        long validLength;
+        try {
+            validLength = replay(replayFrom, replayer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.truncate(validLength);
+        channel.position(validLength);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushOnTimer, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a record to the current batch. The record is durable once its
+     * batch has been written and forced according to the {@link SyncMode}.
+     *
+     * @throws UncheckedIOException if a batch write fails
+     * @throws IllegalStateException if the log has been closed
+     */
+    void append(int patientId, double measurementValue, int typeCode, long timestamp) {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            if (!definedTypes.get(typeCode)) {
+                byte[] name = SignalCatalog.name(typeCode).getBytes(StandardCharsets.UTF_8);
+                if (name.length > MAX_NAME_BYTES) {
+                    throw new IllegalArgumentException("Record type name too long: " + name.length + " bytes");
+                }
+                ensureRoom(1 + 4 + 2 + name.length);
+                active.put(TYPE_ENTRY).putInt(typeCode).putShort((short) name.length).put(name);
+                definedTypes.set(typeCode);
+            }
+            ensureRoom(RECORD_BYTES);
+            active.put(RECORD_ENTRY).putInt(patientId).putLong(timestamp).putDouble(measurementValue)
+                    .putInt(typeCode);
+            full = active.position() >= batchBytes;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /** Called with the monitor held. */
+    private void ensureRoom(int bytes) {
+        if (active.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(active.capacity() + bytes);
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+    }
+
+    /**
+     * Writes the current batch to the file. Batches are written in the order
+     * they were closed. If the write fails the batch is lost and the file is
+     * truncated back to the end of the previous batch, so later batches are
+     * not appended after a torn one.
+     *
+     * @throws UncheckedIOException if the write fails
+     */
+    void flush() {
+        synchronized (flushLock) {
+            ByteBuffer batch;
+            synchronized (this) {
+                if (active.position() == 0) {
+                    return;
+                }
+                batch = active;
+                active = spare.capacity() >= batch.capacity() ? spare : ByteBuffer.allocate(batch.capacity());
+                active.clear();
+                definedTypes.clear();
+            }
+            long start = -1;
+            try {
+                start = channel.position();
+                batch.flip();
+                CRC32 crc = new CRC32();
+                crc.update(batch.duplicate());
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(batch.remaining()).putInt((int) crc.getValue()).flip();
+                while (header.hasRemaining() || batch.hasRemaining()) {
+                    channel.write(new ByteBuffer[] {header, batch});
+                }
+                if (syncMode == SyncMode.PER_BATCH) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                UncheckedIOException failure = new UncheckedIOException("Failed to write write-ahead log batch", e);
+                if (start >= 0) {
+                    try {
+                        channel.truncate(start);
+                        channel.position(start);
+                    } catch (IOException truncateFailure) {
+                        failure.addSuppressed(truncateFailure);
+                    }
+                }
+                throw failure;
+            } finally {
+                batch.clear();
+                spare = batch;
+            }
+        }
+    }
+
+    /**
+     * Writes the current batch and forces the file to the storage device.
+     *
+     * @throws IOException if the write or force fails
+     */
+    public void sync() throws IOException {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Writes the current batch, forces the file and returns its length. Every
+     * record appended before the call lies before that position, which is a
+     * batch boundary that replay can start from.
+     *
+     * @return the current length of the log
+     * @throws IOException if the write or force fails
+     */
+    long checkpoint() throws IOException {
+        synchronized (flushLock) {
+            sync();
+            return channel.position();
+        }
+    }
+
+    private void flushOnTimer() {
+        try {
+            flush();
+            if (syncMode == SyncMode.PER_INTERVAL) {
+                channel.force(false);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error flushing write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads every complete batch from position {@code from} of the file.
+     *
+     * @return the length of the valid prefix of the file
+     */
+    private long replay(long from, Replayer replayer) throws IOException {
+        long size = channel.size();
+        if (size < from) {
+            throw new IOException("Write-ahead log ends at " + size + " bytes, before the checkpoint at " + from);
+        }
+        if (size == from) {
+            return from;
+        }
+        MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        CRC32 crc = new CRC32();
+        Map<Integer, Integer> typeCodes = new HashMap<>(); // file code to catalog code
+        long valid = from;
+        while (file.remaining() >= HEADER_BYTES) {
+            int length = file.getInt();
+            int checksum = file.getInt();
+            if (length < 0 || length > file.remaining()) {
+                break;
+            }
+            ByteBuffer batch = file.slice();
+            batch.limit(length);
+            crc.reset();
+            crc.update(batch.duplicate());
+            if ((int) crc.getValue() != checksum || !isWellFormed(batch.duplicate(), typeCodes)) {
+                break;
+            }
+            while (batch.hasRemaining()) {
+                byte tag = batch.get();
+                if (tag == TYPE_ENTRY) {
+                    int code = batch.getInt();
+                    byte[] name = new byte[batch.getShort() & 0xFFFF];
+                    batch.get(name);
+                    try {
+                        typeCodes.put(code, SignalCatalog.code(new String(name, StandardCharsets.UTF_8)));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Cannot replay write-ahead log: " + e.getMessage(), e);
+                    }
+                } else {
+                    int patientId = batch.getInt();
+                    long timestamp = batch.getLong();
+                    double value = batch.getDouble();
+                    replayer.accept(patientId, value, typeCodes.get(batch.getInt()), timestamp);
+                }
+            }
+            file.position(file.position() + length);
+            valid = from + file.position();
+        }
+        return valid;
+    }
+
+    /**
+     * Checks that a batch consists of complete entries and only uses codes
+     * defined earlier in the file, before any of it is replayed.
+     *
+     * @param batch     the batch contents; its position is moved
+     * @param typeCodes the codes defined by earlier batches
+     * @return false if the batch is corrupt
+     */
+    private static boolean isWellFormed(ByteBuffer batch, Map<Integer, Integer> typeCodes) {
+        BitSet defined = null; // codes defined in this batch
+        while (batch.hasRemaining()) {
+            byte tag = batch.get();
+            if (tag == TYPE_ENTRY) {
+                if (batch.remaining() < 4 + 2) {
+                    return false;
+                }
+                int code = batch.getInt();
+                int length = batch.getShort() & 0xFFFF;
+                if (code < 0 || length > batch.remaining()) {
+                    return false;
+                }
+                batch.position(batch.position() + length);
+                defined = defined != null ? defined : new BitSet();
+                defined.set(code);
+            } else if (tag == RECORD_ENTRY) {
+                if (batch.remaining() < RECORD_BYTES - 1) {
+                    return false;
+                }
+                batch.position(batch.position() + RECORD_BYTES - 1 - 4);
+                int code = batch.getInt();
+                if (!typeCodes.containsKey(code) && (code < 0 || defined == null || !defined.get(code))) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the background flusher, writes and forces any pending batch and
+     * closes the file.
+     *
+     * @throws IOException if the final write or close fails
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.data_management.cluster;
+
+import com.data_management.PatientRecord;
+import com.data_management.SignalCatalog;
+import com.data_management.WindowAggregate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes storage calls across a cluster of {@link StorageNode}s.
+ * <p>
+ * Each patient is owned by the node the {@link HashRing} assigns it to, so
+ * {@link #addPatientData} and {@link #getRecords} go to that node only.
+ * Cross-patient calls such as {@link #aggregate} fan out: the request is sent
+ * to every node before any reply is read, so the nodes work in parallel, and
+ * the replies are merged.
+ * <p>
+ * The client keeps one connection per node. Writes are pipelined and not
+ * acknowledged; a later read on the same node observes them, since a node
+ * handles the requests of a connection in order. The client is thread-safe;
+ * calls to the same node are serialized.
+ * <pre>
+ *     try (ClusterClient cluster = new ClusterClient(addresses)) {
+ *         cluster.addPatientData(42, 98.0, SignalCatalog.BLOOD_OXYGEN, now);
+ *         List&lt;PatientRecord&gt; records = cluster.getRecords(42, now - 60_000, now);
+ *     }
+ * </pre>
+ */
+public class ClusterClient implements Closeable {
+    private final HashRing ring;
+    private final Connection[] connections;
+
+    /**
+     * Connects to every node. Node names on the ring are
+     * {@code host:port} as given by the addresses.
+     *
+     * @param nodes the node addresses
+     * @throws IOException if a node cannot be reached
+     */
+    public ClusterClient(List<InetSocketAddress> nodes) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (InetSocketAddress node : nodes) {
+            names.add(name(node));
+        }
+        this.ring = new HashRing(names);
+        this.connections = new Connection[nodes.size()];
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                connections[i] = new Connection(nodes.get(i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the ring the client routes by
+     */
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Sends a record to the node owning the patient.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param recordType       the type of record, matched case-insensitively
+     * @param timestamp        the time of the measurement, in milliseconds
+     *                         since the Unix epoch
+     * @throws IOException if the node cannot be reached
+     */
+    public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp)
+            throws IOException {
+        addPatientData(patientId, measurementValue, SignalCatalog.code(recordType), timestamp);
+    }
+
+    /**
+     * Sends a record whose type is a {@link SignalCatalog} code to the node
+     * owning the patient. The record is buffered and written with the next
+     * request to that node or once the buffer fills.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param typeCode         the record type code
+     * @param timestamp        the time of the measurement, in milliseconds
+     *                         since the Unix epoch
+     * @throws IOException if the node cannot be reached
+     */
+    public void addPatientData(int patientId, double measurementValue, int typeCode, long timestamp)
+            throws IOException {
+        Connection connection = connections[ring.nodeIndexFor(patientId)];
+        synchronized (connection) {
+            connection.types.define(connection.out, typeCode);
+            connection.out.writeByte(ClusterProtocol.ADD);
+            connection.out.writeInt(patientId);
+            connection.out.writeInt(typeCode);
+            connection.out.writeLong(timestamp);
+            connection.out.writeDouble(measurementValue);
+        }
+    }
+
+    /**
+     * Retrieves all records of a patient within a time range from its node.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records, or an empty list if the patient is unknown
+     * @throws IOException if the node cannot be reached or reports an error
+     */
+    public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) throws IOException {
+        Connection connection = connections[ring.nodeIndexFor(patientId)];
+        synchronized (connection) {
+            connection.out.writeByte(ClusterProtocol.GET_ALL_RECORDS);
+            connection.out.writeInt(patientId);
+            connection.out.writeLong(startTime);
+            connection.out.writeLong(endTime);
+            connection.out.flush();
+            return connection.readRecords(patientId);
+        }
+    }
+
+    /**
+     * Retrieves the records of one type of a patient within a time range from
+     * its node.
+     *
+     * @param patientId the unique identifier of the patient
+     * @param typeCode  the {@link SignalCatalog} code of the record type
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the matching records in ascending timestamp order
+     * @throws IOException if the node cannot be reached or reports an error
+     */
+    public List<PatientRecord> getRecords(int patientId, int typeCode, long startTime, long endTime)
+            throws IOException {
+        if (typeCode == SignalCatalog.UNKNOWN) {
+            return new ArrayList<>();
+        }
+        Connection connection = connections[ring.nodeIndexFor(patientId)];
+        synchronized (connection) {
+            connection.types.define(connection.out, typeCode);
+            connection.out.writeByte(ClusterProtocol.GET_RECORDS);
+            connection.out.writeInt(patientId);
+            connection.out.writeInt(typeCode);
+            connection.out.writeLong(startTime);
+            connection.out.writeLong(endTime);
+            connection.out.flush();
+            return connection.readRecords(patientId);
+        }
+    }
+
+    /**
+     * Computes the window aggregate of one record type for every patient in the
+     * cluster. Every node aggregates its own patients in parallel.
+     *
+     * @param typeCode  the {@link SignalCatalog} code of the record type
+     * @param startTime the start of the time range, in milliseconds since the
+     *                  Unix epoch
+     * @param endTime   the end of the time range, in milliseconds since the Unix
+     *                  epoch
+     * @return the aggregates of the patients with samples in the window, keyed
+     *         by patient ID
+     * @throws IOException if a node cannot be reached or reports an error
+     */
+    public Map<Integer, WindowAggregate> aggregate(int typeCode, long startTime, long endTime)
+            throws IOException {
+        Map<Integer, WindowAggregate> results = new HashMap<>();
+        fanOut(connection -> {
+            connection.types.define(connection.out, typeCode);
+            connection.out.writeByte(ClusterProtocol.AGGREGATE);
+            connection.out.writeInt(typeCode);
+            connection.out.writeLong(startTime);
+            connection.out.writeLong(endTime);
+        }, connection -> {
+            DataInputStream in = connection.in;
+            connection.expect(ClusterProtocol.AGGREGATES);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int patientId = in.readInt();
+                results.put(patientId, new WindowAggregate(in.readLong(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble()));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Waits until every node has stored every record sent to it so far.
+     *
+     * @throws IOException if a node cannot be reached or reports an error
+     */
+    public void sync() throws IOException {
+        fanOut(connection -> connection.out.writeByte(ClusterProtocol.SYNC),
+                connection -> connection.expect(ClusterProtocol.ACK));
+    }
+
+    /**
+     * Closes every connection. Buffered records are written first.
+     *
+     * @throws IOException if a connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Connection connection : connections) {
+            if (connection == null) {
+                continue;
+            }
+            synchronized (connection) {
+                IOException flushFailure = null;
+                try {
+                    connection.out.flush();
+                } catch (IOException e) {
+                    flushFailure = e;
+                    failure = e;
+                } finally {
+                    try {
+                        connection.socket.close();
+                    } catch (IOException e) {
+                        if (flushFailure != null) {
+                            flushFailure.addSuppressed(e);
+                        } else {
+                            failure = e;
+                        }
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private interface Step {
+        void run(Connection connection) throws IOException;
+    }
+
+    /**
+     * Sends a request to every node, then reads every reply. The connections
+     * are locked in index order, so concurrent fan-outs cannot deadlock.
+     */
+    private void fanOut(Step request, Step reply) throws IOException {
+        fanOut(0, request, reply);
+    }
+
+    private void fanOut(int index, Step request, Step reply) throws IOException {
+        if (index == connections.length) {
+            for (Connection connection : connections) {
+                request.run(connection);
+                connection.out.flush();
+            }
+            for (Connection connection : connections) {
+                reply.run(connection);
+            }
+            return;
+        }
+        synchronized (connections[index]) {
+            fanOut(index + 1, request, reply);
+        }
+    }
+
+    private static String name(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    /**
+     * One connection to a node with its type definitions in both directions.
+     * Guarded by its own monitor.
+     */
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final ClusterProtocol.TypeWriter types = new ClusterProtocol.TypeWriter();
+        final ClusterProtocol.TypeReader replyTypes = new ClusterProtocol.TypeReader();
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ClusterProtocol.MAGIC);
+        }
+
+        /**
+         * Reads type definitions up to the next reply frame and checks that it
+         * is the expected one.
+         */
+        void expect(byte opcode) throws IOException {
+            while (true) {
+                int received = in.readByte();
+                if (received == ClusterProtocol.DEFINE_TYPE) {
+                    replyTypes.readDefinition(in);
+                } else if (received == ClusterProtocol.ERROR) {
+                    throw new IOException("Node " + socket.getRemoteSocketAddress() + ": " + in.readUTF());
+                } else if (received != opcode) {
+                    throw new IOException("Unexpected reply " + received + " from " + socket.getRemoteSocketAddress());
+                } else {
+                    return;
+                }
+            }
+        }
+
+        List<PatientRecord> readRecords(int patientId) throws IOException {
+            expect(ClusterProtocol.RECORDS);
+            int count = in.readInt();
+            List<PatientRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int typeCode = replyTypes.localCode(in.readInt());
+                long timestamp = in.readLong();
+                records.add(new PatientRecord(patientId, in.readDouble(), typeCode, timestamp));
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.data_management.cluster;
+
+import com.data_management.SignalCatalog;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Wire format shared by {@link StorageNode} and {@link ClusterClient}.
+ * <p>
+ * A connection starts with the client sending {@link #MAGIC}. After that both
+ * sides exchange frames that begin with a one-byte opcode, with all numbers in
+ * big-endian order as written by {@link DataOutputStream}:
+ * <pre>
+ *   DEFINE_TYPE     [int code][UTF name]             either direction
+ *   ADD             [int patientId][int code][long timestamp][double value]
+ *   GET_RECORDS     [int patientId][int code][long start][long end]
+ *   GET_ALL_RECORDS [int patientId][long start][long end]
+ *   AGGREGATE       [int code][long start][long end]
+ *   SYNC
+ *   RECORDS         [int n] n x [int code][long timestamp][double value]
+ *   AGGREGATES      [int n] n x [int patientId][long count][double min]
+ *                   [double max][double mean][double variance]
+ *   ACK
+ *   ERROR           [UTF message]
+ * </pre>
+ * Record type codes are the {@link SignalCatalog} codes of the sending JVM.
+ * Each direction defines a code with {@code DEFINE_TYPE} before its first use,
+ * as the write-ahead log does, and the receiver maps it through the name.
+ * {@code ADD} has no reply, so a client can pipeline writes; every other
+ * request is answered by exactly one {@code RECORDS}, {@code AGGREGATES},
+ * {@code ACK} or {@code ERROR} frame, possibly preceded by definitions.
+ * Requests on one connection are handled in order.
+ */
+final class ClusterProtocol {
+    static final int MAGIC = 0x434C5331; // "CLS1"
+
+    static final byte DEFINE_TYPE = 1;
+    static final byte ADD = 2;
+    static final byte GET_RECORDS = 3;
+    static final byte GET_ALL_RECORDS = 4;
+    static final byte AGGREGATE = 5;
+    static final byte SYNC = 6;
+    static final byte RECORDS = 16;
+    static final byte AGGREGATES = 17;
+    static final byte ACK = 18;
+    static final byte ERROR = 31;
+
+    private ClusterProtocol() {
+    }
+
+    /**
+     * Sending half of the type definitions of one connection direction.
+     */
+    static final class TypeWriter {
+        private final BitSet defined = new BitSet();
+
+        /**
+         * Writes a definition frame for {@code code} unless it was already sent.
+         */
+        void define(DataOutputStream out, int code) throws IOException {
+            if (!defined.get(code)) {
+                out.writeByte(DEFINE_TYPE);
+                out.writeInt(code);
+                out.writeUTF(SignalCatalog.name(code));
+                defined.set(code);
+            }
+        }
+    }
+
+    /**
+     * Receiving half: maps the peer's codes to local catalog codes. A defined
+     * type is only registered in the local catalog once a record of it is
+     * stored; queries for a type the catalog does not know resolve to
+     * {@link SignalCatalog#UNKNOWN} and match nothing.
+     */
+    static final class TypeReader {
+        private String[] names = new String[0];
+        private int[] localCodes = new int[0];
+
+        /**
+         * Reads the body of a definition frame.
+         *
+         * @throws IOException if the code is outside the range of catalog codes
+         */
+        void readDefinition(DataInputStream in) throws IOException {
+            int code = in.readInt();
+            String name = in.readUTF();
+            if (code < 0 || code >= SignalCatalog.MAX_TYPES) {
+                throw new IOException("Invalid record type code " + code);
+            }
+            if (code >= localCodes.length) {
+                int length = localCodes.length;
+                int grown = Math.min(Math.max(code + 1, length * 2), SignalCatalog.MAX_TYPES);
+                names = Arrays.copyOf(names, grown);
+                localCodes = Arrays.copyOf(localCodes, grown);
+                Arrays.fill(localCodes, length, grown, SignalCatalog.UNKNOWN);
+            }
+            names[code] = name;
+            localCodes[code] = SignalCatalog.lookup(name);
+        }
+
+        /**
+         * Maps a code of a record to store or return, registering its type
+         * locally if needed.
+         *
+         * @throws IOException if the peer used a code it never defined, or the
+         *                     type is new and the local catalog is full
+         */
+        int localCode(int code) throws IOException {
+            checkDefined(code);
+            if (localCodes[code] == SignalCatalog.UNKNOWN) {
+                try {
+                    localCodes[code] = SignalCatalog.code(names[code]);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+            return localCodes[code];
+        }
+
+        /**
+         * Maps a code of a query without registering its type.
+         *
+         * @return the local code, or {@link SignalCatalog#UNKNOWN} if the type
+         *         is not in the local catalog
+         * @throws IOException if the peer used a code it never defined
+         */
+        int lookupCode(int code) throws IOException {
+            checkDefined(code);
+            if (localCodes[code] == SignalCatalog.UNKNOWN) {
+                localCodes[code] = SignalCatalog.lookup(names[code]); // registered since it was defined?
+            }
+            return localCodes[code];
+        }
+
+        private void checkDefined(int code) throws IOException {
+            if (code < 0 || code >= names.length || names[code] == null) {
+                throw new IOException("Undefined record type code " + code);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.data_management.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent-hash ring assigning patient IDs to cluster nodes.
+ * <p>
+ * Every node is placed on a 64-bit ring at {@code virtualNodes} points derived
+ * from its name; a patient belongs to the first node point at or after the
+ * hash of its ID. Adding or removing a node therefore moves only the patients
+ * on the arcs that node gains or loses, about {@code 1/n} of them, and the
+ * virtual points keep the arcs of the nodes roughly equal.
+ * <p>
+ * The ring is immutable and depends only on the node names and the number of
+ * virtual nodes, so every client built from the same list routes identically.
+ */
+public final class HashRing {
+    /** Virtual points per node used by {@link #HashRing(List)}. */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    private final long[] points; // sorted ring positions
+    private final int[] owners;  // node index of each point
+
+    /**
+     * Builds a ring with {@link #DEFAULT_VIRTUAL_NODES} points per node.
+     *
+     * @param nodes the node names, for example {@code "localhost:7001"}
+     */
+    public HashRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param nodes        the node names; must be distinct and non-empty
+     * @param virtualNodes the points per node
+     * @throws IllegalArgumentException if there are no nodes or more than
+     *                                  65,535, a node is listed twice or
+     *                                  {@code virtualNodes} is not positive
+     */
+    public HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        if (nodes.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many nodes: " + nodes.size());
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes must be positive: " + virtualNodes);
+        }
+        if (nodes.stream().distinct().count() != nodes.size()) {
+            throw new IllegalArgumentException("Duplicate node in " + nodes);
+        }
+        this.nodes = List.copyOf(nodes);
+        int size = nodes.size() * virtualNodes;
+        long[] keys = new long[size];
+        for (int node = 0; node < nodes.size(); node++) {
+            long seed = hash(nodes.get(node));
+            for (int v = 0; v < virtualNodes; v++) {
+                // position in the high bits, owner in the low bits, so one sort orders both
+                keys[node * virtualNodes + v] = (mix(seed + v) & ~0xFFFFL) | node;
+            }
+        }
+        Arrays.sort(keys);
+        points = new long[size];
+        owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = keys[i] & ~0xFFFFL;
+            owners[i] = (int) (keys[i] & 0xFFFFL);
+        }
+    }
+
+    /**
+     * @param patientId the unique identifier of the patient
+     * @return the index in {@link #getNodes()} of the node owning the patient
+     */
+    public int nodeIndexFor(int patientId) {
+        long hash = mix(patientId) & ~0xFFFFL;
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * @param patientId the unique identifier of the patient
+     * @return the name of the node owning the patient
+     */
+    public String nodeFor(int patientId) {
+        return nodes.get(nodeIndexFor(patientId));
+    }
+
+    /**
+     * @return the node names in the order given to the constructor
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns a ring with one more node. Patients move only to the new node.
+     *
+     * @param node the name of the node to add
+     * @return the new ring
+     */
+    public HashRing withNode(String node) {
+        List<String> grown = new ArrayList<>(nodes);
+        grown.add(node);
+        return new HashRing(grown, points.length / nodes.size());
+    }
+
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L; // SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
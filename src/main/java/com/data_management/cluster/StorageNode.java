@@ -0,0 +1,224 @@
+package com.data_management.cluster;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.WindowAggregate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves one {@link DataStorage} to {@link ClusterClient}s over the binary
+ * protocol described in {@link ClusterProtocol}.
+ * <p>
+ * A node does not know the cluster layout: it stores whatever patients the
+ * clients route to it, and clients route every patient to the node that owns
+ * it on their {@link HashRing}. Each connection is served by its own thread, so
+ * requests on one connection are handled in order while connections proceed
+ * in parallel against the thread-safe storage.
+ */
+public class StorageNode implements Closeable {
+    private final DataStorage storage;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Starts a node listening on the loopback interface.
+     *
+     * @param storage the storage this node serves
+     * @param port    the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public StorageNode(DataStorage storage, int port) throws IOException {
+        this(storage, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts a node listening on the given address.
+     *
+     * @param storage the storage this node serves
+     * @param address the address to bind
+     * @throws IOException if the address cannot be bound
+     */
+    public StorageNode(DataStorage storage, InetSocketAddress address) throws IOException {
+        this.storage = storage;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        Thread acceptor = new Thread(this::acceptLoop, "storage-node-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the address clients connect to
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    /**
+     * @return the storage this node serves
+     */
+    public DataStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                Thread handler = new Thread(() -> serve(socket), "storage-node-connection-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            if (in.readInt() != ClusterProtocol.MAGIC) {
+                return;
+            }
+            ClusterProtocol.TypeReader types = new ClusterProtocol.TypeReader();
+            ClusterProtocol.TypeWriter replies = new ClusterProtocol.TypeWriter();
+            while (true) {
+                int opcode = in.read();
+                if (opcode < 0) {
+                    return;
+                }
+                handle(opcode, in, out, types, replies);
+            }
+        } catch (EOFException | SocketException e) {
+            // the client went away or the node is closing
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Error serving " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private void handle(int opcode, DataInputStream in, DataOutputStream out, ClusterProtocol.TypeReader types,
+            ClusterProtocol.TypeWriter replies) throws IOException {
+        switch (opcode) {
+            case ClusterProtocol.DEFINE_TYPE:
+                types.readDefinition(in);
+                break;
+            case ClusterProtocol.ADD: {
+                int patientId = in.readInt();
+                int code = types.localCode(in.readInt());
+                long timestamp = in.readLong();
+                double value = in.readDouble();
+                storage.addPatientData(patientId, value, code, timestamp);
+                break;
+            }
+            case ClusterProtocol.GET_RECORDS: {
+                int patientId = in.readInt();
+                int code = types.lookupCode(in.readInt());
+                long start = in.readLong();
+                long end = in.readLong();
+                storage.awaitIngest(); // read your writes when the node ingests through shards
+                writeRecords(out, replies, storage.getRecords(patientId, code, start, end));
+                break;
+            }
+            case ClusterProtocol.GET_ALL_RECORDS: {
+                int patientId = in.readInt();
+                long start = in.readLong();
+                long end = in.readLong();
+                storage.awaitIngest();
+                writeRecords(out, replies, storage.getRecords(patientId, start, end));
+                break;
+            }
+            case ClusterProtocol.AGGREGATE: {
+                int code = types.lookupCode(in.readInt());
+                long start = in.readLong();
+                long end = in.readLong();
+                storage.awaitIngest();
+                writeAggregates(out, storage.mapPatients(patient -> {
+                    WindowAggregate aggregate = patient.getAggregate(code, start, end);
+                    return aggregate.getCount() > 0 ? aggregate : null;
+                }));
+                break;
+            }
+            case ClusterProtocol.SYNC:
+                storage.awaitIngest();
+                out.writeByte(ClusterProtocol.ACK);
+                out.flush();
+                break;
+            default:
+                out.writeByte(ClusterProtocol.ERROR);
+                out.writeUTF("Unknown opcode " + opcode);
+                out.flush();
+                throw new IOException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static void writeRecords(DataOutputStream out, ClusterProtocol.TypeWriter replies,
+            List<PatientRecord> records) throws IOException {
+        for (PatientRecord record : records) {
+            replies.define(out, record.getTypeCode());
+        }
+        out.writeByte(ClusterProtocol.RECORDS);
+        out.writeInt(records.size());
+        for (PatientRecord record : records) {
+            out.writeInt(record.getTypeCode());
+            out.writeLong(record.getTimestamp());
+            out.writeDouble(record.getMeasurementValue());
+        }
+        out.flush();
+    }
+
+    private static void writeAggregates(DataOutputStream out, Map<Integer, WindowAggregate> aggregates)
+            throws IOException {
+        out.writeByte(ClusterProtocol.AGGREGATES);
+        out.writeInt(aggregates.size());
+        for (Map.Entry<Integer, WindowAggregate> entry : aggregates.entrySet()) {
+            WindowAggregate aggregate = entry.getValue();
+            out.writeInt(entry.getKey());
+            out.writeLong(aggregate.getCount());
+            out.writeDouble(aggregate.getMin());
+            out.writeDouble(aggregate.getMax());
+            out.writeDouble(aggregate.getMean());
+            out.writeDouble(aggregate.getVariance());
+        }
+        out.flush();
+    }
+}
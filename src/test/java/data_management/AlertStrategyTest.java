@@ -89,6 +89,22 @@ class AlertStrategyTest {
         Alert result = strategy.evaluate(patient, currentTime - 2000, currentTime);
         assertNull(result);
     }
+
+    /**
+     * Tests that low readings minutes apart are not treated as simultaneous
+     */
+    @Test
+    void testNoAlertWhenLowReadingsAreMinutesApart() {
+        patient.addRecord(85, "SystolicBloodPressure", currentTime - 600_000);
+        patient.addRecord(0.97, "BloodOxygen", currentTime - 590_000);
+        patient.addRecord(0.90, "BloodOxygen", currentTime - 60_000);
+        patient.addRecord(110, "SystolicBloodPressure", currentTime - 55_000);
+
+        assertNull(strategy.evaluate(patient, currentTime - 900_000, currentTime));
+
+        patient.addRecord(85, "SystolicBloodPressure", currentTime - 30_000);
+        assertNotNull(strategy.evaluate(patient, currentTime - 900_000, currentTime));
+    }
 }
 
 /**
@@ -170,6 +186,24 @@ class CriticalBPAlertTest {
         assertEquals("Critical Diastolic Blood Pressure Alert", result.getCondition());
     }
 
+    /**
+     * Tests that the earliest critical reading wins when both kinds occur,
+     * as when all records were scanned in time order
+     */
+    @Test
+    void testEarliestCriticalReadingWins() {
+        patient.addRecord(55, "DiastolicBloodPressure", currentTime - 500);
+        patient.addRecord(185, "SystolicBloodPressure", currentTime);
+        Alert result = strategy.evaluate(patient, currentTime - 1000, currentTime + 1000);
+        assertEquals("Critical Diastolic Blood Pressure Alert", result.getCondition());
+        assertEquals(currentTime - 500, result.getTimestamp());
+
+        patient.addRecord(190, "SystolicBloodPressure", currentTime - 500);
+        result = strategy.evaluate(patient, currentTime - 1000, currentTime + 1000);
+        assertEquals("Critical Systolic Blood Pressure Alert", result.getCondition());
+        assertEquals(currentTime - 500, result.getTimestamp());
+    }
+
     /**
      * Tests that no alert is generated when BP values are normal
      */
@@ -0,0 +1,96 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.ChunkCodec;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for the {@link ChunkCodec} compression of sealed chunks.
+ */
+class ChunkCodecTest {
+
+    /**
+     * Regular, jittered and irregular timestamps with slowly changing, random
+     * and special values must decode exactly.
+     */
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(42);
+        int count = 1024;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long timestamp = Long.MIN_VALUE + 5;
+        for (int i = 0; i < count; i++) {
+            if (i % 4 == 0) {
+                timestamp += 1000;
+            } else if (i % 4 == 1) {
+                timestamp += 1000 + random.nextInt(200);
+            } else if (i % 4 == 2) {
+                timestamp += random.nextInt(5000);
+            } else {
+                timestamp += random.nextInt(Integer.MAX_VALUE);
+            }
+            timestamps[i] = timestamp;
+            values[i] = i % 3 == 0 ? 72.0 + i / 100 : random.nextGaussian();
+        }
+        values[10] = Double.NaN;
+        values[11] = -0.0;
+        values[12] = Double.MAX_VALUE;
+        timestamps[count - 1] = Long.MAX_VALUE;
+
+        long[] encoded = ChunkCodec.encode(timestamps, values, count);
+        assertEquals(count, ChunkCodec.count(encoded));
+        long[] decodedTimestamps = new long[count];
+        double[] decodedValues = new double[count];
+        assertEquals(count, ChunkCodec.decode(encoded, decodedTimestamps, decodedValues));
+        assertArrayEquals(timestamps, decodedTimestamps);
+        for (int i = 0; i < count; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]));
+        }
+        assertEquals(0, ChunkCodec.decode(ChunkCodec.encode(timestamps, values, 0), decodedTimestamps,
+                decodedValues));
+    }
+
+    /**
+     * Slowly changing vitals at a fixed interval must compress well.
+     */
+    @Test
+    void testRegularSeriesCompresses() {
+        int count = 1024;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = 1_700_000_000_000L + i * 1000L;
+            values[i] = 70 + (i / 30) % 5;
+        }
+        long[] encoded = ChunkCodec.encode(timestamps, values, count);
+        assertTrue(encoded.length * 8 * 10 < count * 16, "compressed to " + encoded.length * 8 + " bytes");
+    }
+
+    /**
+     * Late samples landing in sealed chunks must keep the series exact.
+     */
+    @Test
+    void testLateSamplesInSealedChunks() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 10_000; i += 2) {
+            patient.addRecord(i / 10.0, "HeartRate", i);
+        }
+        for (int i = 1; i < 10_000; i += 2) {
+            patient.addRecord(i / 10.0, "HeartRate", i);
+        }
+        List<PatientRecord> records = patient.getRecords(0L, Long.MAX_VALUE);
+        assertEquals(10_000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i, records.get(i).getTimestamp());
+            assertEquals(i / 10.0, records.get(i).getMeasurementValue());
+        }
+        assertEquals(3, patient.getRecordsDescending(5000L, 5002L).size());
+    }
+}
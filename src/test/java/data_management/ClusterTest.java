@@ -0,0 +1,95 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.SignalCatalog;
+import com.data_management.WindowAggregate;
+import com.data_management.cluster.ClusterClient;
+import com.data_management.cluster.HashRing;
+import com.data_management.cluster.StorageNode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of the clustered storage with several nodes on localhost.
+ */
+class ClusterTest {
+
+    @Test
+    void testRoutingAndFanOut() throws IOException {
+        List<StorageNode> nodes = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                StorageNode node = new StorageNode(new DataStorage(), 0);
+                nodes.add(node);
+                addresses.add(node.getAddress());
+            }
+            try (ClusterClient client = new ClusterClient(addresses)) {
+                for (int patientId = 1; patientId <= 300; patientId++) {
+                    for (int t = 0; t < 10; t++) {
+                        client.addPatientData(patientId, patientId + t, SignalCatalog.HEART_RATE, t * 1000L);
+                    }
+                    client.addPatientData(patientId, 0.95, "Saturation", 5000L);
+                }
+
+                List<PatientRecord> records = client.getRecords(42, SignalCatalog.HEART_RATE, 2000L, 4000L);
+                assertEquals(3, records.size());
+                assertEquals(44.0, records.get(0).getMeasurementValue());
+                assertEquals(42, records.get(0).getPatientId());
+                List<PatientRecord> all = client.getRecords(42, 0L, Long.MAX_VALUE);
+                assertEquals(11, all.size());
+                assertTrue(all.stream().anyMatch(record -> record.getRecordType().equals("BloodOxygen")));
+                assertTrue(client.getRecords(9999, 0L, Long.MAX_VALUE).isEmpty());
+
+                Map<Integer, WindowAggregate> aggregates = client.aggregate(SignalCatalog.HEART_RATE, 0L, 9000L);
+                assertEquals(300, aggregates.size());
+                assertEquals(7 + 9, aggregates.get(7).getMax());
+                assertEquals(7 + 4.5, aggregates.get(7).getMean(), 1e-9);
+
+                client.sync();
+                HashRing ring = client.getRing();
+                int total = 0;
+                for (int i = 0; i < nodes.size(); i++) {
+                    int owned = nodes.get(i).getStorage().getAllPatients().size();
+                    assertTrue(owned > 50, "node " + i + " owns " + owned);
+                    total += owned;
+                }
+                assertEquals(300, total);
+                for (int patientId = 1; patientId <= 300; patientId++) {
+                    DataStorage owner = nodes.get(ring.nodeIndexFor(patientId)).getStorage();
+                    assertEquals(11, owner.getRecords(patientId, 0L, Long.MAX_VALUE).size());
+                }
+            }
+        } finally {
+            for (StorageNode node : nodes) {
+                node.close();
+            }
+        }
+    }
+
+    @Test
+    void testAddingNodeMovesPatientsOnlyToIt() {
+        HashRing ring = new HashRing(Arrays.asList("a:1", "b:2", "c:3"));
+        HashRing grown = ring.withNode("d:4");
+        int moved = 0;
+        for (int patientId = 0; patientId < 10_000; patientId++) {
+            String before = ring.nodeFor(patientId);
+            String after = grown.nodeFor(patientId);
+            if (!before.equals(after)) {
+                assertEquals("d:4", after);
+                moved++;
+            }
+        }
+        assertTrue(moved > 1500 && moved < 3500, "moved " + moved);
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(Arrays.asList("a:1", "a:1")));
+    }
+}
@@ -0,0 +1,113 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.SignalCatalog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests of the cold storage tier below the in-memory series.
+ */
+class ColdStorageTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testQueriesMergeHotAndColdTiers() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.enableColdStorage(directory, 600_000L);
+        for (int batch = 0; batch < 6; batch++) {
+            for (int i = batch * 10_000; i < (batch + 1) * 10_000; i++) {
+                storage.addPatientData(1, i, SignalCatalog.HEART_RATE, i * 1000L);
+                storage.addPatientData(2, -i, "BloodOxygen", i * 1000L + 500);
+            }
+            storage.addPatientData(1, -1, SignalCatalog.HEART_RATE, batch * 1000L + 1); // late, already cold
+            storage.flushColdStorage();
+        }
+        assertTrue(segmentFiles() < 4, segmentFiles() + " segments after compaction");
+
+        List<PatientRecord> heartRate = storage.getRecords(1, SignalCatalog.HEART_RATE, 0L, Long.MAX_VALUE);
+        assertEquals(60_006, heartRate.size());
+        for (int i = 1; i < heartRate.size(); i++) {
+            assertTrue(heartRate.get(i - 1).getTimestamp() <= heartRate.get(i).getTimestamp());
+        }
+        assertEquals(-1.0, heartRate.get(1).getMeasurementValue()); // late sample at 1 ms
+        assertEquals(-1.0, heartRate.get(3).getMeasurementValue()); // late sample at 1001 ms
+
+        List<PatientRecord> window = storage.getRecords(2, 1_000_000L, 1_010_000L);
+        assertEquals(10, window.size());
+        assertEquals(-1000.0, window.get(0).getMeasurementValue());
+        assertEquals("BloodOxygen", window.get(0).getRecordType());
+        assertEquals(120_000, storage.getRecords(1, 0L, Long.MAX_VALUE).size()
+                + storage.getRecords(2, 0L, Long.MAX_VALUE).size() - 6);
+        storage.closeColdStorage();
+    }
+
+    @Test
+    void testColdHistorySurvivesRestart() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.enableColdStorage(directory, 60_000L);
+        for (int i = 0; i < 20_000; i++) {
+            storage.addPatientData(7, i % 100, SignalCatalog.ECG, i * 100L);
+        }
+        storage.closeColdStorage();
+        int cold = storage.getRecords(7, 0L, Long.MAX_VALUE).size();
+        assertTrue(cold < 20_000, "hot tier keeps only the recent window");
+
+        DataStorage restarted = new DataStorage();
+        restarted.enableColdStorage(directory, 60_000L);
+        List<PatientRecord> records = restarted.getRecords(7, SignalCatalog.ECG, 0L, Long.MAX_VALUE);
+        assertTrue(records.size() > 15_000, records.size() + " cold records");
+        assertEquals(0L, records.get(0).getTimestamp());
+        assertEquals(records.size(), restarted.getRecords(7, 0L, Long.MAX_VALUE).size());
+        restarted.closeColdStorage();
+    }
+
+    @Test
+    void testCompactionMergesOnlySegmentsOfSimilarSize() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.enableColdStorage(directory, 1000L);
+        Random random = new Random(3);
+        for (int i = 0; i < 400_000; i++) {
+            storage.addPatientData(1, random.nextGaussian(), SignalCatalog.ECG, i);
+        }
+        storage.flushColdStorage();
+        List<Path> large = segmentPaths();
+        for (int batch = 0; batch < 8; batch++) {
+            for (int i = batch * 3000; i < (batch + 1) * 3000; i++) {
+                storage.addPatientData(2, i, SignalCatalog.HEART_RATE, i);
+            }
+            storage.addPatientData(2, 0, SignalCatalog.HEART_RATE, 1_000_000L); // pushes the batch out of the hot window
+            storage.flushColdStorage();
+        }
+        assertTrue(segmentPaths().containsAll(large), "large segments are not rewritten by small compactions");
+        assertTrue(segmentPaths().size() < large.size() + 4, segmentPaths() + " after compaction");
+        assertEquals(400_000, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertEquals(24_008, storage.getRecords(2, 0L, Long.MAX_VALUE).size());
+        storage.closeColdStorage();
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).collect(Collectors.toList());
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+}
@@ -7,8 +7,21 @@ import com.data_management.DataReader;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
+import com.data_management.Subscription;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class DataStorageTest {
   
@@ -100,4 +113,425 @@ class DataStorageTest {
         List<PatientRecord> records = storage.getRecords(1, timestamp, timestamp);
         assertEquals(2, records.size());
     }
+
+    @Test
+    void testGetRecordsByType() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 120.0, "SystolicBloodPressure", 1000L);
+        storage.addPatientData(1, 0.95, "BloodOxygen", 2000L);
+        storage.addPatientData(1, 0.93, "BloodOxygen", 3000L);
+        storage.addPatientData(1, 1.2, "ECG", 2500L);
+
+        List<PatientRecord> records = storage.getRecords(1, "BloodOxygen", 0L, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertTrue(records.stream().allMatch(r -> r.getRecordType().equals("BloodOxygen")));
+        assertEquals(1, storage.getRecords(1, "bloodoxygen", 2500L, 3000L).size());
+        assertTrue(storage.getRecords(1, "HeartRate", 0L, Long.MAX_VALUE).isEmpty());
+        assertTrue(storage.getRecords(2, "BloodOxygen", 0L, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void testConcurrentIngest() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    storage.addPatientData(i % 50, i, "HeartRate", i);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(50, storage.getAllPatients().size());
+        for (int id = 0; id < 50; id++) {
+            assertEquals(160, storage.getRecords(id, 0L, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testSparsePatientIds() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(-5, 1.0, "HeartRate", 1000L);
+        storage.addPatientData(Integer.MAX_VALUE, 2.0, "HeartRate", 1000L);
+        storage.addPatientData(5000, 3.0, "HeartRate", 1000L);
+
+        assertEquals(3, storage.getAllPatients().size());
+        assertEquals(1.0, storage.getRecords(-5, 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+        assertEquals(2.0, storage.getRecords(Integer.MAX_VALUE, 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+        assertEquals(3.0, storage.getRecords(5000, 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testRealTimeDuplicateDetection() {
+        DataStorage storage = new DataStorage();
+        assertTrue(storage.addPatientDataRealTime(1, 75.0, "HeartRate", 1000L));
+        assertFalse(storage.addPatientDataRealTime(1, 75.0, "HeartRate", 1000L));
+        assertTrue(storage.addPatientDataRealTime(1, 76.0, "HeartRate", 1000L));
+        assertTrue(storage.addPatientDataRealTime(1, 75.0, "ECG", 1000L));
+        assertEquals(3, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testRealTimeDuplicatesBeyondRecentHorizon() {
+        for (int bloomBits : new int[] {0, 1 << 16}) {
+            DataStorage storage = new DataStorage();
+            storage.setDuplicateBloomFilterBits(bloomBits);
+            storage.addPatientData(1, 1.0, "HeartRate", 10L); // stored before any real-time check
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(storage.addPatientDataRealTime(1, i, "HeartRate", 100L + i));
+            }
+            assertFalse(storage.addPatientDataRealTime(1, 1.0, "HeartRate", 10L));
+            assertFalse(storage.addPatientDataRealTime(1, 3.0, "HeartRate", 103L));
+            assertTrue(storage.addPatientDataRealTime(1, 4.0, "HeartRate", 103L));
+            assertEquals(5002, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testNaNIsNeverADuplicateInsideOrBeyondHorizon() {
+        DataStorage storage = new DataStorage();
+        assertTrue(storage.addPatientDataRealTime(1, Double.NaN, "HeartRate", 10L));
+        assertTrue(storage.addPatientDataRealTime(1, Double.NaN, "HeartRate", 10L)); // inside the recent index
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(storage.addPatientDataRealTime(1, i, "HeartRate", 100L + i));
+        }
+        assertTrue(storage.addPatientDataRealTime(1, Double.NaN, "HeartRate", 10L)); // only in the series
+        assertEquals(5003, storage.getRecords(1, 0L, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testRetentionPerRecordType() {
+        DataStorage storage = new DataStorage();
+        storage.setRetention("ECG", 10_000L);
+        for (long t = 0; t < 100_000L; t++) {
+            storage.addPatientData(1, 1.0, "ECG", t);
+            if (t % 1000 == 0) {
+                storage.addPatientData(1, 120.0, "SystolicBloodPressure", t);
+            }
+        }
+
+        List<PatientRecord> ecg = storage.getRecords(1, "ECG", 0L, Long.MAX_VALUE);
+        assertEquals(10_001, ecg.size());
+        assertEquals(89_999L, ecg.get(0).getTimestamp());
+        assertEquals(100, storage.getRecords(1, "SystolicBloodPressure", 0L, Long.MAX_VALUE).size());
+
+        storage.setRetention("SystolicBloodPressure", 5_000L);
+        storage.evictExpired(200_000L);
+        assertTrue(storage.getRecords(1, "SystolicBloodPressure", 0L, 150_000L).isEmpty());
+    }
+
+    @Test
+    void testLatestRecordsRespectRetention() {
+        DataStorage storage = new DataStorage();
+        for (long t = 0; t < 5000L; t++) {
+            storage.addPatientData(1, t, "ECG", t);
+        }
+        storage.setRetention("ECG", 1000L);
+
+        List<PatientRecord> all = storage.getRecords(1, 0L, Long.MAX_VALUE);
+        List<PatientRecord> latest = storage.getLatestRecords(1, 5000);
+        assertEquals(1001, all.size());
+        assertEquals(all.size(), latest.size());
+        assertEquals(3999L, latest.get(0).getTimestamp());
+        assertEquals(4999L, latest.get(latest.size() - 1).getTimestamp());
+        assertEquals(10, storage.getLatestRecords(1, 10).size());
+    }
+
+    @Test
+    void testSimulatorAliasesShareCanonicalSeries() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 120.0, "SystolicPressure", 1000L);
+        storage.addPatientData(1, 125.0, "systolicbloodpressure", 2000L);
+        storage.addPatientData(1, 94.0, "Saturation", 1500L);
+
+        List<PatientRecord> systolic = storage.getRecords(1, SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, 0L, 5000L);
+        assertEquals(2, systolic.size());
+        assertEquals("SystolicBloodPressure", systolic.get(0).getRecordType());
+        assertEquals(SignalCatalog.BLOOD_OXYGEN, storage.getRecords(1, "BloodOxygen", 0L, 5000L).get(0).getTypeCode());
+        assertEquals(SignalCatalog.UNKNOWN, SignalCatalog.lookup("NoSuchSignal"));
+        assertTrue(storage.getRecords(1, "NoSuchSignal", 0L, 5000L).isEmpty());
+        assertEquals(SignalCatalog.UNKNOWN, SignalCatalog.lookup("NoSuchSignal"));
+    }
+
+    @Test
+    void testParallelCrossPatientQueries() {
+        DataStorage storage = new DataStorage();
+        long now = 10_000_000L;
+        for (int id = 1; id <= 3000; id++) {
+            int patientId = id % 1000 == 0 ? 5_000_000 + id : id; // a few sparse IDs
+            long last = id % 7 == 0 ? now - 400_000L : now;
+            for (long t = now - 600_000L; t <= last; t += 30_000L) {
+                storage.addPatientData(patientId, 100 + id % 50 + (t == last ? 10 : 0), "SystolicBloodPressure", t);
+            }
+        }
+
+        Map<Integer, Double> maxSystolic = storage.mapPatients(patient -> {
+            RecordCursor cursor = patient.cursor(SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, now - 300_000L, now, null);
+            double max = Double.NEGATIVE_INFINITY;
+            boolean any = false;
+            while (cursor.next()) {
+                max = Math.max(max, cursor.value());
+                any = true;
+            }
+            return any ? max : null;
+        });
+        assertEquals(3000 - 3000 / 7, maxSystolic.size());
+        assertEquals(100 + 1 + 10, maxSystolic.get(1));
+        assertEquals(100 + 0 + 10, maxSystolic.get(5_002_000));
+
+        List<Patient> stale = storage.findPatients(patient -> patient.getLastTimestamp() < now - 60_000L);
+        assertEquals(3000 / 7, stale.size());
+        assertTrue(stale.stream().allMatch(patient -> patient.getPatientId() % 7 == 0
+                || patient.getPatientId() > 5_000_000));
+        assertEquals(3000, storage.patientStream().parallel().count());
+    }
+
+    @Test
+    void testReorderBufferReleasesInOrderBehindWatermark() {
+        DataStorage storage = new DataStorage();
+        storage.enableReorderBuffer(5_000L);
+        Random random = new Random(3);
+        for (long t = 0; t < 100_000L; t += 1000L) {
+            long jittered = Math.max(0, t - random.nextInt(4000));
+            storage.addPatientData(1, jittered, "HeartRate", jittered);
+        }
+        assertEquals(0, storage.getLateRecordCount());
+        long watermark = storage.getWatermark(1);
+        assertTrue(watermark >= 90_000L, "watermark " + watermark);
+        List<PatientRecord> released = storage.getRecords(1, 0L, Long.MAX_VALUE);
+        assertTrue(released.size() < 100);
+        assertTrue(released.stream().allMatch(record -> record.getTimestamp() <= watermark));
+
+        storage.addPatientData(1, -1, "HeartRate", 10_000L); // far behind the watermark
+        assertEquals(1, storage.getLateRecordCount());
+        storage.flushReorderBuffer();
+        List<PatientRecord> records = storage.getRecords(1, 0L, Long.MAX_VALUE);
+        assertEquals(101, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+
+        storage.addPatientData(2, 1, "HeartRate", 50_000L);
+        assertTrue(storage.getRecords(2, 0L, Long.MAX_VALUE).isEmpty());
+        storage.advanceWatermarks(60_000L);
+        assertEquals(1, storage.getRecords(2, 0L, Long.MAX_VALUE).size());
+        assertEquals(Long.MAX_VALUE, new DataStorage().getWatermark(1));
+    }
+
+    @Test
+    void testShardedIngestFromConcurrentProducers() throws Exception {
+        DataStorage storage = new DataStorage();
+        storage.enableSharding(4);
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    int patientId = 1 + (i % 50);
+                    storage.addPatientData(patientId, producer, SignalCatalog.HEART_RATE, i * 4L + producer);
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        storage.awaitIngest();
+        assertEquals(50, storage.getAllPatients().size());
+        for (int patientId = 1; patientId <= 50; patientId++) {
+            List<PatientRecord> records = storage.getRecords(patientId, 0L, Long.MAX_VALUE);
+            assertEquals(4 * 1000, records.size());
+            for (int i = 1; i < records.size(); i++) {
+                assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+            }
+        }
+        storage.disableSharding();
+        storage.addPatientData(1, 1, SignalCatalog.HEART_RATE, -1L);
+        assertEquals(4001, storage.getRecords(1, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testLatestValueIndexMatchesScan() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1000, 0.5, "BloodOxygen", 1L); // stored before the index exists
+        storage.indexLatestValues("BloodOxygen");
+        Random random = new Random(11);
+        double[] latest = new double[1001];
+        latest[1000] = 0.5;
+        for (int round = 0; round < 5; round++) {
+            for (int id = 1; id < 1000; id++) {
+                double value = 0.85 + random.nextInt(150) / 1000.0;
+                storage.addPatientData(id, value, "Saturation", round * 1000L + 10);
+                latest[id] = value;
+                storage.addPatientData(id, 0.0, "BloodOxygen", round * 1000L); // late: not the latest
+            }
+        }
+
+        List<PatientRecord> low = storage.findLatestInRange("BloodOxygen", Double.NEGATIVE_INFINITY, 0.92);
+        long expected = 0;
+        for (int id = 1; id <= 1000; id++) {
+            expected += latest[id] < 0.92 ? 1 : 0;
+        }
+        assertEquals(expected, low.size());
+        for (int i = 0; i < low.size(); i++) {
+            PatientRecord record = low.get(i);
+            assertEquals(latest[record.getPatientId()], record.getMeasurementValue());
+            assertTrue(i == 0 || low.get(i - 1).getMeasurementValue() <= record.getMeasurementValue());
+        }
+        assertEquals(0.5, low.get(0).getMeasurementValue());
+        assertEquals(1000, low.get(0).getPatientId());
+
+        List<PatientRecord> top = storage.getHighestLatest("BloodOxygen", 20);
+        assertEquals(20, top.size());
+        double[] sorted = Arrays.copyOfRange(latest, 1, 1001);
+        Arrays.sort(sorted);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(sorted[sorted.length - 1 - i], top.get(i).getMeasurementValue());
+            assertEquals(4010L, top.get(i).getTimestamp());
+        }
+        assertEquals(0.5, storage.getLowestLatest("BloodOxygen", 1).get(0).getMeasurementValue());
+        assertThrows(IllegalStateException.class, () -> storage.getHighestLatest("HeartRate", 5));
+    }
+
+    @Test
+    void testSubscriptionDeliversFilteredRecordsInOrder() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<PatientRecord> received = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger batches = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Subscription subscription = storage.subscribe(List.of(1, 3), List.of("heartrate"), executor, records -> {
+            batches.incrementAndGet();
+            received.addAll(records);
+            if (received.size() == 20_000) {
+                done.countDown();
+            }
+        });
+        for (int i = 0; i < 10_000; i++) {
+            for (int id = 1; id <= 3; id++) {
+                storage.addPatientData(id, i, "HeartRate", i);
+                storage.addPatientData(id, i, "BloodOxygen", i);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        long[] next = new long[4];
+        for (PatientRecord record : received) {
+            assertNotEquals(2, record.getPatientId());
+            assertEquals("HeartRate", record.getRecordType());
+            assertEquals(next[record.getPatientId()]++, record.getTimestamp());
+        }
+        assertTrue(batches.get() < 20_000, "records are batched");
+
+        subscription.close();
+        assertTrue(subscription.isClosed());
+        storage.addPatientData(1, 1, "HeartRate", 20_000L);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(20_000, received.size());
+    }
+
+    @Test
+    void testSubscriptionSkipsSamplesDroppedByRetention() throws InterruptedException {
+        DataStorage storage = new DataStorage();
+        storage.setRetention("ECG", 10_000L);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        storage.subscribe(List.of(1), List.of("ECG"), executor, records -> {
+            for (PatientRecord record : records) {
+                received.add(record.getTimestamp());
+                if (record.getTimestamp() == 200_000L) {
+                    done.countDown();
+                }
+            }
+        });
+        storage.addPatientData(1, 1.0, "ECG", 100_000L);
+        storage.addPatientData(1, 2.0, "ECG", 50_000L); // outside the window
+        int ecg = SignalCatalog.ECG;
+        // an ascending run losing its first sample, then a late run losing its second
+        storage.addPatientDataBatch(new int[] {1, 1, 1}, new long[] {60_000L, 95_000L, 100_001L},
+                new int[] {ecg, ecg, ecg}, new double[] {3, 4, 5}, 3);
+        storage.addPatientDataBatch(new int[] {1, 1}, new long[] {99_000L, 70_000L}, new int[] {ecg, ecg},
+                new double[] {6, 7}, 2);
+        storage.addPatientData(1, 8.0, "ECG", 200_000L);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(100_000L, 95_000L, 100_001L, 99_000L, 200_000L), received);
+        executor.shutdown();
+    }
+
+    @Test
+    void testBatchIngestMatchesSingleRecordIngest() {
+        DataStorage single = new DataStorage();
+        DataStorage batched = new DataStorage();
+        Random random = new Random(22);
+        int[] types = {SignalCatalog.ECG, SignalCatalog.HEART_RATE, SignalCatalog.BLOOD_OXYGEN};
+        int count = 5_000;
+        int[] patientIds = new int[count];
+        long[] timestamps = new long[count];
+        int[] typeCodes = new int[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            patientIds[i] = -2 + random.nextInt(6);
+            // mostly ascending with some late samples
+            timestamps[i] = i - (random.nextInt(10) == 0 ? random.nextInt(50) : 0);
+            typeCodes[i] = types[random.nextInt(types.length)];
+            values[i] = random.nextInt(100);
+            single.addPatientData(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+        }
+        batched.addPatientDataBatch(patientIds, timestamps, typeCodes, values, count / 2);
+        batched.addPatientDataBatch(Arrays.copyOfRange(patientIds, count / 2, count),
+                Arrays.copyOfRange(timestamps, count / 2, count), Arrays.copyOfRange(typeCodes, count / 2, count),
+                Arrays.copyOfRange(values, count / 2, count), count - count / 2);
+
+        for (int id = -2; id <= 3; id++) {
+            for (int type : types) {
+                List<PatientRecord> expected = single.getRecords(id, type, Long.MIN_VALUE, Long.MAX_VALUE);
+                List<PatientRecord> actual = batched.getRecords(id, type, Long.MIN_VALUE, Long.MAX_VALUE);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                    assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+                }
+                PatientRecord latest = single.getLatest(id, SignalCatalog.name(type));
+                assertEquals(latest.getTimestamp(), batched.getLatest(id, SignalCatalog.name(type)).getTimestamp());
+            }
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> batched.addPatientDataBatch(patientIds, timestamps, typeCodes, new double[1], 2));
+    }
+
+    @Test
+    void testUnknownTypeCodesAreRejectedBeforeStoring() {
+        DataStorage storage = new DataStorage();
+        assertThrows(IllegalArgumentException.class,
+                () -> storage.addPatientData(1, 80.0, SignalCatalog.UNKNOWN, 1000L));
+        assertThrows(IllegalArgumentException.class,
+                () -> storage.addPatientData(1, 80.0, Integer.MAX_VALUE, 1000L));
+        int[] typeCodes = {SignalCatalog.HEART_RATE, SignalCatalog.lookup("NoSuchSignal")};
+        assertThrows(IllegalArgumentException.class, () -> storage.addPatientDataBatch(new int[] {1, 1},
+                new long[] {1000L, 2000L}, typeCodes, new double[] {80.0, 81.0}, 2));
+        assertTrue(storage.getRecords(1, 0L, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void testQueriesForUnknownTypesDoNotGrowTheCatalog() {
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+        int next = 0;
+        while (SignalCatalog.isAssigned(next)) {
+            next++;
+        }
+        String unknown = "QueriedButNeverStored";
+        assertTrue(storage.getRecords(1, unknown, 0L, Long.MAX_VALUE).isEmpty());
+        assertNull(storage.getLatest(1, unknown));
+        assertTrue(storage.getRollups(1, unknown, 0L, Long.MAX_VALUE, 60_000L).isEmpty());
+        assertTrue(storage.getDownsampled(1, unknown, 0L, Long.MAX_VALUE, 10).isEmpty());
+        assertEquals(SignalCatalog.UNKNOWN, SignalCatalog.lookup(unknown));
+        assertFalse(SignalCatalog.isAssigned(next));
+    }
 }
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -106,4 +107,55 @@ class FileDataReaderTest {
         assertNull(reader.parseLine("invalid,data"));
         assertNull(reader.parseLine("1,notanumber,HeartRate,78.0,bpm"));
     }
+
+    /**
+     * Lines parsed in bulk from a file must give the same records as
+     * {@link FileDataReader#parseLine(String)}, whatever the number format,
+     * spacing, line terminator or line length.
+     *
+     * @throws IOException if the test file cannot be created
+     */
+    @Test
+    void testBulkParsingMatchesParseLine() throws IOException {
+        String[] valueTexts = {"78.0", " -0.125 ", "1e3", "0.30000000000000004", "+5", "12345678901234567890.5",
+                ".5", "NaN", "7."};
+        StringBuilder text = new StringBuilder();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            String type = i % 3 == 0 ? "ECG" : i % 3 == 1 ? " HeartRate" : "Saturation";
+            String line = (i % 7) + "," + (1000L + i) + "," + type + "," + valueTexts[i % valueTexts.length]
+                    + (i % 11 == 0 ? ",bpm,," : ",x");
+            if (i % 997 == 0) {
+                line = i % 2 == 0 ? "1,notanumber,ECG,1.0,x" : "1,2000,ECG,1.0,x,extra";
+            }
+            lines.add(line);
+            text.append(line).append(i % 5 == 0 ? "\r\n" : "\n");
+        }
+        text.append("3,999999,ECG," + "9".repeat(9000) + ",x"); // longer than the read buffer, no terminator
+        lines.add("3,999999,ECG," + "9".repeat(9000) + ",x");
+        Files.writeString(tempDir.resolve("bulk.txt"), text);
+
+        DataStorage storage = new DataStorage();
+        FileDataReader reader = new FileDataReader(tempDir.toString());
+        reader.readData(storage);
+
+        DataStorage expected = new DataStorage();
+        for (String line : lines) {
+            PatientRecord record = reader.parseLine(line);
+            if (record != null) {
+                expected.addPatientData(record.getPatientId(), record.getMeasurementValue(), record.getRecordType(),
+                        record.getTimestamp());
+            }
+        }
+        for (int id = 0; id < 7; id++) {
+            List<PatientRecord> want = expected.getRecords(id, 0L, Long.MAX_VALUE);
+            List<PatientRecord> got = storage.getRecords(id, 0L, Long.MAX_VALUE);
+            assertEquals(want.size(), got.size());
+            for (int i = 0; i < want.size(); i++) {
+                assertEquals(want.get(i).getTimestamp(), got.get(i).getTimestamp());
+                assertEquals(want.get(i).getTypeCode(), got.get(i).getTypeCode());
+                assertEquals(want.get(i).getMeasurementValue(), got.get(i).getMeasurementValue());
+            }
+        }
+    }
 }
@@ -0,0 +1,409 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.data_management.AlignedCursor;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.RollupBucket;
+import com.data_management.SignalCatalog;
+import com.data_management.WindowAggregate;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit tests for the time-ordered storage behind {@link Patient}.
+ */
+class PatientTest {
+
+    /**
+     * Records added out of order must come back sorted by timestamp.
+     */
+    @Test
+    void testOutOfOrderRecordsAreReturnedSorted() {
+        Patient patient = new Patient(1);
+        patient.addRecord(3.0, "HeartRate", 3000L);
+        patient.addRecord(1.0, "HeartRate", 1000L);
+        patient.addRecord(2.0, "HeartRate", 2000L);
+
+        List<PatientRecord> records = patient.getRecords(0L, Long.MAX_VALUE);
+        assertEquals(3, records.size());
+        assertEquals(1000L, records.get(0).getTimestamp());
+        assertEquals(2000L, records.get(1).getTimestamp());
+        assertEquals(3000L, records.get(2).getTimestamp());
+    }
+
+    /**
+     * Range queries must stay exact across chunk boundaries and chunk splits
+     * caused by late records.
+     */
+    @Test
+    void testRangeQueryAcrossChunksWithLateRecords() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 5000; i += 2) {
+            patient.addRecord(i, "ECG", i);
+        }
+        for (int i = 1; i < 5000; i += 2) {
+            patient.addRecord(i, "ECG", i);
+        }
+
+        List<PatientRecord> records = patient.getRecords(1000L, 3999L);
+        assertEquals(3000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(1000L + i, records.get(i).getTimestamp());
+        }
+    }
+
+    /**
+     * The newest records across all types are returned oldest first.
+     */
+    @Test
+    void testGetLatestRecords() {
+        Patient patient = new Patient(1);
+        patient.addRecord(120, "SystolicBloodPressure", 1000L);
+        patient.addRecord(80, "DiastolicBloodPressure", 2000L);
+        patient.addRecord(0.95, "BloodOxygen", 3000L);
+        patient.addRecord(125, "SystolicBloodPressure", 4000L);
+
+        List<PatientRecord> latest = patient.getLatestRecords(2);
+        assertEquals(2, latest.size());
+        assertEquals(3000L, latest.get(0).getTimestamp());
+        assertEquals(4000L, latest.get(1).getTimestamp());
+        assertTrue(new Patient(2).getLatestRecords(5).isEmpty());
+    }
+
+    /**
+     * Descending queries return the same window newest first.
+     */
+    @Test
+    void testGetRecordsDescending() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 10; i++) {
+            patient.addRecord(i, "HeartRate", i * 1000L);
+        }
+
+        List<PatientRecord> records = patient.getRecordsDescending(2000L, 5000L);
+        assertEquals(4, records.size());
+        assertEquals(5000L, records.get(0).getTimestamp());
+        assertEquals(2000L, records.get(3).getTimestamp());
+    }
+
+    /**
+     * Rollups must summarise each bucket exactly, including late samples, and
+     * coarser resolutions must merge finer buckets.
+     */
+    @Test
+    void testRollupsAtSeveralResolutions() {
+        Patient patient = new Patient(1);
+        long hour = 3_600_000L;
+        for (long t = 0; t < 2 * hour; t += 1000) {
+            patient.addRecord(t / 1000.0, "HeartRate", t);
+        }
+        patient.addRecord(-1.0, "HeartRate", 500L); // late sample in the first minute
+
+        List<RollupBucket> minutes = patient.getRollups("HeartRate", 0L, 2 * hour - 1, 60_000L);
+        assertEquals(120, minutes.size());
+        RollupBucket first = minutes.get(0);
+        assertEquals(0L, first.getStartTime());
+        assertEquals(61, first.getCount());
+        assertEquals(-1.0, first.getMin());
+        assertEquals(59.0, first.getMax());
+        assertEquals(0.0, first.getFirst());
+        assertEquals(59.0, first.getLast());
+
+        List<RollupBucket> fiveMinutes = patient.getRollups("HeartRate", 0L, 2 * hour - 1, 300_000L);
+        assertEquals(24, fiveMinutes.size());
+        assertEquals(300, fiveMinutes.get(1).getCount());
+        assertEquals(449.5, fiveMinutes.get(1).getMean());
+
+        List<RollupBucket> hours = patient.getRollups("HeartRate", 0L, 2 * hour - 1, hour);
+        assertEquals(2, hours.size());
+        assertEquals(3600, hours.get(1).getCount());
+        assertEquals(7199.0, hours.get(1).getMax());
+
+        List<RollupBucket> raw = patient.getRollups("HeartRate", 10_000L, 19_999L, 5_000L);
+        assertEquals(2, raw.size());
+        assertEquals(5, raw.get(0).getCount());
+    }
+
+    /**
+     * A cursor must return the same samples as {@code getRecords}, across
+     * compressed chunks and runs of equal timestamps longer than its buffer,
+     * and must be reusable.
+     */
+    @Test
+    void testCursorMatchesGetRecords() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 5000; i++) {
+            patient.addRecord(i, "HeartRate", i < 3000 ? 7L : i);
+        }
+        patient.addRecord(-1.0, "HeartRate", 4000L);
+
+        List<PatientRecord> expected = patient.getRecords(SignalCatalog.HEART_RATE, 5L, 4500L);
+        RecordCursor cursor = patient.cursor(SignalCatalog.HEART_RATE, 5L, 4500L, null);
+        int index = 0;
+        while (cursor.next()) {
+            assertEquals(expected.get(index).getTimestamp(), cursor.timestamp());
+            assertEquals(expected.get(index).getMeasurementValue(), cursor.value());
+            index++;
+        }
+        assertEquals(expected.size(), index);
+        assertFalse(cursor.next());
+
+        assertSame(cursor, patient.cursor(SignalCatalog.ECG, 0L, Long.MAX_VALUE, cursor));
+        assertFalse(cursor.next());
+        patient.cursor(SignalCatalog.HEART_RATE, 4999L, 4999L, cursor);
+        assertTrue(cursor.next());
+        assertEquals(4999.0, cursor.value());
+        assertFalse(cursor.next());
+    }
+
+    /**
+     * Window aggregates must match a brute-force scan for arbitrary windows,
+     * including after late samples split and re-seal chunks.
+     */
+    @Test
+    void testWindowAggregatesMatchScan() {
+        Patient patient = new Patient(1);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            long timestamp = i % 50 == 0 ? random.nextInt(20_000) : i;
+            patient.addRecord(95 + random.nextGaussian(), "BloodOxygen", timestamp);
+        }
+        for (int round = 0; round < 200; round++) {
+            long start = random.nextInt(20_000);
+            long end = start + random.nextInt(20_000);
+            List<PatientRecord> records = patient.getRecords(SignalCatalog.BLOOD_OXYGEN, start, end);
+            WindowAggregate aggregate = patient.getAggregate(SignalCatalog.BLOOD_OXYGEN, start, end);
+            assertEquals(records.size(), aggregate.getCount());
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (PatientRecord record : records) {
+                sum += record.getMeasurementValue();
+                min = Math.min(min, record.getMeasurementValue());
+                max = Math.max(max, record.getMeasurementValue());
+            }
+            double mean = sum / records.size();
+            double squares = 0;
+            for (PatientRecord record : records) {
+                squares += (record.getMeasurementValue() - mean) * (record.getMeasurementValue() - mean);
+            }
+            assertEquals(min, aggregate.getMin());
+            assertEquals(max, aggregate.getMax());
+            assertEquals(mean, aggregate.getMean(), 1e-9);
+            assertEquals(Math.sqrt(squares / records.size()), aggregate.getStandardDeviation(), 1e-9);
+        }
+        assertEquals(0, patient.getAggregate(SignalCatalog.ECG, 0L, 100L).getCount());
+        assertTrue(Double.isNaN(patient.getAggregate(SignalCatalog.BLOOD_OXYGEN, 30_000L, 40_000L).getMean()));
+    }
+
+    /**
+     * The latest slot must follow in-order samples, ignore late ones and never
+     * expose a torn (timestamp, value) pair to a concurrent reader.
+     */
+    @Test
+    void testLatestSlotIsConsistentUnderConcurrentWrites() throws InterruptedException {
+        Patient patient = new Patient(1);
+        assertNull(patient.getLatest("HeartRate"));
+        patient.addRecord(70, "HeartRate", 1000L);
+        patient.addRecord(60, "HeartRate", 500L); // late
+        PatientRecord latest = patient.getLatest("heartrate");
+        assertEquals(1000L, latest.getTimestamp());
+        assertEquals(70.0, latest.getMeasurementValue());
+        assertNull(patient.getLatest("NoSuchType"));
+        assertNull(patient.getLatest(SignalCatalog.ECG));
+
+        int samples = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= samples; i++) {
+                patient.addRecord(i, "BloodOxygen", i);
+            }
+        });
+        writer.start();
+        long previous = 0;
+        while (previous < samples) {
+            PatientRecord record = patient.getLatest(SignalCatalog.BLOOD_OXYGEN);
+            if (record != null) {
+                assertEquals((double) record.getTimestamp(), record.getMeasurementValue());
+                assertTrue(record.getTimestamp() >= previous);
+                previous = record.getTimestamp();
+            }
+            Thread.yield();
+        }
+        writer.join();
+    }
+
+    /**
+     * Lock-free readers racing a writer must always see a gap-free, untorn
+     * prefix of the series, across chunk rollovers and array growth, and late
+     * inserts must not disturb a reader's snapshot.
+     */
+    @Test
+    void testReadersSeeConsistentPrefixWhileWriting() throws InterruptedException {
+        Patient patient = new Patient(1);
+        int samples = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= samples; i++) {
+                patient.addRecord(i, SignalCatalog.ECG, i * 2L);
+                if (i % 1000 == 0) {
+                    patient.addRecord(-1, SignalCatalog.HEART_RATE, i * 2L);
+                    patient.addRecord(-1, SignalCatalog.HEART_RATE, i * 2L - 1000); // late
+                }
+            }
+        });
+        writer.start();
+        RecordCursor cursor = new RecordCursor();
+        int seen = 0;
+        while (seen < samples) {
+            List<PatientRecord> records = patient.getRecords(SignalCatalog.ECG, 0, Long.MAX_VALUE);
+            assertTrue(records.size() >= seen, "a later snapshot is never shorter");
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals((i + 1) * 2L, records.get(i).getTimestamp());
+                assertEquals(i + 1.0, records.get(i).getMeasurementValue());
+            }
+            seen = records.size();
+
+            int count = 0;
+            for (RecordCursor scan = patient.cursor(SignalCatalog.ECG, 0, Long.MAX_VALUE, cursor); scan.next(); ) {
+                count++;
+                assertEquals(scan.timestamp(), scan.value() * 2);
+            }
+            assertTrue(count >= seen);
+            List<PatientRecord> latest = patient.getLatestRecords(10);
+            for (int i = 1; i < latest.size(); i++) {
+                assertTrue(latest.get(i - 1).getTimestamp() <= latest.get(i).getTimestamp());
+            }
+        }
+        writer.join();
+        assertEquals(400, patient.getRecords(SignalCatalog.HEART_RATE, 0, Long.MAX_VALUE).size());
+    }
+
+    /**
+     * Aligning on the first record type's timestamps must pair each sample
+     * with the latest (as-of) or closest (nearest) sample of the other types
+     * within the tolerance.
+     */
+    @Test
+    void testAlignOnDriverTimestamps() {
+        Patient patient = new Patient(1);
+        for (long t = 1000; t <= 5000; t += 1000) {
+            patient.addRecord(t / 1000.0, SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, t);
+        }
+        patient.addRecord(0.90, SignalCatalog.BLOOD_OXYGEN, 900L);
+        patient.addRecord(0.95, SignalCatalog.BLOOD_OXYGEN, 2900L);
+        patient.addRecord(0.97, SignalCatalog.BLOOD_OXYGEN, 3100L);
+        patient.addRecord(0.99, SignalCatalog.BLOOD_OXYGEN, 4050L);
+        int[] types = {SignalCatalog.SYSTOLIC_BLOOD_PRESSURE, SignalCatalog.BLOOD_OXYGEN, SignalCatalog.HEART_RATE};
+
+        AlignedCursor rows = patient.align(types, 0, 10_000, 0, 500, AlignedCursor.Mode.AS_OF, null);
+        assertEquals(3, rows.columnCount());
+        double[] expected = {0.90, Double.NaN, 0.95, Double.NaN, Double.NaN};
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(rows.next());
+            assertEquals((i + 1) * 1000L, rows.timestamp());
+            assertEquals(i + 1.0, rows.value(0));
+            assertEquals(expected[i], rows.value(1));
+            assertEquals(!Double.isNaN(expected[i]), rows.isPresent(1));
+            assertFalse(rows.isPresent(2));
+            assertFalse(rows.isComplete());
+        }
+        assertFalse(rows.next());
+
+        rows = patient.align(types, 0, 10_000, 0, 150, AlignedCursor.Mode.NEAREST, rows);
+        expected = new double[] {0.90, Double.NaN, 0.95, 0.99, Double.NaN}; // 2900 wins the tie with 3100
+        for (double value : expected) {
+            assertTrue(rows.next());
+            assertEquals(value, rows.value(1));
+        }
+        assertFalse(rows.next());
+        assertThrows(IndexOutOfBoundsException.class, () -> patient.align(types, 0, 1, 0, 0,
+                AlignedCursor.Mode.AS_OF, null).value(3));
+        assertThrows(IllegalArgumentException.class, () -> patient.align(new int[0], 0, 1, 0, 0,
+                AlignedCursor.Mode.AS_OF, null));
+    }
+
+    /**
+     * A fixed grid must yield one row per step and match every type to it,
+     * and the merge must agree with a brute-force nearest search.
+     */
+    @Test
+    void testAlignOnFixedGridMatchesBruteForce() {
+        Patient patient = new Patient(1);
+        Random random = new Random(24);
+        int[] types = {SignalCatalog.HEART_RATE, SignalCatalog.BLOOD_OXYGEN};
+        long[][] timestamps = new long[2][];
+        for (int c = 0; c < 2; c++) {
+            timestamps[c] = new long[3000];
+            long t = 0;
+            for (int i = 0; i < 3000; i++) {
+                timestamps[c][i] = t += 1 + random.nextInt(700);
+                patient.addRecord(t, types[c], t); // the value is its timestamp
+            }
+        }
+        long tolerance = 250;
+        AlignedCursor rows = patient.align(types, 10_000, 600_000, 1000, tolerance, AlignedCursor.Mode.NEAREST,
+                null);
+        long grid = 10_000;
+        while (rows.next()) {
+            assertEquals(grid, rows.timestamp());
+            for (int c = 0; c < 2; c++) {
+                long best = Long.MAX_VALUE;
+                double bestValue = Double.NaN;
+                for (long t : timestamps[c]) {
+                    if (Math.abs(t - grid) < best) {
+                        best = Math.abs(t - grid);
+                        bestValue = t;
+                    }
+                }
+                assertEquals(best <= tolerance ? bestValue : Double.NaN, rows.value(c));
+            }
+            grid += 1000;
+        }
+        assertEquals(601_000, grid);
+    }
+
+    /**
+     * Downsampling must respect the point budget, keep the first and last
+     * samples and an isolated spike, and return only stored samples; a range
+     * within the budget comes back whole.
+     */
+    @Test
+    void testDownsampledKeepsShapeWithinBudget() {
+        Patient patient = new Patient(1);
+        long spikeAt = 37_000;
+        for (long t = 0; t < 60_000; t += 4) { // one minute of 250 Hz ECG
+            double value = t == spikeAt ? 5.0 : Math.sin(t / 100.0);
+            patient.addRecord(value, "ECG", t);
+        }
+
+        List<PatientRecord> points = patient.getDownsampled("ECG", 0L, Long.MAX_VALUE, 500);
+        assertTrue(points.size() <= 500);
+        assertTrue(points.size() > 400);
+        assertEquals(0L, points.get(0).getTimestamp());
+        assertEquals(59_996L, points.get(points.size() - 1).getTimestamp());
+        boolean spikeKept = false;
+        for (int i = 0; i < points.size(); i++) {
+            PatientRecord point = points.get(i);
+            long t = point.getTimestamp();
+            if (i > 0) {
+                assertTrue(t > points.get(i - 1).getTimestamp());
+            }
+            assertEquals(t == spikeAt ? 5.0 : Math.sin(t / 100.0), point.getMeasurementValue());
+            spikeKept |= t == spikeAt;
+        }
+        assertTrue(spikeKept);
+
+        List<PatientRecord> window = patient.getDownsampled(SignalCatalog.ECG, 1000L, 1399L, 500);
+        List<PatientRecord> raw = patient.getRecords(SignalCatalog.ECG, 1000L, 1399L);
+        assertEquals(raw.size(), window.size());
+        for (int i = 0; i < raw.size(); i++) {
+            assertEquals(raw.get(i).getTimestamp(), window.get(i).getTimestamp());
+        }
+        assertTrue(patient.getDownsampled("HeartRate", 0L, Long.MAX_VALUE, 500).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> patient.getDownsampled("ECG", 0L, 1000L, 2));
+    }
+}
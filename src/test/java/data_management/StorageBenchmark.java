@@ -0,0 +1,438 @@
+package data_management;
+
+import com.alerts.AlertGenerator;
+import com.data_management.ChunkCodec;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.SignalCatalog;
+import com.data_management.WriteAheadLog;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Stand-alone micro benchmarks for the data management layer.
+ * <p>
+ * These are not JUnit tests and are not run by Surefire. After
+ * {@code mvn test-compile} run a scenario with:
+ * <pre>
+ *     java -cp target/classes:target/test-classes data_management.StorageBenchmark memory
+ * </pre>
+ * Figures are printed to standard output and depend on the machine and JVM.
+ */
+public class StorageBenchmark {
+
+    private static final int SAMPLES = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        String scenario = args.length > 0 ? args[0] : "all";
+        if (scenario.equals("memory") || scenario.equals("all")) {
+            memory();
+        }
+        if (scenario.equals("dedupe") || scenario.equals("all")) {
+            dedupe();
+        }
+        if (scenario.equals("wal") || scenario.equals("all")) {
+            wal();
+        }
+        if (scenario.equals("snapshot") || scenario.equals("all")) {
+            snapshot();
+        }
+        if (scenario.equals("codec") || scenario.equals("all")) {
+            codec();
+        }
+        if (scenario.equals("alloc") || scenario.equals("all")) {
+            alloc();
+        }
+        if (scenario.equals("shards") || scenario.equals("all")) {
+            shards();
+        }
+        if (scenario.equals("batch") || scenario.equals("all")) {
+            batch();
+        }
+    }
+
+    /**
+     * Compares the retained heap of one million samples stored as a list of
+     * {@link PatientRecord} objects against the columnar {@link Patient} layout.
+     * The columnar layout is measured twice: with a perfectly regular signal
+     * (1 ms interval, values rising by 0.5), the best case for the chunk codec,
+     * and with 250 Hz ECG-like samples with 4-6 ms timestamp jitter and noisy
+     * values.
+     */
+    static void memory() {
+        long base = usedHeap();
+        List<PatientRecord> objects = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            // new String mirrors what the readers get back from String.split
+            objects.add(new PatientRecord(1, i * 0.5, new String("ECG"), 1_700_000_000_000L + i));
+        }
+        long objectBytes = usedHeap() - base;
+        Reference.reachabilityFence(objects);
+        objects = null;
+
+        base = usedHeap();
+        Patient patient = new Patient(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            patient.addRecord(i * 0.5, "ECG", 1_700_000_000_000L + i);
+        }
+        long columnarBytes = usedHeap() - base;
+        Reference.reachabilityFence(patient);
+        patient = null;
+
+        base = usedHeap();
+        Random random = new Random(1);
+        Patient noisy = new Patient(1);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < SAMPLES; i++) {
+            timestamp += 4 + random.nextInt(3);
+            noisy.addRecord(Math.sin(i / 10.0) + random.nextGaussian() * 0.05, "ECG", timestamp);
+        }
+        long noisyBytes = usedHeap() - base;
+        Reference.reachabilityFence(noisy);
+
+        System.out.printf("memory: List<PatientRecord>          %.1f MB per million samples%n", objectBytes / 1e6);
+        System.out.printf("memory: columnar, regular signal     %.1f MB per million samples%n", columnarBytes / 1e6);
+        System.out.printf("memory: columnar, jittered noisy ECG %.1f MB per million samples%n", noisyBytes / 1e6);
+    }
+
+    /**
+     * Measures {@link DataStorage#addPatientDataRealTime} throughput for one
+     * patient as its history grows; with hash-based duplicate checks the rate
+     * should stay flat.
+     */
+    static void dedupe() {
+        DataStorage warmup = new DataStorage();
+        for (int i = 0; i < 200_000; i++) {
+            warmup.addPatientDataRealTime(1, i % 97, "ECG", i);
+        }
+        DataStorage storage = new DataStorage();
+        int batch = 100_000;
+        long timestamp = 1_700_000_000_000L;
+        for (int round = 1; round <= 20; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                storage.addPatientDataRealTime(1, i % 97, "ECG", timestamp++);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (round == 1 || round % 5 == 0) {
+                System.out.printf("dedupe: history %,9d samples -> %,.0f inserts/s%n", round * batch, batch / seconds);
+            }
+        }
+    }
+
+    /**
+     * Compares ingest throughput without a write-ahead log and with one in each
+     * sync mode, then measures how fast the log replays.
+     */
+    static void wal() throws IOException {
+        int records = 2_000_000;
+        ingest(new DataStorage(), records / 4); // warm-up
+        System.out.printf("wal: disabled             %,12.0f records/s%n", ingest(new DataStorage(), records));
+        for (WriteAheadLog.SyncMode mode : WriteAheadLog.SyncMode.values()) {
+            Path log = Files.createTempFile("storage", ".wal");
+            DataStorage storage = new DataStorage();
+            storage.enableWriteAheadLog(log, mode);
+            double rate = ingest(storage, records);
+            storage.closeWriteAheadLog();
+            System.out.printf("wal: enabled, %-12s %,12.0f records/s%n", mode, rate);
+
+            long start = System.nanoTime();
+            DataStorage restarted = new DataStorage();
+            restarted.enableWriteAheadLog(log, mode);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            restarted.closeWriteAheadLog();
+            System.out.printf("wal: replay               %,12.0f records/s (%.1f MB log)%n",
+                    records / seconds, Files.size(log) / 1e6);
+            Files.delete(log);
+        }
+    }
+
+    /**
+     * Measures snapshot write and load time and compares the load with
+     * replaying a write-ahead log holding the same records.
+     */
+    static void snapshot() throws IOException {
+        int records = 2_000_000;
+        Path log = Files.createTempFile("storage", ".wal");
+        Path snapshot = Files.createTempFile("storage", ".snap");
+        DataStorage storage = new DataStorage();
+        storage.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_INTERVAL);
+        ingest(storage, records);
+        storage.closeWriteAheadLog();
+
+        long start = System.nanoTime();
+        storage.writeSnapshot(snapshot);
+        double writeSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("snapshot: write           %,12.0f records/s (%.1f MB)%n",
+                records / writeSeconds, Files.size(snapshot) / 1e6);
+
+        for (int round = 0; round < 3; round++) {
+            start = System.nanoTime();
+            new DataStorage().loadSnapshot(snapshot);
+            double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            DataStorage replayed = new DataStorage();
+            replayed.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_INTERVAL);
+            double replaySeconds = (System.nanoTime() - start) / 1e9;
+            replayed.closeWriteAheadLog();
+            System.out.printf("snapshot: load %,8.1f ms, wal replay %,8.1f ms%n",
+                    loadSeconds * 1e3, replaySeconds * 1e3);
+        }
+        Files.delete(log);
+        Files.delete(snapshot);
+    }
+
+    /**
+     * Measures {@link ChunkCodec} encode and decode speed and compression ratio
+     * on 1024-sample chunks of a slowly changing vital sign at a fixed interval
+     * and of a noisy ECG-like signal with jittered timestamps.
+     */
+    static void codec() {
+        int count = 1024;
+        Random random = new Random(1);
+        long[] regularTimestamps = new long[count];
+        double[] regularValues = new double[count];
+        long[] noisyTimestamps = new long[count];
+        double[] noisyValues = new double[count];
+        long regular = 1_700_000_000_000L;
+        long noisy = regular;
+        double heartRate = 72;
+        for (int i = 0; i < count; i++) {
+            regularTimestamps[i] = regular += 1000;
+            if (random.nextInt(20) == 0) {
+                heartRate += random.nextBoolean() ? 1 : -1;
+            }
+            regularValues[i] = heartRate;
+            noisyTimestamps[i] = noisy += 4 + random.nextInt(3);
+            noisyValues[i] = Math.sin(i / 10.0) + random.nextGaussian() * 0.05;
+        }
+        codec("regular vitals", regularTimestamps, regularValues);
+        codec("noisy ECG", noisyTimestamps, noisyValues);
+    }
+
+    private static void codec(String name, long[] timestamps, double[] values) {
+        int count = timestamps.length;
+        int rounds = 20_000;
+        long[] decodedTimestamps = new long[count];
+        double[] decodedValues = new double[count];
+        long[] encoded = null;
+        for (int warmup = 0; warmup < rounds; warmup++) {
+            encoded = ChunkCodec.encode(timestamps, values, count);
+            ChunkCodec.decode(encoded, decodedTimestamps, decodedValues);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            encoded = ChunkCodec.encode(timestamps, values, count);
+        }
+        double encodeSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            ChunkCodec.decode(encoded, decodedTimestamps, decodedValues);
+        }
+        double decodeSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("codec: %-15s encode %,6.0f M samples/s, decode %,6.0f M samples/s, "
+                + "%.2f bytes/sample (%.1fx)%n", name, rounds * (double) count / encodeSeconds / 1e6,
+                rounds * (double) count / decodeSeconds / 1e6, encoded.length * 8.0 / count,
+                count * 16.0 / (encoded.length * 8));
+    }
+
+    /**
+     * Compares time and heap allocation per scan of a ten-minute window of
+     * 250 Hz ECG read through {@code getRecords} and through a reused
+     * {@link RecordCursor}, and per full {@link AlertGenerator#evaluateAll}.
+     * Allocation is read from the per-thread counter of the HotSpot
+     * {@code ThreadMXBean}.
+     */
+    static void alloc() {
+        DataStorage storage = new DataStorage();
+        long start = 1_700_000_000_000L;
+        long end = start + 10 * 60_000L;
+        for (long t = start; t < end; t += 4) {
+            storage.addPatientData(1, Math.sin(t / 100.0), "ECG", t);
+            if ((t - start) % 1000 == 0) {
+                storage.addPatientData(1, 0.97, "BloodOxygen", t);
+                storage.addPatientData(1, 120, "SystolicBloodPressure", t);
+                storage.addPatientData(1, 80, "DiastolicBloodPressure", t);
+            }
+        }
+        Patient patient = storage.getAllPatients().get(0);
+        RecordCursor cursor = new RecordCursor();
+        AlertGenerator alerts = new AlertGenerator(storage);
+        int rounds = 2_000;
+        double[] sink = new double[1];
+
+        Runnable list = () -> {
+            for (PatientRecord record : patient.getRecords(SignalCatalog.ECG, start, end)) {
+                sink[0] += record.getMeasurementValue();
+            }
+        };
+        Runnable scan = () -> {
+            RecordCursor records = patient.cursor(SignalCatalog.ECG, start, end, cursor);
+            while (records.next()) {
+                sink[0] += records.value();
+            }
+        };
+        Runnable evaluate = () -> alerts.evaluateAll(patient, start, end);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            measure(list, rounds);
+            measure(scan, rounds);
+            measure(evaluate, rounds / 10);
+        }
+        report("getRecords list", measure(list, rounds));
+        report("RecordCursor", measure(scan, rounds));
+        report("evaluateAll", measure(evaluate, rounds / 10));
+    }
+
+    /**
+     * Ingest throughput of one producer thread per core feeding 1,000 patients
+     * with all simulator signals, directly under patient locks and through 1 to
+     * N single-writer shards, where N is at least the number of cores.
+     */
+    static void shards() {
+        int producers = Runtime.getRuntime().availableProcessors();
+        int records = 4_000_000;
+        System.out.printf("shards: %d producer threads, %,d records%n", producers, records);
+        System.out.printf("shards: %-10s %,12.0f records/s%n", "locking", concurrentIngest(0, producers, records));
+        for (int shards = 1; shards <= Math.max(4, producers); shards *= 2) {
+            System.out.printf("shards: %-10d %,12.0f records/s%n", shards,
+                    concurrentIngest(shards, producers, records));
+        }
+    }
+
+    /**
+     * Compares single-threaded ingest of interleaved records for 100 patients
+     * through {@link DataStorage#addPatientData} one record at a time and
+     * through {@link DataStorage#addPatientDataBatch} in batches of 4,096, the
+     * size {@code FileDataReader} uses.
+     */
+    static void batch() {
+        int records = 4_000_000;
+        int batchSize = 4096;
+        int[] patientIds = new int[records];
+        long[] timestamps = new long[records];
+        int[] typeCodes = new int[records];
+        double[] values = new double[records];
+        int[] signals = {SignalCatalog.ECG, SignalCatalog.BLOOD_OXYGEN, SignalCatalog.HEART_RATE};
+        for (int i = 0; i < records; i++) {
+            patientIds[i] = 1 + i % 100;
+            timestamps[i] = 1_700_000_000_000L + i / 100;
+            typeCodes[i] = signals[i / 100 % signals.length];
+            values[i] = i % 97;
+        }
+        int[] batchIds = new int[batchSize];
+        long[] batchTimestamps = new long[batchSize];
+        int[] batchTypes = new int[batchSize];
+        double[] batchValues = new double[batchSize];
+        for (int round = 0; round < 5; round++) {
+            DataStorage storage = new DataStorage();
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                storage.addPatientData(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+            }
+            double singleSeconds = (System.nanoTime() - start) / 1e9;
+
+            storage = new DataStorage();
+            start = System.nanoTime();
+            for (int offset = 0; offset < records; offset += batchSize) {
+                int count = Math.min(batchSize, records - offset);
+                // copy as a reader filling its batch arrays would
+                System.arraycopy(patientIds, offset, batchIds, 0, count);
+                System.arraycopy(timestamps, offset, batchTimestamps, 0, count);
+                System.arraycopy(typeCodes, offset, batchTypes, 0, count);
+                System.arraycopy(values, offset, batchValues, 0, count);
+                storage.addPatientDataBatch(batchIds, batchTimestamps, batchTypes, batchValues, count);
+            }
+            double batchSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("batch: single %,12.0f records/s, batched %,12.0f records/s%n",
+                    records / singleSeconds, records / batchSeconds);
+        }
+    }
+
+    private static double concurrentIngest(int shards, int producers, int records) {
+        int[] signals = {SignalCatalog.ECG, SignalCatalog.SYSTOLIC_BLOOD_PRESSURE,
+                SignalCatalog.DIASTOLIC_BLOOD_PRESSURE, SignalCatalog.BLOOD_OXYGEN, SignalCatalog.HEART_RATE,
+                SignalCatalog.CHOLESTEROL, SignalCatalog.WHITE_BLOOD_CELLS, SignalCatalog.RED_BLOOD_CELLS};
+        double best = 0;
+        for (int round = 0; round < 3; round++) {
+            DataStorage storage = new DataStorage();
+            if (shards > 0) {
+                storage.enableSharding(shards);
+            }
+            Thread[] threads = new Thread[producers];
+            int perProducer = records / producers;
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                threads[p] = new Thread(() -> {
+                    long timestamp = 1_700_000_000_000L;
+                    for (int i = 0; i < perProducer; i++) {
+                        int patientId = 1 + (i * producers + producer) % 1000;
+                        storage.addPatientData(patientId, i % 97, signals[i % signals.length], timestamp + i);
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                storage.awaitIngest();
+                double rate = perProducer * (double) producers / ((System.nanoTime() - start) / 1e9);
+                best = Math.max(best, rate);
+                storage.disableSharding();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return best;
+            }
+        }
+        return best;
+    }
+
+    /** Returns {nanoseconds per op, bytes allocated per op}. */
+    private static double[] measure(Runnable operation, int rounds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            operation.run();
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        return new double[] {nanos / (double) rounds, bytes / (double) rounds};
+    }
+
+    private static void report(String name, double[] result) {
+        System.out.printf("alloc: %-16s %,10.1f us/op %,12.0f B/op%n", name, result[0] / 1e3, result[1]);
+    }
+
+    private static double ingest(DataStorage storage, int records) {
+        long timestamp = 1_700_000_000_000L;
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            storage.addPatientData(1 + i % 100, i % 97, "ECG", timestamp + i / 100);
+        }
+        return records / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
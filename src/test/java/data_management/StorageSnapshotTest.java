@@ -0,0 +1,208 @@
+package data_management;
+
+import com.data_management.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for binary snapshots of {@link DataStorage}.
+ */
+class StorageSnapshotTest {
+
+    /** Temporary directory holding the snapshot files. */
+    @TempDir
+    Path tempDir;
+
+    /**
+     * A loaded snapshot must contain exactly the records that were written,
+     * including series spanning several chunks.
+     *
+     * @throws Exception if the snapshot cannot be written or read
+     */
+    @Test
+    void testSnapshotRoundTrip() throws Exception {
+        Path snapshot = tempDir.resolve("storage.snap");
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 5000; i++) {
+            storage.addPatientData(i % 4, i * 0.5, i % 3 == 0 ? "ECG" : "HeartRate", i);
+        }
+        storage.addPatientData(2_000_000, 0.97, "BloodOxygen", 42L);
+        storage.writeSnapshotAsync(snapshot).get();
+
+        DataStorage restored = new DataStorage();
+        restored.loadSnapshot(snapshot);
+        assertEquals(5, restored.getAllPatients().size());
+        for (int id = 0; id < 4; id++) {
+            List<PatientRecord> expected = storage.getRecords(id, 0L, Long.MAX_VALUE);
+            List<PatientRecord> actual = restored.getRecords(id, 0L, Long.MAX_VALUE);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+                assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+            }
+        }
+        assertEquals(0.97, restored.getRecords(2_000_000, "BloodOxygen", 0L, 100L).get(0).getMeasurementValue());
+        assertEquals(1, restored.getRollups(0, "HeartRate", 0L, 59_999L, 60_000L).size());
+    }
+
+    /**
+     * Files that are not snapshots, are cut short, or give a series more
+     * samples than the file holds must be rejected.
+     *
+     * @throws IOException if the test files cannot be written
+     */
+    @Test
+    void testInvalidSnapshotIsRejected() throws IOException {
+        Path garbage = tempDir.resolve("garbage.snap");
+        Files.write(garbage, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> new DataStorage().loadSnapshot(garbage));
+
+        Path snapshot = tempDir.resolve("truncated.snap");
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+        storage.writeSnapshot(snapshot);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length - 12));
+        assertThrows(IOException.class, () -> new DataStorage().loadSnapshot(snapshot));
+
+        // header, patient block and the 9-byte "HeartRate" name precede the count
+        int countOffset = 16 + 8 + 2 + 9;
+        for (int count : new int[] {-1, Integer.MAX_VALUE, 2}) {
+            ByteBuffer.wrap(bytes).putInt(countOffset, count);
+            Path corrupt = tempDir.resolve("count" + count + ".snap");
+            Files.write(corrupt, bytes);
+            assertThrows(IOException.class, () -> new DataStorage().loadSnapshot(corrupt));
+        }
+    }
+
+    /**
+     * Record type names up to 65535 bytes must load back; longer ones must be
+     * rejected when writing.
+     *
+     * @throws IOException if the snapshot cannot be written or read
+     */
+    @Test
+    void testLongRecordTypeNames() throws IOException {
+        Path snapshot = tempDir.resolve("names.snap");
+        String longName = "Signal" + "x".repeat(40_000);
+        DataStorage storage = new DataStorage();
+        storage.addPatientData(1, 80.0, longName, 1000L);
+        storage.writeSnapshot(snapshot);
+        DataStorage restored = new DataStorage();
+        restored.loadSnapshot(snapshot);
+        assertEquals(80.0, restored.getRecords(1, longName, 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+
+        storage.addPatientData(1, 81.0, "Signal" + "y".repeat(70_000), 1000L);
+        assertThrows(IOException.class, () -> storage.writeSnapshot(tempDir.resolve("oversized.snap")));
+    }
+
+    /**
+     * Snapshots copy the published series views, so a writer holding a
+     * patient's lock must not hold up the snapshot.
+     *
+     * @throws Exception if the snapshot cannot be written or read
+     */
+    @Test
+    void testSnapshotDoesNotWaitForPatientLock() throws Exception {
+        Path snapshot = tempDir.resolve("unlocked.snap");
+        DataStorage storage = new DataStorage();
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(1, i, "ECG", i);
+        }
+        Patient patient = storage.getAllPatients().get(0);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            synchronized (patient) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        writer.start();
+        try {
+            locked.await();
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> storage.writeSnapshot(snapshot));
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+        DataStorage restored = new DataStorage();
+        restored.loadSnapshot(snapshot);
+        assertEquals(3000, restored.getRecords(1, 0L, Long.MAX_VALUE).size());
+    }
+
+    /**
+     * A write-ahead log enabled after loading a snapshot must replay only the
+     * records logged after the snapshot's checkpoint, so nothing is restored
+     * twice. Loading a snapshot on top of an enabled log must be refused.
+     *
+     * @throws Exception if the snapshot or log cannot be written or read
+     */
+    @Test
+    void testWriteAheadLogResumesAtSnapshotCheckpoint() throws Exception {
+        Path snapshot = tempDir.resolve("checkpoint.snap");
+        Path log = tempDir.resolve("checkpoint.wal");
+        DataStorage storage = new DataStorage();
+        storage.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        for (int i = 0; i < 3000; i++) {
+            storage.addPatientData(i % 3, i, "HeartRate", i);
+        }
+        storage.writeSnapshot(snapshot);
+        for (int i = 3000; i < 5000; i++) {
+            storage.addPatientData(i % 3, i, "HeartRate", i);
+        }
+        storage.closeWriteAheadLog();
+
+        DataStorage restored = new DataStorage();
+        restored.loadSnapshot(snapshot);
+        restored.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        try {
+            int total = 0;
+            for (int id = 0; id < 3; id++) {
+                List<PatientRecord> records = restored.getRecords(id, 0L, Long.MAX_VALUE);
+                for (int i = 0; i < records.size(); i++) {
+                    assertEquals(id + 3L * i, records.get(i).getTimestamp());
+                }
+                total += records.size();
+            }
+            assertEquals(5000, total);
+            assertThrows(IllegalStateException.class, () -> restored.loadSnapshot(snapshot));
+        } finally {
+            restored.closeWriteAheadLog();
+        }
+    }
+
+    /**
+     * Snapshots hold only the in-memory series, so writing one while part of
+     * the history lives in cold storage must be refused.
+     *
+     * @throws IOException if cold storage cannot be opened or closed
+     */
+    @Test
+    void testSnapshotWithColdStorageIsRejected() throws IOException {
+        DataStorage storage = new DataStorage();
+        storage.enableColdStorage(tempDir.resolve("cold"), 1000L);
+        try {
+            storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+            assertThrows(IllegalStateException.class, () -> storage.writeSnapshot(tempDir.resolve("cold.snap")));
+            assertThrows(IllegalStateException.class,
+                    () -> storage.writeSnapshotAsync(tempDir.resolve("cold.snap")));
+        } finally {
+            storage.closeColdStorage();
+        }
+    }
+}
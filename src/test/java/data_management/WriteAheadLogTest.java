@@ -0,0 +1,110 @@
+package data_management;
+
+import com.data_management.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@link WriteAheadLog} behind {@link DataStorage}.
+ * <p>
+ * These tests verify that logged records are replayed on restart and that a
+ * torn tail left by a crash is discarded.
+ */
+class WriteAheadLogTest {
+
+    /** Temporary directory holding the log files. */
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Records added before a restart must be present after re-opening the log.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Test
+    void testReplayAfterRestart() throws IOException {
+        Path log = tempDir.resolve("storage.wal");
+        DataStorage storage = new DataStorage();
+        storage.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH, 256, 5);
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(i % 3, i, i % 2 == 0 ? "ECG" : "HeartRate", i);
+        }
+        assertTrue(storage.addPatientDataRealTime(7, 0.95, "BloodOxygen", 5000L));
+        assertFalse(storage.addPatientDataRealTime(7, 0.95, "BloodOxygen", 5000L));
+        storage.closeWriteAheadLog();
+
+        DataStorage restarted = new DataStorage();
+        restarted.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_INTERVAL);
+        assertEquals(4, restarted.getAllPatients().size());
+        List<PatientRecord> ecg = restarted.getRecords(0, "ECG", 0L, Long.MAX_VALUE);
+        assertEquals(167, ecg.size());
+        assertEquals(1, restarted.getRecords(7, 0L, Long.MAX_VALUE).size());
+
+        // records added after the restart are appended to the same log
+        restarted.addPatientData(0, 42.0, "Cholesterol", 9000L);
+        restarted.closeWriteAheadLog();
+        DataStorage again = new DataStorage();
+        again.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        assertEquals(42.0, again.getRecords(0, "Cholesterol", 0L, Long.MAX_VALUE).get(0).getMeasurementValue());
+        again.closeWriteAheadLog();
+    }
+
+    /**
+     * A partially written trailing batch must be ignored and truncated.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Test
+    void testTornTailIsDiscarded() throws IOException {
+        Path log = tempDir.resolve("torn.wal");
+        DataStorage storage = new DataStorage();
+        storage.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+        storage.closeWriteAheadLog();
+        long validLength = Files.size(log);
+        Files.write(log, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        DataStorage restarted = new DataStorage();
+        restarted.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        assertEquals(1, restarted.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertEquals(validLength, Files.size(log));
+        restarted.closeWriteAheadLog();
+    }
+
+    /**
+     * A batch with a valid checksum that uses a type code never defined in the
+     * file is corrupt: replay must stop before it instead of failing.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    @Test
+    void testUndefinedTypeCodeStopsReplay() throws IOException {
+        Path log = tempDir.resolve("undefined.wal");
+        DataStorage storage = new DataStorage();
+        storage.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        storage.addPatientData(1, 80.0, "HeartRate", 1000L);
+        storage.closeWriteAheadLog();
+        long validLength = Files.size(log);
+        ByteBuffer entry = ByteBuffer.allocate(25);
+        entry.put((byte) 2).putInt(1).putLong(2000L).putDouble(81.0).putInt(99).flip();
+        CRC32 crc = new CRC32();
+        crc.update(entry.duplicate());
+        ByteBuffer batch = ByteBuffer.allocate(8 + 25);
+        batch.putInt(25).putInt((int) crc.getValue()).put(entry);
+        Files.write(log, batch.array(), StandardOpenOption.APPEND);
+
+        DataStorage restarted = new DataStorage();
+        restarted.enableWriteAheadLog(log, WriteAheadLog.SyncMode.PER_BATCH);
+        assertEquals(1, restarted.getRecords(1, 0L, Long.MAX_VALUE).size());
+        assertEquals(validLength, Files.size(log));
+        restarted.closeWriteAheadLog();
+    }
+}